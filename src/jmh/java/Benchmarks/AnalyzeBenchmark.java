@@ -0,0 +1,59 @@
+package Benchmarks;
+
+import Util.TextAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Analysis throughput of TextAnalyzer
+ * ops/s = texts/s, tokens counter = tokens/s
+ *
+ * @author Michael Mario Kubicki
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class AnalyzeBenchmark {
+
+    @Param({"600"})
+    public int words;
+
+    @Param({"42"})
+    public long seed;
+
+    private String[] texts;
+    private Analyzer analyzer;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Corpus corpus = new Corpus(20000, seed);
+        texts = new String[256];
+        for (int i = 0; i < texts.length; ++i)
+            texts[i] = corpus.Text(words);
+        analyzer = TextAnalyzer.GetAnalyzer();
+    }
+
+    @Benchmark
+    public int analyze(Counters.Tokens counters) throws IOException {
+        int tokens = 0;
+        try (TokenStream stream = analyzer.tokenStream("content", texts[next++ % texts.length])) {
+            stream.reset();
+            while (stream.incrementToken())
+                tokens++;
+            stream.end();
+        }
+        counters.tokens += tokens;
+        return tokens;
+    }
+
+    @Benchmark
+    public Analyzer getAnalyzer() throws IOException {
+        //Shared analyzer, should be a map lookup
+        return TextAnalyzer.GetAnalyzer();
+    }
+}
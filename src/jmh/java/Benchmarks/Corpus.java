@@ -0,0 +1,173 @@
+package Benchmarks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic documents for benchmarks
+ * Words follow a Zipf distribution over a generated vocabulary,
+ * files are a mix of plain text and HTML like the test-documents
+ * Same seed gives same corpus
+ *
+ * @author Michael Mario Kubicki
+ */
+public class Corpus {
+
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "ne", "ru", "sa", "te", "vo", "pi", "da",
+            "ge", "hu", "ji", "qu", "we", "xo", "ya", "zu", "bo", "fe"
+    };
+
+    private final String[] vocabulary;
+    //Cumulative probability of vocabulary[i]
+    private final double[] cumulative;
+    private final Random random;
+
+    /**
+     * Construct generator
+     *
+     * @param vocabularySize number of different words
+     * @param seed           seed of random
+     * @author Michael Mario Kubicki
+     */
+    public Corpus(int vocabularySize, long seed) {
+        random = new Random(seed);
+        vocabulary = new String[vocabularySize];
+        cumulative = new double[vocabularySize];
+
+        double sum = 0;
+        for (int i = 0; i < vocabularySize; ++i) {
+            StringBuilder word = new StringBuilder();
+            int syllables = 1 + random.nextInt(4);
+            for (int s = 0; s < syllables; ++s)
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            vocabulary[i] = word.toString() + i;
+
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < vocabularySize; ++i)
+            cumulative[i] /= sum;
+    }
+
+    /**
+     * Next random word, frequent words are more likely
+     *
+     * @return word
+     * @author Michael Mario Kubicki
+     */
+    public String Word() {
+        double p = random.nextDouble();
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < p)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return vocabulary[low];
+    }
+
+    /**
+     * Random text
+     *
+     * @param words number of words
+     * @return text with sentences
+     * @author Michael Mario Kubicki
+     */
+    public String Text(int words) {
+        StringBuilder text = new StringBuilder(words * 8);
+        for (int i = 0; i < words; ++i) {
+            text.append(Word());
+            text.append(i % 12 == 11 ? ". " : " ");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Random queries of one to three words
+     *
+     * @param count number of queries
+     * @return queries
+     * @author Michael Mario Kubicki
+     */
+    public String[] Queries(int count) {
+        String[] queries = new String[count];
+        for (int i = 0; i < count; ++i) {
+            int words = 1 + random.nextInt(3);
+            StringBuilder query = new StringBuilder();
+            for (int w = 0; w < words; ++w)
+                query.append(w == 0 ? "" : " ").append(Word());
+            queries[i] = query.toString();
+        }
+        return queries;
+    }
+
+    /**
+     * Write documents into directory, spread over subdirectories
+     *
+     * @param dir       target directory, created if needed
+     * @param docCount  number of documents
+     * @param htmlShare part of documents written as HTML (0..1)
+     * @param meanWords average number of words per document
+     * @return written files
+     * @throws IOException Exception while writing
+     * @author Michael Mario Kubicki
+     */
+    public List<File> Write(File dir, int docCount, double htmlShare, int meanWords) throws IOException {
+        List<File> files = new ArrayList<>(docCount);
+        for (int i = 0; i < docCount; ++i) {
+            File sub = new File(dir, "d" + (i % 16));
+            sub.mkdirs();
+
+            //Sizes vary between 1/4 and 7/4 of the mean
+            int words = meanWords / 4 + random.nextInt(Math.max(1, meanWords * 3 / 2));
+            boolean html = random.nextDouble() < htmlShare;
+
+            File file = new File(sub, "doc" + i + (html ? ".html" : ".txt"));
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                if (html) {
+                    out.write("<html><head><title>" + Text(4) + "</title></head><body>");
+                    out.write("<h1>" + Text(6) + "</h1><p>" + Text(words) + "</p>");
+                    out.write("<script>var x = 1;</script></body></html>");
+                } else {
+                    out.write(Text(words));
+                }
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Delete directory with everything in it
+     *
+     * @param dir directory
+     * @throws IOException Exception while deleting
+     * @author Michael Mario Kubicki
+     */
+    public static void Delete(File dir) throws IOException {
+        if (!dir.exists())
+            return;
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,64 @@
+package Benchmarks;
+
+import Indexing.PlainIndexer;
+import Util.FileIndexerRegistry;
+import Util.IFileIndexer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Corpus on disk shared by benchmarks of one trial
+ * size and mix of file types are benchmark parameters (-p docCount=... -p htmlShare=...)
+ *
+ * @author Michael Mario Kubicki
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    @Param({"2000"})
+    public int docCount;
+
+    @Param({"0.25"})
+    public double htmlShare;
+
+    @Param({"600"})
+    public int meanWords;
+
+    @Param({"42"})
+    public long seed;
+
+    public File dir;
+    public List<File> files;
+    public Corpus corpus;
+
+    private final FileIndexerRegistry registry = FileIndexerRegistry.Load();
+    private final IFileIndexer plain = new PlainIndexer();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ir-bench-corpus").toFile();
+        corpus = new Corpus(20000, seed);
+        files = corpus.Write(dir, docCount, htmlShare, meanWords);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Corpus.Delete(dir);
+    }
+
+    /**
+     * Indexer for file like Main selects them
+     *
+     * @param file File
+     * @return IFileIndexer
+     * @author Michael Mario Kubicki
+     */
+    public IFileIndexer IndexerFor(File file) {
+        IFileIndexer indexer = registry.Get(file);
+        return indexer == null ? plain : indexer;
+    }
+}
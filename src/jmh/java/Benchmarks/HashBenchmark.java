@@ -0,0 +1,33 @@
+package Benchmarks;
+
+import Util.FileHasher;
+import Util.HashAlgorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hash throughput of change detection
+ * ops/s = files/s, bytes counter = bytes/s
+ *
+ * @author Michael Mario Kubicki
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class HashBenchmark {
+
+    @Param({"MD5", "Checksum"})
+    public HashAlgorithm algorithm;
+
+    private int next;
+
+    @Benchmark
+    public byte[] hash(CorpusState corpus, Counters.Bytes counters) throws IOException {
+        File file = corpus.files.get(next++ % corpus.files.size());
+        counters.bytes += file.length();
+        return FileHasher.Hash(file, algorithm);
+    }
+}
@@ -0,0 +1,50 @@
+package Benchmarks;
+
+import Util.TextAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexing throughput: parse and addDocument into an in-memory index
+ * ops/s = docs/s
+ *
+ * @author Michael Mario Kubicki
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class IndexBenchmark {
+
+    private IndexWriter writer;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(TextAnalyzer.GetAnalyzer());
+        config.setSimilarity(new BM25Similarity());
+        writer = new IndexWriter(new ByteBuffersDirectory(), config);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        writer.close();
+        writer.getDirectory().close();
+    }
+
+    @Benchmark
+    public long index(CorpusState corpus, Counters.Bytes counters) throws IOException {
+        File file = corpus.files.get(next++ % corpus.files.size());
+        counters.bytes += file.length();
+
+        Document doc = corpus.IndexerFor(file).index(file);
+        return writer.addDocument(doc);
+    }
+}
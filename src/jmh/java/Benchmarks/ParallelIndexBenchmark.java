@@ -0,0 +1,63 @@
+package Benchmarks;
+
+import Indexing.Indexer;
+import Indexing.PlainIndexer;
+import Util.CheckedList;
+import Util.RankingModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full reindex of the corpus by Indexer.Index with different worker counts
+ * One op = whole corpus (check, hash, parse, add, commit), docs/s = docCount / time
+ * Speedup depends on cores, so keep the printed processor count with the numbers
+ *
+ * @author Michael Mario Kubicki
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class ParallelIndexBenchmark {
+
+    private static final Set<String> TYPES = new HashSet<>(Arrays.asList(".txt", ".html"));
+
+    //index_threads: 1 = serial path, 0 = one per processor
+    @Param({"1", "2", "4", "0"})
+    public int threads;
+
+    private File indexDir;
+    private Indexer indexer;
+
+    @Setup(Level.Trial)
+    public void processors() {
+        System.out.println("# Processors: " + Runtime.getRuntime().availableProcessors());
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException {
+        indexDir = Files.createTempDirectory("ir-bench-index").toFile();
+        indexer = new Indexer();
+        indexer.AddFileIndexer(".txt", new PlainIndexer());
+        indexer.SetThreadCount(threads);
+        indexer.SetUp(indexDir, RankingModel.Okapi, new PlainIndexer(), new CheckedList());
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        indexer.Close();
+        Corpus.Delete(indexDir);
+    }
+
+    @Benchmark
+    public void index(CorpusState corpus) throws IOException {
+        indexer.Index(corpus.dir, TYPES);
+        indexer.Commit();
+    }
+}
@@ -0,0 +1,47 @@
+package Benchmarks;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput of IFileIndexer implementations
+ * content given as Reader is read completely, as indexing would
+ * ops/s = docs/s
+ *
+ * @author Michael Mario Kubicki
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+    private final char[] buffer = new char[8192];
+    private int next;
+
+    @Benchmark
+    public long parse(CorpusState corpus, Counters.Bytes counters) throws IOException {
+        File file = corpus.files.get(next++ % corpus.files.size());
+        counters.bytes += file.length();
+
+        Document doc = corpus.IndexerFor(file).index(file);
+        long chars = 0;
+        for (IndexableField field : doc.getFields()) {
+            if (field.readerValue() != null) {
+                try (Reader reader = field.readerValue()) {
+                    int read;
+                    while ((read = reader.read(buffer)) != -1)
+                        chars += read;
+                }
+            } else if (field.stringValue() != null) {
+                chars += field.stringValue().length();
+            }
+        }
+        return chars;
+    }
+}
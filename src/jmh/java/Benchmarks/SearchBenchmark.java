@@ -0,0 +1,68 @@
+package Benchmarks;
+
+import Indexing.Indexer;
+import Indexing.PlainIndexer;
+import Searching.Searcher;
+import Util.CheckedList;
+import Util.RankingModel;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.ScoreDoc;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query latency of Searcher for both ranking models
+ * sampled, so the JSON result contains p50/p90/p99/...
+ *
+ * @author Michael Mario Kubicki
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    @Param({"VectorSpace", "Okapi"})
+    public RankingModel model;
+
+    @Param({"10"})
+    public int resultCount;
+
+    private File indexDir;
+    private Searcher searcher;
+    private String[] queries;
+
+    @Setup(Level.Trial)
+    public void setUp(CorpusState corpus) throws IOException {
+        indexDir = Files.createTempDirectory("ir-bench-index").toFile();
+
+        //Build index the way Main does
+        Indexer indexer = new Indexer(indexDir, model, new PlainIndexer(), new CheckedList());
+        indexer.Index(corpus.dir, new HashSet<>(Arrays.asList(".txt", ".htm", ".html")));
+        indexer.Close();
+
+        searcher = new Searcher(indexDir, model, "content", "title");
+        queries = corpus.corpus.Queries(1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searcher.Close();
+        Corpus.Delete(indexDir);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public ScoreDoc[] search(Cursor cursor) throws IOException, ParseException {
+        return searcher.Search(queries[cursor.next++ % queries.length], resultCount);
+    }
+}
@@ -0,0 +1,52 @@
+package Indexing;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reader which is only created on first read
+ * Documents wait in a batch before they are indexed, so their files shouldn't be open until then
+ * Closing before the first read never opens anything
+ *
+ * @author Michael Mario Kubicki
+ * @see MutationBatch
+ */
+class DeferredReader extends Reader {
+
+    /**
+     * Creates the actual reader
+     */
+    interface Opener {
+        Reader open() throws IOException;
+    }
+
+    private final Opener opener;
+    private Reader in;
+    private boolean closed;
+
+    /**
+     * Reader opened by opener on first read
+     *
+     * @param opener creates the actual reader
+     * @author Michael Mario Kubicki
+     */
+    DeferredReader(Opener opener) {
+        this.opener = opener;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("Reader is closed");
+        if (in == null)
+            in = opener.open();
+        return in.read(cbuf, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (in != null)
+            in.close();
+    }
+}
@@ -0,0 +1,396 @@
+package Indexing;
+
+import Util.LinkPolicy;
+import Util.Metrics;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Finds the files to index below a directory
+ * Every directory is listed once through Files.walkFileTree with depth 1,
+ * which hands out the attributes of each entry, no extra isDirectory/exists/canRead per entry
+ * <p>
+ * With more than one thread subdirectories are listed in parallel by a ForkJoinPool,
+ * files are handed to the sink as soon as their directory is listed, so indexing starts with the first one.
+ * A sink putting into a bounded queue slows the crawl down to the speed of its consumers
+ * <p>
+ * Unreadable directories are skipped and counted, they don't stop the crawl.
+ * Files aren't checked for being readable, that shows once they are opened
+ *
+ * @author Michael Mario Kubicki
+ * @see DirectoryCrawler#Crawl(File, Sink)
+ */
+public class DirectoryCrawler {
+
+    /**
+     * Gets every file found by the crawl
+     * Called by all crawling threads at once
+     *
+     * @author Michael Mario Kubicki
+     */
+    public interface Sink {
+        /**
+         * File was found
+         *
+         * @param file  found file
+         * @param attrs attributes read while listing its directory
+         * @throws IOException stops the crawl, thrown by Crawl(...)
+         */
+        void accept(File file, BasicFileAttributes attrs) throws IOException;
+    }
+
+    private final FileFilter filter;
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private LinkPolicy links = LinkPolicy.Follow;
+    private int maxDepth = Integer.MAX_VALUE;
+    private int threadCount = 1;
+
+    private static final Metrics.Timer WALK = Metrics.Stage("walk");
+    private static final Metrics.Counter SKIPPED = Metrics.Counter("ir_crawl_skipped_total",
+            "Unreadable files and directories skipped while crawling");
+
+    /**
+     * Crawler for files accepted by filter
+     *
+     * @param filter filter for file types
+     * @author Michael Mario Kubicki
+     */
+    public DirectoryCrawler(FileFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Set globs paths have to match, relative to crawled directory, e.g. "**&#47;docs/**"
+     * Includes only apply to files, excluded directories are not crawled at all
+     * No includes = every file
+     *
+     * @param include globs of files to index
+     * @param exclude globs of files and directories to leave out
+     * @author Michael Mario Kubicki
+     */
+    public void SetGlobs(Collection<String> include, Collection<String> exclude) {
+        FileSystem fileSystem = FileSystems.getDefault();
+        includes.clear();
+        excludes.clear();
+        for (String glob : include)
+            includes.add(fileSystem.getPathMatcher("glob:" + glob));
+        for (String glob : exclude)
+            excludes.add(fileSystem.getPathMatcher("glob:" + glob));
+    }
+
+    /**
+     * Set what happens to symbolic links
+     * Follow by default, like File.listFiles() crawls did
+     *
+     * @param links policy
+     * @author Michael Mario Kubicki
+     */
+    public void SetLinks(LinkPolicy links) {
+        this.links = links;
+    }
+
+    /**
+     * Set how deep directories are crawled
+     * 1 only takes files directly in the crawled directory, 0 or less is unlimited
+     *
+     * @param maxDepth maximum depth
+     * @author Michael Mario Kubicki
+     */
+    public void SetMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth > 0 ? maxDepth : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Set number of threads listing directories
+     * 1 crawls on the calling thread, 0 or less uses one per available processor
+     *
+     * @param threads number of threads
+     * @author Michael Mario Kubicki
+     */
+    public void SetThreadCount(int threads) {
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        this.threadCount = threads;
+    }
+
+    /**
+     * Hand every file below dir to sink, returns when all are handed over
+     *
+     * @param dir  directory to crawl
+     * @param sink gets the files, from several threads if thread count is greater than 1
+     * @throws IOException Exception of sink, or dir can't be crawled at all
+     * @author Michael Mario Kubicki
+     */
+    public void Crawl(File dir, Sink sink) throws IOException {
+        Path root = dir.toPath();
+        Crawl crawl = new Crawl(root, sink);
+
+        //Root is followed even if it is a link
+        BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class);
+        if (!attrs.isDirectory())
+            throw new NotDirectoryException(dir.getPath());
+        if (links == LinkPolicy.Follow)
+            crawl.firstVisit(root, attrs);
+
+        if (threadCount == 1) {
+            crawl.directory(root, 0);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threadCount);
+            try {
+                pool.invoke(crawl.new Task(root, 0));
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        IOException failure = crawl.failure.get();
+        if (failure != null)
+            throw failure;
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("Interrupted while crawling");
+    }
+
+    /**
+     * Check a single file like Crawl(...) would, e.g. one reported by a watcher
+     * Globs, depth and links are applied to its path below dir,
+     * it is not accepted if an excluded directory or (unless followed) a link leads to it
+     *
+     * @param dir  directory a crawl would start at
+     * @param file file below dir
+     * @return attributes of file if a crawl of dir would hand it to the sink, null otherwise
+     * @author Michael Mario Kubicki
+     */
+    public BasicFileAttributes Accept(File dir, File file) {
+        Path root = dir.toPath().toAbsolutePath().normalize();
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(root) || path.equals(root))
+            return null;
+        Path relative = root.relativize(path);
+        if (relative.getNameCount() > maxDepth)
+            return null;
+
+        Crawl crawl = new Crawl(root, null);
+        try {
+            //Directories between root and file have to be crawled
+            for (int i = 1; i < relative.getNameCount(); ++i) {
+                Path sub = root.resolve(relative.subpath(0, i));
+                for (PathMatcher exclude : excludes)
+                    if (exclude.matches(relative.subpath(0, i)))
+                        return null;
+                if (links != LinkPolicy.Follow
+                        && Files.readAttributes(sub, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isSymbolicLink())
+                    return null;
+            }
+
+            BasicFileAttributes attrs = links == LinkPolicy.Follow
+                    ? Files.readAttributes(path, BasicFileAttributes.class)
+                    : Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return crawl.entry(path, attrs, relative.getNameCount(), new ArrayList<>());
+        } catch (IOException e) {
+            //Gone or unreadable, same as not found by a crawl
+            return null;
+        }
+    }
+
+    /**
+     * State of one Crawl(...) call
+     *
+     * @author Michael Mario Kubicki
+     */
+    private final class Crawl {
+        private final Path root;
+        private final Sink sink;
+        //First exception of sink, stops all threads
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+        //File keys of crawled directories, only used when following links
+        private final Set<Object> visited = ConcurrentHashMap.newKeySet();
+
+        private Crawl(Path root, Sink sink) {
+            this.root = root;
+            this.sink = sink;
+        }
+
+        /**
+         * Hand files of directory to sink and crawl its subdirectories
+         * on the calling thread
+         *
+         * @param dir   directory
+         * @param depth depth of dir, root is 0
+         */
+        private void directory(Path dir, int depth) {
+            for (Path sub : list(dir, depth))
+                directory(sub, depth + 1);
+        }
+
+        /**
+         * Hand files of directory to sink
+         * once the directory is listed, so time of sink isn't counted as walking
+         *
+         * @param dir   directory
+         * @param depth depth of dir, root is 0
+         * @return subdirectories which should be crawled
+         */
+        private List<Path> list(Path dir, int depth) {
+            if (failure.get() != null || Thread.currentThread().isInterrupted())
+                return Collections.emptyList();
+
+            List<Path> subdirectories = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            List<BasicFileAttributes> fileAttrs = new ArrayList<>();
+            Set<FileVisitOption> options = links == LinkPolicy.Follow ?
+                    EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+
+            long start = WALK.Start();
+            try {
+                Files.walkFileTree(dir, options, 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                        attrs = entry(path, attrs, depth + 1, subdirectories);
+                        if (attrs != null) {
+                            files.add(path);
+                            fileAttrs.add(attrs);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException exc) {
+                        SKIPPED.Inc();
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                SKIPPED.Inc();
+            } finally {
+                WALK.Stop(start);
+            }
+
+            try {
+                for (int i = 0; i < files.size() && failure.get() == null; ++i)
+                    sink.accept(files.get(i).toFile(), fileAttrs.get(i));
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+                return Collections.emptyList();
+            }
+            return subdirectories;
+        }
+
+        /**
+         * Look at one entry of a directory
+         *
+         * @param path           entry
+         * @param attrs          its attributes, of the link target when following links
+         * @param depth          depth of entry
+         * @param subdirectories directories to crawl are added to it
+         * @return attributes of file if it should be indexed, null otherwise
+         */
+        private BasicFileAttributes entry(Path path, BasicFileAttributes attrs, int depth, List<Path> subdirectories) {
+            if (attrs.isSymbolicLink()) {
+                //Broken link or one that isn't followed
+                if (links != LinkPolicy.Files)
+                    return null;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    SKIPPED.Inc();
+                    return null;
+                }
+                if (!attrs.isRegularFile())
+                    return null;
+            }
+
+            Path relative = root.relativize(path);
+            for (PathMatcher exclude : excludes)
+                if (exclude.matches(relative))
+                    return null;
+
+            if (attrs.isDirectory()) {
+                if (depth < maxDepth && (links != LinkPolicy.Follow || firstVisit(path, attrs)))
+                    subdirectories.add(path);
+                return null;
+            }
+            if (!attrs.isRegularFile() || !included(relative))
+                return null;
+
+            if (filter.accept(path.toFile()))
+                return attrs;
+            return null;
+        }
+
+        /**
+         * Check for include globs
+         *
+         * @param relative path relative to root
+         * @return true if no includes or one matches
+         */
+        private boolean included(Path relative) {
+            if (includes.isEmpty())
+                return true;
+            for (PathMatcher include : includes)
+                if (include.matches(relative))
+                    return true;
+            return false;
+        }
+
+        /**
+         * Remember directory, links can lead to it again
+         *
+         * @param dir   directory
+         * @param attrs its attributes
+         * @return true if it wasn't visited before
+         */
+        private boolean firstVisit(Path dir, BasicFileAttributes attrs) {
+            Object key = attrs.fileKey();
+            if (key == null) {
+                try {
+                    key = dir.toRealPath();
+                } catch (IOException e) {
+                    SKIPPED.Inc();
+                    return false;
+                }
+            }
+            return visited.add(key);
+        }
+
+        /**
+         * Crawl of a directory on the pool, forks one task per subdirectory
+         *
+         * @author Michael Mario Kubicki
+         */
+        private final class Task extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Path dir;
+            private final int depth;
+
+            private Task(Path dir, int depth) {
+                this.dir = dir;
+                this.depth = depth;
+            }
+
+            @Override
+            protected void compute() {
+                List<Task> tasks = new ArrayList<>();
+                for (Path sub : list(dir, depth))
+                    tasks.add(new Task(sub, depth + 1));
+                invokeAll(tasks);
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package Indexing;
+
+import Util.CheckedList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps index up to date by watching the document directory
+ * Events of all subdirectories are collected, a path is only indexed
+ * once no event came for it for the debounce time, so bursts of writes are coalesced
+ * Changes are committed in batches, by count or time, see Indexer#MaybeCommit()
+ * <p>
+ * Lost events (overflow) or deleted directories lead to a full Index(...) run,
+ * which only hashes files with changed size or modification time
+ * A renamed or moved directory is deleted at its old path, its keys are cancelled there
+ * and it is watched again where it was created
+ *
+ * @author Michael Mario Kubicki
+ * @see DirectoryWatcher#Run()
+ * @see DirectoryWatcher#Stop()
+ */
+public class DirectoryWatcher {
+
+    private final Indexer indexer;
+    private final CheckedList checkedList;
+    private final File documents_dir;
+    private final Set<String> fileTypes;
+
+    private final long debounceMillis;
+
+    private WatchService watchService;
+    //Watched directories, both ways
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Map<Path, WatchKey> watched = new HashMap<>();
+    //Path -> time of last event, oldest first
+    private final LinkedHashMap<Path, Long> pending = new LinkedHashMap<>();
+
+    //Set by Stop(), also before Run() started
+    private volatile boolean stopping;
+    private volatile boolean started;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    //Something was lost, walk everything again
+    private boolean reconcile;
+
+    /**
+     * Construct watcher, nothing is watched yet
+     * Indexer has to be set up and should have indexed the directory once
+     *
+     * @param indexer        Indexer to add changes to
+     * @param checkedList    CheckedList used by indexer, saved after every commit
+     * @param documents_dir  Directory of the documents, watched recursively
+     * @param fileTypes      File types to index
+     * @param debounceMillis Time without events before a path is indexed
+     * @param commitMillis   Maximum time changes stay uncommitted
+     * @param commitCount    Number of changes which are committed at once
+     * @author Michael Mario Kubicki
+     */
+    public DirectoryWatcher(Indexer indexer, CheckedList checkedList, File documents_dir, Set<String> fileTypes,
+                            long debounceMillis, long commitMillis, int commitCount) {
+        this.indexer = indexer;
+        this.checkedList = checkedList;
+        this.documents_dir = documents_dir;
+        this.fileTypes = fileTypes;
+        this.debounceMillis = debounceMillis;
+        indexer.SetCommitThresholds(commitMillis, commitCount);
+    }
+
+    /**
+     * Watch until Stop() is called, returns right away if it was called before
+     * Commits remaining changes before returning, indexer is left open
+     *
+     * @throws IOException Exception concerning Access to documents or index
+     * @author Michael Mario Kubicki
+     * @see DirectoryWatcher#Stop()
+     */
+    public void Run() throws IOException {
+        started = true;
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            register(documents_dir.toPath());
+
+            while (!stopping) {
+                //Wait for events, at most until next path could be quiet
+                WatchKey key;
+                try {
+                    key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                } catch (ClosedWatchServiceException | InterruptedException e) {
+                    break;
+                }
+
+                long now = System.currentTimeMillis();
+                while (key != null) {
+                    collect(key, now);
+                    key = watchService.poll();
+                }
+
+                apply(now);
+
+                if (indexer.MaybeCommit())
+                    checkedList.Save();
+            }
+
+            //Take everything left, quiet or not
+            apply(Long.MAX_VALUE);
+            commit();
+        } catch (ClosedWatchServiceException e) {
+            //Stopped while collecting
+        } finally {
+            try {
+                if (watchService != null)
+                    watchService.close();
+            } finally {
+                stopped.countDown();
+            }
+        }
+    }
+
+    /**
+     * Stop watching, waits until Run() returned, so last changes are committed
+     * Doesn't wait if Run() wasn't called yet, it then returns right away once called
+     *
+     * @author Michael Mario Kubicki
+     * @see DirectoryWatcher#Run()
+     */
+    public void Stop() {
+        stopping = true;
+        if (!started)
+            return;
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Remember paths of all events of key
+     *
+     * @param key key with events
+     * @param now time of events
+     * @throws IOException Exception while registering new directory
+     * @author Michael Mario Kubicki
+     */
+    private void collect(WatchKey key, long now) throws IOException {
+        Path dir = keys.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                reconcile = true;
+                continue;
+            }
+
+            Path child = dir.resolve((Path) event.context());
+
+            //Directory renamed or moved away: stop watching it under old path
+            //its files have to be removed, which only a full run finds
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && watched.containsKey(child)) {
+                unregister(child);
+                reconcile = true;
+                continue;
+            }
+
+            //New directory: watch it and take files created before watching
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                register(child);
+                Files.walkFileTree(child, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        touch(file, now);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                continue;
+            }
+
+            touch(child, now);
+        }
+
+        //Directory is gone, all files in it have to be removed
+        if (!key.reset()) {
+            Path gone = keys.remove(key);
+            if (gone != null)
+                watched.remove(gone, key);
+            reconcile = true;
+        }
+    }
+
+    /**
+     * Put path at end of pending paths with new time
+     *
+     * @param path path with event
+     * @param now  time of event
+     * @author Michael Mario Kubicki
+     */
+    private void touch(Path path, long now) {
+        pending.remove(path);
+        pending.put(path, now);
+    }
+
+    /**
+     * Index/remove all paths without events for debounce time
+     *
+     * @param now current time
+     * @throws IOException Exception concerning Access to documents or index
+     * @author Michael Mario Kubicki
+     */
+    private void apply(long now) throws IOException {
+        if (reconcile) {
+            reconcile = false;
+            pending.clear();
+            //Only size/modification time changed files get hashed
+            indexer.Index(documents_dir, fileTypes);
+            return;
+        }
+
+        Iterator<Map.Entry<Path, Long>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            //Oldest first, so all following are newer
+            if (now != Long.MAX_VALUE && now - entry.getValue() < debounceMillis)
+                break;
+            iterator.remove();
+
+            File file = entry.getKey().toFile();
+            if (file.isFile())
+                indexer.IndexPath(file);
+            else if (!file.exists())
+                indexer.RemovePath(file.getPath());
+        }
+
+        //Searchers on the writer see changes without waiting for commit
+        indexer.Flush();
+    }
+
+    /**
+     * Commit index, then save state of checked files
+     *
+     * @throws IOException Exception concerning Access to index
+     * @author Michael Mario Kubicki
+     */
+    private void commit() throws IOException {
+        indexer.Commit();
+        checkedList.Save();
+    }
+
+    /**
+     * Watch directory and all subdirectories
+     *
+     * @param start directory
+     * @throws IOException Exception while registering
+     * @author Michael Mario Kubicki
+     */
+    private void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                //Same directory may give back its key, which then belongs to the new path only
+                Path old = keys.put(key, dir);
+                if (old != null && !old.equals(dir))
+                    watched.remove(old, key);
+                watched.put(dir, key);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                //Unreadable directory, can't be watched
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+        });
+    }
+
+    /**
+     * Stop watching directory and all subdirectories
+     * Keys of moved directories would otherwise report events under their old path
+     *
+     * @param start directory, doesn't have to exist anymore
+     * @author Michael Mario Kubicki
+     */
+    private void unregister(Path start) {
+        Iterator<Map.Entry<Path, WatchKey>> iterator = watched.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = iterator.next();
+            if (!entry.getKey().startsWith(start))
+                continue;
+            entry.getValue().cancel();
+            keys.remove(entry.getValue());
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package Indexing;
+
+import Util.IFileIndexer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Indexes text of body and title of HTML files
+ * Title is read right away, body text is streamed into the index
+ * The file is opened again for the body only when the document is indexed, and closed afterwards
+ *
+ * @author Michael Mario Kubicki
+ * @see HTMLTextReader
+ */
+public class HTMLIndexer implements IFileIndexer {
+
+    private static final Set<String> EXTENSIONS = new HashSet<>(Arrays.asList(".htm", ".html"));
+
+    @Override
+    public Document index(File file) throws IOException {
+        Document doc = new Document();
+
+        //Only the head is read for the title
+        String title;
+        try (HTMLTextReader text = new HTMLTextReader(new FileInputStream(file))) {
+            title = text.Title();
+        }
+
+        //Reader opens the file when indexed and is closed by the index after reading
+        doc.add(new TextField("content", new DeferredReader(() -> open(file))));
+        doc.add(new TextField("title", title, Field.Store.YES));
+        doc.add(new StringField("path", file.getPath(), Field.Store.YES));
+
+        return doc;
+    }
+
+    /**
+     * Text of body, file is closed if reading up to it fails
+     *
+     * @param file HTML file
+     * @return Reader of body text
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    private static HTMLTextReader open(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            return new HTMLTextReader(is);
+        } catch (IOException | RuntimeException e) {
+            is.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Set<String> extensions() {
+        return EXTENSIONS;
+    }
+
+    @Override
+    public Set<String> mimeTypes() {
+        return Collections.singleton("text/html");
+    }
+
+    //Markup has to be skipped
+    @Override
+    public int cost() {
+        return 2;
+    }
+
+    @Override
+    public boolean streaming() {
+        return true;
+    }
+}
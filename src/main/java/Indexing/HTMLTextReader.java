@@ -0,0 +1,446 @@
+package Indexing;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Text of an HTML document, read while the document is read
+ * Markup, comments, script and style are skipped, entities decoded,
+ * text inside head (except title) is left out like Jsoup's body().text()
+ * <p>
+ * The title is read when constructed, everything else streams,
+ * so memory stays the same no matter how big the document is
+ * A title after the first text of the body counts as text
+ * Closing the reader closes the stream
+ *
+ * @author Michael Mario Kubicki
+ * @see HTMLTextReader#Title()
+ */
+public class HTMLTextReader extends Reader {
+
+    //Bytes looked at for BOM and meta charset
+    private static final int PRESCAN = 1024;
+    private static final Pattern META_CHARSET = Pattern.compile(
+            "<meta[^>]+charset\\s*=\\s*[\"']?\\s*([A-Za-z0-9_.:-]+)", Pattern.CASE_INSENSITIVE);
+
+    private static final int MAX_TITLE = 4096;
+    private static final int MAX_NAME = 16;
+    private static final int MAX_ENTITY = 10;
+    private static final int BUFFER = 8192;
+
+    //Content isn't markup, skipped until closing tag
+    private static final Set<String> RAW = new HashSet<>(Arrays.asList("script", "style"));
+    //Don't separate words, everything else does
+    private static final Set<String> INLINE = new HashSet<>(Arrays.asList(
+            "a", "abbr", "b", "bdi", "bdo", "cite", "code", "data", "dfn", "em", "font", "i", "kbd",
+            "mark", "q", "s", "samp", "small", "span", "strong", "sub", "sup", "time", "u", "var"));
+    private static final Map<String, String> ENTITIES = new HashMap<>();
+
+    static {
+        ENTITIES.put("amp", "&");
+        ENTITIES.put("lt", "<");
+        ENTITIES.put("gt", ">");
+        ENTITIES.put("quot", "\"");
+        ENTITIES.put("apos", "'");
+        ENTITIES.put("nbsp", " ");
+        ENTITIES.put("copy", "\u00a9");
+        ENTITIES.put("reg", "\u00ae");
+        ENTITIES.put("hellip", "\u2026");
+        ENTITIES.put("ndash", "\u2013");
+        ENTITIES.put("mdash", "\u2014");
+        ENTITIES.put("laquo", "\u00ab");
+        ENTITIES.put("raquo", "\u00bb");
+        ENTITIES.put("auml", "\u00e4");
+        ENTITIES.put("ouml", "\u00f6");
+        ENTITIES.put("uuml", "\u00fc");
+        ENTITIES.put("Auml", "\u00c4");
+        ENTITIES.put("Ouml", "\u00d6");
+        ENTITIES.put("Uuml", "\u00dc");
+        ENTITIES.put("szlig", "\u00df");
+    }
+
+    private final Reader in;
+    private final char[] inBuffer = new char[BUFFER];
+    private int inPos;
+    private int inLen;
+    //One char read too far, -2 if none
+    private int pushedBack = -2;
+
+    //Text ready to be read
+    private final char[] outBuffer = new char[BUFFER];
+    private int outPos;
+    private int outLen;
+    private boolean lastWasSpace = true;
+
+    private final StringBuilder title = new StringBuilder();
+    private boolean inTitle;
+    private boolean titleDone;
+    private boolean inHead;
+    private boolean eof;
+
+    /**
+     * Construct reader and read up to the title
+     * Charset is taken from BOM or meta tag, UTF-8 otherwise
+     *
+     * @param stream HTML document, closed by close()
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    public HTMLTextReader(InputStream stream) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(stream, BUFFER);
+        Charset charset = detectCharset(buffered);
+        in = new InputStreamReader(buffered, charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+        //Title has to be known before indexing starts
+        //stops at first text of body, so only a few chars are kept
+        while (!titleDone && !eof)
+            step();
+    }
+
+    /**
+     * Title of document, whitespace collapsed
+     *
+     * @return title or empty String
+     * @author Michael Mario Kubicki
+     */
+    public String Title() {
+        return title.toString().trim().replaceAll("\\s+", " ");
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (outPos == outLen) {
+            outPos = 0;
+            outLen = 0;
+            while (outLen < BUFFER - MAX_ENTITY - 2 && !eof)
+                step();
+            if (outLen == 0)
+                return -1;
+        }
+
+        int count = Math.min(len, outLen - outPos);
+        System.arraycopy(outBuffer, outPos, cbuf, off, count);
+        outPos += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Process next char or markup
+     *
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    private void step() throws IOException {
+        int c = next();
+        if (c < 0) {
+            eof = true;
+            return;
+        }
+
+        if (c == '&') {
+            entity();
+            return;
+        }
+        if (c != '<') {
+            text((char) c);
+            return;
+        }
+
+        int first = next();
+        if (first == '!') {
+            int a = next();
+            int b = a == '-' ? next() : -2;
+            if (a == '-' && b == '-')
+                skipComment();
+            else {
+                pushBack(b == -2 ? a : b);
+                skipTag();
+            }
+        } else if (first == '?') {
+            skipTag();
+        } else if (first == '/' || isLetter(first)) {
+            boolean closing = first == '/';
+            if (!closing)
+                pushBack(first);
+            tag(readName(), closing);
+        } else {
+            //Just a less-than sign
+            pushBack(first);
+            text('<');
+        }
+    }
+
+    /**
+     * Handle start or end tag, name is already read
+     *
+     * @param name    lower case name
+     * @param closing end tag
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    private void tag(String name, boolean closing) throws IOException {
+        skipTag();
+
+        switch (name) {
+            case "title":
+                inTitle = !closing && !titleDone;
+                if (closing)
+                    titleDone = true;
+                return;
+            case "head":
+                inHead = !closing;
+                if (closing)
+                    titleDone = true;
+                break;
+            case "body":
+                inHead = false;
+                titleDone = true;
+                break;
+            default:
+                if (!closing && RAW.contains(name)) {
+                    skipRaw(name);
+                    return;
+                }
+        }
+
+        if (!INLINE.contains(name))
+            text(' ');
+    }
+
+    /**
+     * Decode entity after '&amp;', unknown ones stay as they are
+     *
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    private void entity() throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c;
+        while ((c = next()) >= 0 && name.length() < MAX_ENTITY
+                && (isLetter(c) || Character.isDigit(c) || (c == '#' && name.length() == 0)))
+            name.append((char) c);
+
+        String decoded = null;
+        if (c == ';' && name.length() > 0) {
+            if (name.charAt(0) == '#')
+                decoded = numeric(name.substring(1));
+            else
+                decoded = ENTITIES.get(name.toString());
+        }
+
+        if (decoded == null) {
+            pushBack(c);
+            text('&');
+            for (int i = 0; i < name.length(); ++i)
+                text(name.charAt(i));
+        } else {
+            for (int i = 0; i < decoded.length(); ++i)
+                text(decoded.charAt(i));
+        }
+    }
+
+    private static String numeric(String number) {
+        try {
+            int codePoint = number.startsWith("x") || number.startsWith("X")
+                    ? Integer.parseInt(number.substring(1), 16)
+                    : Integer.parseInt(number);
+            return Character.isValidCodePoint(codePoint) ? new String(Character.toChars(codePoint)) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Put text where it belongs: title, nowhere (head) or output
+     * whitespace is collapsed
+     *
+     * @param c char of text
+     * @author Michael Mario Kubicki
+     */
+    private void text(char c) {
+        if (inTitle) {
+            if (title.length() < MAX_TITLE)
+                title.append(c);
+            return;
+        }
+        if (inHead)
+            return;
+
+        boolean space = Character.isWhitespace(c) || c == '\u00a0';
+        if (space && lastWasSpace)
+            return;
+        //First real text: no title anymore
+        if (!space)
+            titleDone = true;
+
+        outBuffer[outLen++] = space ? ' ' : c;
+        lastWasSpace = space;
+    }
+
+    /**
+     * Read name of tag, lower case, cut after MAX_NAME chars
+     *
+     * @return name
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    private String readName() throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c;
+        while ((c = next()) >= 0 && (isLetter(c) || Character.isDigit(c) || c == '-' || c == ':')) {
+            if (name.length() < MAX_NAME)
+                name.append(Character.toLowerCase((char) c));
+        }
+        pushBack(c);
+        return name.toString();
+    }
+
+    /**
+     * Skip rest of tag up to '&gt;', '&gt;' in quoted attributes doesn't end it
+     *
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    private void skipTag() throws IOException {
+        int quote = 0;
+        int c;
+        while ((c = next()) >= 0) {
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skip comment up to "--&gt;"
+     *
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    private void skipComment() throws IOException {
+        int dashes = 0;
+        int c;
+        while ((c = next()) >= 0) {
+            if (c == '>' && dashes >= 2)
+                return;
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    /**
+     * Skip content of script/style up to its end tag
+     *
+     * @param name name of element
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    private void skipRaw(String name) throws IOException {
+        int c;
+        while ((c = next()) >= 0) {
+            if (c != '<')
+                continue;
+            if ((c = next()) != '/') {
+                pushBack(c);
+                continue;
+            }
+            if (readName().equals(name)) {
+                skipTag();
+                return;
+            }
+        }
+    }
+
+    private int next() throws IOException {
+        if (pushedBack != -2) {
+            int c = pushedBack;
+            pushedBack = -2;
+            return c;
+        }
+        if (inPos == inLen) {
+            inLen = in.read(inBuffer, 0, inBuffer.length);
+            inPos = 0;
+            if (inLen <= 0) {
+                inLen = 0;
+                return -1;
+            }
+        }
+        return inBuffer[inPos++];
+    }
+
+    private void pushBack(int c) {
+        pushedBack = c;
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Charset of document: BOM, then meta tag in first bytes, then UTF-8
+     * Stream is positioned after the BOM
+     *
+     * @param stream stream supporting mark
+     * @return Charset
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    private static Charset detectCharset(BufferedInputStream stream) throws IOException {
+        stream.mark(PRESCAN);
+        byte[] head = new byte[PRESCAN];
+        int length = 0;
+        int read;
+        while (length < head.length && (read = stream.read(head, length, head.length - length)) > 0)
+            length += read;
+        stream.reset();
+
+        if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            stream.skip(3);
+            return StandardCharsets.UTF_8;
+        }
+        if (length >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) {
+            stream.skip(2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if (length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) {
+            stream.skip(2);
+            return StandardCharsets.UTF_16LE;
+        }
+
+        Matcher matcher = META_CHARSET.matcher(new String(head, 0, length, StandardCharsets.ISO_8859_1));
+        if (matcher.find()) {
+            try {
+                return Charset.forName(matcher.group(1));
+            } catch (IllegalArgumentException e) {
+                //Unknown charset, take default
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+}
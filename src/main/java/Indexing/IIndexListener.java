@@ -0,0 +1,12 @@
+package Indexing;
+
+/**
+ * Listener of IndexEvents
+ * Called on the dispatching thread of the Indexer, never on an indexing thread
+ *
+ * @author Michael Mario Kubicki
+ * @see Indexer#AddListener(IIndexListener)
+ */
+public interface IIndexListener {
+    void event(IndexEvent event);
+}
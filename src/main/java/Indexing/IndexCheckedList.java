@@ -0,0 +1,288 @@
+package Indexing;
+
+import Util.CheckedList;
+import Util.IndexShards;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CheckedList keeping its state inside the index instead of own files
+ * Size, modification time, file key and hash are doc values of the document of every file
+ * Lookups read them from the last commit,
+ * deleted files are found by one sorted scan over the path terms
+ * <p>
+ * New state is written by the Indexer together with the document,
+ * so state and index are always committed together
+ * Of a sharded index all shards are read as one
+ *
+ * @author Michael Mario Kubicki
+ * @see IndexCheckedList#Load(File)
+ * @see IndexCheckedList#Save()
+ * @see Indexer
+ */
+public class IndexCheckedList extends CheckedList {
+    private static final long serialVersionUID = 1L;
+
+    public static final String SIZE_FIELD = "size";
+    public static final String MODIFIED_FIELD = "modified";
+    public static final String HASH_FIELD = "hash";
+    public static final String FILE_KEY_FIELD = "file_key";
+
+    //Marks file removed in this run
+    private static final Entry REMOVED = new Entry(-1, -1, new byte[Entry.DIGEST_WIDTH]);
+
+    //Commit data marking state is kept in index
+    static final String COMMIT_KEY = "checked_storage";
+    static final String COMMIT_VALUE = "index";
+
+    //One per shard
+    private Directory[] directories;
+    private DirectoryReader[] readers;
+    //Last commit of all shards, null if there is no index yet
+    private volatile IndexReader reader;
+    //State of files checked in this run, not yet committed
+    private ConcurrentHashMap<String, Entry> pending;
+
+    private IndexCheckedList() {
+        pending = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Open last commit of index to read state from
+     * number of shards is taken from existing index
+     *
+     * @param index_dir Directory of index
+     * @return IndexCheckedList
+     * @throws IOException Exception concerning Access to index directory
+     * @author Michael Mario Kubicki
+     * @see IndexCheckedList#Save()
+     */
+    public static IndexCheckedList Load(File index_dir) throws IOException {
+        return Load(index_dir, IndexShards.Count(index_dir));
+    }
+
+    /**
+     * Open last commit of all shards of index to read state from
+     *
+     * @param index_dir Directory of index
+     * @param shards    number of shards, 1 if not sharded
+     * @return IndexCheckedList
+     * @throws IOException Exception concerning Access to index directory
+     * @author Michael Mario Kubicki
+     * @see IndexCheckedList#Save()
+     */
+    public static IndexCheckedList Load(File index_dir, int shards) throws IOException {
+        IndexCheckedList checkedList = new IndexCheckedList();
+        File[] dirs = IndexShards.Dirs(index_dir, shards);
+        checkedList.directories = new Directory[dirs.length];
+        checkedList.readers = new DirectoryReader[dirs.length];
+        for (int i = 0; i < dirs.length; ++i)
+            checkedList.directories[i] = IndexShards.Open(dirs[i]);
+        checkedList.Save();
+        return checkedList;
+    }
+
+    /**
+     * Add state of file to its document
+     *
+     * @param doc   Document of file
+     * @param entry State of file
+     * @author Michael Mario Kubicki
+     */
+    public static void AddState(Document doc, Entry entry) {
+        doc.add(new NumericDocValuesField(SIZE_FIELD, entry.Size));
+        doc.add(new NumericDocValuesField(MODIFIED_FIELD, entry.Modified));
+        doc.add(new NumericDocValuesField(FILE_KEY_FIELD, entry.FileKey));
+        doc.add(new BinaryDocValuesField(HASH_FIELD, new BytesRef(entry.Digest)));
+    }
+
+    /**
+     * Nothing to write, state was committed with the index
+     * Switch to latest commit, state of this run is read from there afterwards
+     * Has to be called after committing the index
+     *
+     * @throws IOException Exception concerning Access to index directory
+     * @author Michael Mario Kubicki
+     */
+    @Override
+    public synchronized void Save() throws IOException {
+        boolean changed = false;
+        for (int i = 0; i < readers.length; ++i) {
+            if (readers[i] == null) {
+                if (DirectoryReader.indexExists(directories[i])) {
+                    readers[i] = DirectoryReader.open(directories[i]);
+                    changed = true;
+                }
+            } else {
+                DirectoryReader newer = DirectoryReader.openIfChanged(readers[i]);
+                if (newer != null) {
+                    readers[i].close();
+                    readers[i] = newer;
+                    changed = true;
+                }
+            }
+        }
+        if (changed)
+            reader = combine();
+        pending.clear();
+    }
+
+    /**
+     * One reader over all shards
+     * Shard readers stay owned by this list, a MultiReader only borrows them
+     *
+     * @return reader or null if there is no index yet
+     * @throws IOException Exception concerning Access to index directory
+     * @author Michael Mario Kubicki
+     */
+    private IndexReader combine() throws IOException {
+        if (reader instanceof MultiReader)
+            reader.close();
+        if (readers.length == 1)
+            return readers[0];
+
+        List<IndexReader> open = new ArrayList<>();
+        for (DirectoryReader shard : readers)
+            if (shard != null)
+                open.add(shard);
+        return open.isEmpty() ? null : new MultiReader(open.toArray(new IndexReader[0]), false);
+    }
+
+    /**
+     * Release last commit
+     *
+     * @throws IOException Exception concerning Access to index directory
+     * @author Michael Mario Kubicki
+     */
+    @Override
+    public synchronized void Close() throws IOException {
+        if (reader instanceof MultiReader)
+            reader.close();
+        reader = null;
+        for (int i = 0; i < readers.length; ++i) {
+            if (readers[i] != null)
+                readers[i].close();
+            readers[i] = null;
+            directories[i].close();
+        }
+    }
+
+    @Override
+    public Map<String, String> CommitData() {
+        return Collections.singletonMap(COMMIT_KEY, COMMIT_VALUE);
+    }
+
+    /**
+     * Scan all paths in index in sorted order
+     * paths with live document not checked in this run are deleted
+     *
+     * @return path of deleted Files
+     * @author Michael Mario Kubicki
+     */
+    @Override
+    public Set<String> GetDifference() {
+        Set<String> deleted = new TreeSet<>();
+        if (reader == null)
+            return deleted;
+
+        try {
+            Terms terms = MultiTerms.getTerms(reader, "path");
+            if (terms == null)
+                return deleted;
+            Bits liveDocs = MultiBits.getLiveDocs(reader);
+
+            TermsEnum termsEnum = terms.iterator();
+            PostingsEnum postings = null;
+            for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                String path = term.utf8ToString();
+                if (wasChecked(path) || pending.get(path) == REMOVED)
+                    continue;
+
+                postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                if (firstLive(postings, liveDocs) != DocIdSetIterator.NO_MORE_DOCS)
+                    deleted.add(path);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read paths from index", e);
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public void Remove(String path) {
+        pending.put(path, REMOVED);
+    }
+
+    @Override
+    protected void record(String path, Entry entry) {
+        pending.put(path, entry);
+    }
+
+    /**
+     * State of path, this run first then last commit
+     * Documents of older versions without state give an entry that never matches,
+     * without file key one with unknown key
+     *
+     * @param path path of file
+     * @return Entry or null if unknown
+     * @throws IOException Exception while reading index
+     * @author Michael Mario Kubicki
+     */
+    @Override
+    protected Entry lookup(String path) throws IOException {
+        Entry entry = pending.get(path);
+        if (entry == REMOVED)
+            return null;
+        if (entry != null || reader == null)
+            return entry;
+
+        BytesRef term = new BytesRef(path);
+        for (LeafReaderContext leaf : reader.leaves()) {
+            LeafReader leafReader = leaf.reader();
+            Terms terms = leafReader.terms("path");
+            if (terms == null)
+                continue;
+
+            TermsEnum termsEnum = terms.iterator();
+            if (!termsEnum.seekExact(term))
+                continue;
+
+            int doc = firstLive(termsEnum.postings(null, PostingsEnum.NONE), leafReader.getLiveDocs());
+            if (doc == DocIdSetIterator.NO_MORE_DOCS)
+                continue;
+
+            NumericDocValues size = DocValues.getNumeric(leafReader, SIZE_FIELD);
+            NumericDocValues modified = DocValues.getNumeric(leafReader, MODIFIED_FIELD);
+            BinaryDocValues hash = DocValues.getBinary(leafReader, HASH_FIELD);
+            if (!size.advanceExact(doc) || !modified.advanceExact(doc) || !hash.advanceExact(doc))
+                return new Entry(-1, -1, new byte[Entry.DIGEST_WIDTH]);
+
+            NumericDocValues fileKey = DocValues.getNumeric(leafReader, FILE_KEY_FIELD);
+            long key = fileKey.advanceExact(doc) ? fileKey.longValue() : 0;
+
+            BytesRef digest = hash.binaryValue();
+            return new Entry(size.longValue(), modified.longValue(), key,
+                    Arrays.copyOfRange(digest.bytes, digest.offset, digest.offset + Entry.DIGEST_WIDTH));
+        }
+        return null;
+    }
+
+    private static int firstLive(PostingsEnum postings, Bits liveDocs) throws IOException {
+        int doc = postings.nextDoc();
+        while (doc != DocIdSetIterator.NO_MORE_DOCS && liveDocs != null && !liveDocs.get(doc))
+            doc = postings.nextDoc();
+        return doc;
+    }
+}
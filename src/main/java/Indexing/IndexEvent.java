@@ -0,0 +1,101 @@
+package Indexing;
+
+/**
+ * Something the Indexer did with a file, or the end of an Index(...) call
+ * <p>
+ * Events are slots of a ring buffer which are reused,
+ * a listener must not keep an event after returning, use Copy() to keep one
+ *
+ * @author Michael Mario Kubicki
+ * @see IIndexListener
+ * @see Indexer#AddListener(IIndexListener)
+ */
+public final class IndexEvent {
+
+    public enum Kind {
+        //File added to index
+        New,
+        //File changed, documents replaced
+        Update,
+        //File gone, documents removed
+        Removed,
+        //Index(...) is done
+        Finished
+    }
+
+    private Kind kind;
+    private String path;
+    private long bytes;
+    private long nanos;
+    private int documents;
+
+    IndexEvent() {
+    }
+
+    /**
+     * Fill slot with new event
+     *
+     * @param kind      what happened
+     * @param path      path of file or indexed directory
+     * @param bytes     size of file, 0 if unknown
+     * @param nanos     time it took, 0 if not measured
+     * @param documents documents of file or files indexed by Index(...)
+     * @author Michael Mario Kubicki
+     */
+    void Set(Kind kind, String path, long bytes, long nanos, int documents) {
+        this.kind = kind;
+        this.path = path;
+        this.bytes = bytes;
+        this.nanos = nanos;
+        this.documents = documents;
+    }
+
+    public Kind GetKind() {
+        return kind;
+    }
+
+    /**
+     * @return path of file, for Finished the indexed directory
+     */
+    public String GetPath() {
+        return path;
+    }
+
+    /**
+     * @return size of file in bytes, 0 for Removed and Finished
+     */
+    public long GetBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return time of parsing and batching the file or of the whole Index(...) call
+     */
+    public long GetNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return number of documents of the file, for Finished the number of new and updated files
+     */
+    public int GetDocuments() {
+        return documents;
+    }
+
+    /**
+     * Event which isn't reused, can be kept
+     *
+     * @return copy of event
+     * @author Michael Mario Kubicki
+     */
+    public IndexEvent Copy() {
+        IndexEvent copy = new IndexEvent();
+        copy.Set(kind, path, bytes, nanos, documents);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return path + " " + kind.name().toUpperCase();
+    }
+}
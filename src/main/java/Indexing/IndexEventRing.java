@@ -0,0 +1,148 @@
+package Indexing;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands IndexEvents from indexing threads to listeners on one dispatching thread
+ * Events are written into preallocated slots of a ring buffer, so publishing allocates nothing
+ * and a slow listener (e.g. printing to console) doesn't slow down indexing
+ * <p>
+ * Without listeners publishing does nothing
+ * If listeners fall a whole ring behind, publishing waits for them instead of losing events
+ *
+ * @author Michael Mario Kubicki
+ * @see IndexEvent
+ * @see IIndexListener
+ */
+class IndexEventRing {
+
+    private final IndexEvent[] slots;
+    //Sequence number of event in slot, slot is ready once it matches
+    private final AtomicLongArray published;
+    private final int mask;
+
+    //Next sequence number given to a publisher
+    private final AtomicLong claimed = new AtomicLong(0);
+    //Next sequence number the dispatcher handles
+    private volatile long consumed = 0;
+
+    private final List<IIndexListener> listeners = new CopyOnWriteArrayList<>();
+    private Thread dispatcher;
+    private volatile boolean sleeping;
+
+    /**
+     * Construct empty ring, dispatching thread starts with first listener
+     *
+     * @param capacity number of slots, rounded up to a power of two
+     * @author Michael Mario Kubicki
+     */
+    IndexEventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new IndexEvent[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            slots[i] = new IndexEvent();
+            published.set(i, -1);
+        }
+        mask = size - 1;
+    }
+
+    synchronized void Add(IIndexListener listener) {
+        listeners.add(listener);
+        if (dispatcher == null) {
+            dispatcher = new Thread(this::dispatch, "index-events");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+    }
+
+    void Remove(IIndexListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Put event into ring, can be called from many threads at once
+     *
+     * @param kind      what happened
+     * @param path      path of file or indexed directory
+     * @param bytes     size of file
+     * @param nanos     time it took
+     * @param documents documents of file or files indexed
+     * @author Michael Mario Kubicki
+     */
+    void Publish(IndexEvent.Kind kind, String path, long bytes, long nanos, int documents) {
+        if (listeners.isEmpty())
+            return;
+
+        long sequence = claimed.getAndIncrement();
+        //Slot is still used by an event the dispatcher hasn't handled yet
+        while (sequence - consumed >= slots.length) {
+            wake();
+            LockSupport.parkNanos(50_000);
+        }
+
+        int slot = (int) (sequence & mask);
+        slots[slot].Set(kind, path, bytes, nanos, documents);
+        published.set(slot, sequence);
+        wake();
+    }
+
+    /**
+     * Wait until every event published so far reached the listeners
+     * e.g. so console output of indexing is done before search results are printed
+     *
+     * @author Michael Mario Kubicki
+     */
+    void Drain() {
+        //A listener waiting for itself would never return
+        if (Thread.currentThread() == dispatcher)
+            return;
+
+        long target = claimed.get();
+        while (consumed < target) {
+            wake();
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    private void wake() {
+        if (sleeping)
+            LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * Loop of dispatching thread, handles events in order of sequence
+     *
+     * @author Michael Mario Kubicki
+     */
+    private void dispatch() {
+        while (true) {
+            long sequence = consumed;
+            int slot = (int) (sequence & mask);
+
+            if (published.get(slot) != sequence) {
+                sleeping = true;
+                //Check again, publisher may have missed that we were going to sleep
+                if (published.get(slot) != sequence)
+                    LockSupport.park(this);
+                sleeping = false;
+                continue;
+            }
+
+            IndexEvent event = slots[slot];
+            for (IIndexListener listener : listeners) {
+                try {
+                    listener.event(event);
+                } catch (RuntimeException e) {
+                    //One broken listener mustn't stop the others
+                    e.printStackTrace(System.out);
+                }
+            }
+            consumed = sequence + 1;
+        }
+    }
+}
@@ -2,24 +2,48 @@ package Indexing;
 
 import Util.*;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.codecs.lucene87.Lucene87Codec;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.ByteBlockPool;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.*;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class for Indexing Documents
  * Setup everything by using the constructor with arguments or calling setup
  * use Index(...) to index a directory
  * after calling close needs to be setup again
+ * <p>
+ * With SetShardCount(...) before SetUp(...) the index is split into shards by path,
+ * each shard has its own writer, see IndexShards
+ * <p>
+ * A writer is only opened once something changes, so nothing is locked or written
+ * when every file is known. Commit() and Close() skip writers without changes
+ * <p>
+ * What happens to files is told to IIndexListeners as IndexEvents on an own thread,
+ * see AddListener(...)
  *
  * @author Michael Mario Kubicki
  * @see Indexer#SetUp(File, RankingModel, IFileIndexer, CheckedList)
@@ -28,18 +52,95 @@ import java.util.Set;
  */
 public class Indexer {
 
-    private IndexWriter indexWriter;
+    //One writer per shard, null until needed
+    private Directory[] directories;
+    private IndexWriter[] indexWriters;
+    private RankingModel model;
+    private int shardCount = 1;
+    //Only files of this shard are indexed, -1 == all
+    private int onlyShard = -1;
     private CheckedList checkedList;
 
-    private int indexedFileCounter;
+    //Marks end of work in queue for the workers
+    private static final Found END_OF_QUEUE = new Found(new File(""), null);
+
+    private AtomicInteger indexedFileCounter;
+
+    //Number of workers used for indexing
+    //1 == index on calling thread
+    private int threadCount;
 
     private boolean setup = false;
 
-    private Map<String, IFileIndexer> fileTypeIndexer;
+    //Indexer by extension/MIME type
+    private FileIndexerRegistry fileIndexers;
     private IFileIndexer backUpIndexer;
 
-    private ArrayList<IStringListener> onIndex;
-    private ArrayList<IStringListener> onFinish;
+    //Memory for documents of non streaming indexers, in KB
+    //bounds what parallel workers hold at once
+    private static final int BUFFERED_BUDGET_KB = 256 * 1024;
+    private final Semaphore bufferedBudget = new Semaphore(BUFFERED_BUDGET_KB);
+
+    //Changes not written yet, one batch per indexing thread and shard
+    //replaced on SetUp(...), as the number of shards may have changed
+    private ThreadLocal<MutationBatch[]> batch = ThreadLocal.withInitial(this::newBatches);
+    private final List<MutationBatch> batches = Collections.synchronizedList(new ArrayList<>());
+    //Thresholds for writing a batch
+    private int batchDocs = 256;
+    private long batchBytes = 32L << 20;
+
+    //Settings of IndexWriter, Lucene's defaults if not set
+    private double ramBufferMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+    private int maxBufferedDocs = IndexWriterConfig.DISABLE_AUTO_FLUSH;
+    private MergePolicy mergePolicy;
+    private boolean compoundFile = IndexWriterConfig.DEFAULT_USE_COMPOUND_FILE_SYSTEM;
+
+    //Changes since last commit, commit when too many or too old, see MaybeCommit()
+    private final AtomicInteger uncommitted = new AtomicInteger(0);
+    private long lastCommit;
+    private long commitMillis = Long.MAX_VALUE;
+    private int commitCount = Integer.MAX_VALUE;
+
+    //Biggest value of SortedDocValues
+    private static final int MAX_DOC_VALUE = ByteBlockPool.BYTE_BLOCK_SIZE - 2;
+
+    //Beginning of content stored for snippets (0 = nothing stored), stored fields compressed harder
+    private int storedContentChars = 0;
+    private boolean compressContent = false;
+    //Content with offsets in its postings, snippets don't have to analyze the text again
+    private static final FieldType CONTENT_WITH_OFFSETS = new FieldType(TextField.TYPE_NOT_STORED);
+
+    static {
+        CONTENT_WITH_OFFSETS.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        CONTENT_WITH_OFFSETS.freeze();
+    }
+
+    //Finding files: globs, links, depth and threads listing directories
+    private List<String> crawlIncludes = Collections.emptyList();
+    private List<String> crawlExcludes = Collections.emptyList();
+    private LinkPolicy crawlLinks = LinkPolicy.Follow;
+    private int crawlDepth = 0;
+    private int crawlThreads = 1;
+
+    //Time of stages, files and bytes by type, see Metrics
+    private static final Metrics.Timer PARSE = Metrics.Stage("parse");
+    private static final Metrics.Timer COMMIT = Metrics.Stage("commit");
+    private static final Metrics.Counter REMOVED = Metrics.Counter("ir_removed_files_total", "Files removed from index");
+    private static final Metrics.Counter UNREADABLE = Metrics.Counter("ir_crawl_skipped_total",
+            "Unreadable files and directories skipped while crawling");
+    private static final Metrics.Counter FAILED = Metrics.Counter("ir_index_failed_total",
+            "Files whose documents couldn't be read or analyzed, tried again next run");
+
+    //Filter and directory of last Index(...) call, used for single files
+    private FileFilter filter;
+    private File documentsDir;
+
+    //Listeners get events on the dispatching thread of the ring
+    private static final int EVENT_CAPACITY = 8192;
+    private final IndexEventRing events = new IndexEventRing(EVENT_CAPACITY);
+    //String listeners and their adapters
+    private final Map<IStringListener, IIndexListener> onIndex = new IdentityHashMap<>();
+    private final Map<IStringListener, IIndexListener> onFinish = new IdentityHashMap<>();
 
     /**
      * empty constructor
@@ -50,11 +151,10 @@ public class Indexer {
      * @see Indexer#SetUp(File, RankingModel, IFileIndexer, CheckedList)
      */
     public Indexer() {
-        this.indexedFileCounter = 0;
+        this.indexedFileCounter = new AtomicInteger(0);
+        this.threadCount = 1;
 
-        onFinish = new ArrayList<>();
-        onIndex = new ArrayList<>();
-        fileTypeIndexer = new HashMap<>();
+        fileIndexers = FileIndexerRegistry.Load();
     }
 
     /**
@@ -93,9 +193,72 @@ public class Indexer {
         //Indexer for generic File
         this.backUpIndexer = backUpIndexer;
 
-        //Select Directory for index
-        Directory indexDirectory = FSDirectory.open(index_dir.toPath());
+        //Changing number of shards would put paths into other shards
+        int existing = IndexShards.Count(index_dir);
+        if (existing > 1 && existing != shardCount || shardCount > 1 && indexExists(index_dir))
+            throw new IOException("Index has " + existing + " shard(s), not " + shardCount
+                    + ", delete it to change number of shards");
+
+        //Select Directory for index, writers are created when needed
+        File[] dirs = IndexShards.Dirs(index_dir, shardCount);
+        directories = new Directory[dirs.length];
+        for (int i = 0; i < dirs.length; ++i)
+            directories[i] = IndexShards.Open(dirs[i]);
+        indexWriters = new IndexWriter[dirs.length];
+        this.model = model;
+
+        //Batches of threads are sized by the number of shards
+        batches.clear();
+        batch = ThreadLocal.withInitial(this::newBatches);
+
+        uncommitted.set(0);
+        lastCommit = System.currentTimeMillis();
+        setup = true;
+
+        //Replaces gauges of an indexer set up before
+        Metrics.Gauge("ir_writer_ram_bytes", "Memory used by buffered documents of open writers", this::ramBytesUsed);
+        Metrics.Gauge("ir_uncommitted_changes", "Changed files not committed yet", uncommitted::get);
+    }
+
+    /**
+     * Memory used by writers which are open
+     *
+     * @return bytes
+     * @author Michael Mario Kubicki
+     */
+    private double ramBytesUsed() {
+        long bytes = 0;
+        IndexWriter[] writers = indexWriters;
+        for (IndexWriter indexWriter : writers)
+            if (indexWriter != null && indexWriter.isOpen())
+                bytes += indexWriter.ramBytesUsed();
+        return bytes;
+    }
+
+    /**
+     * Writer of shard, created on first use
+     * creating takes the lock of the index
+     *
+     * @param shard number of shard
+     * @return IndexWriter
+     * @throws IOException Exception concerning Access to index directory
+     * @author Michael Mario Kubicki
+     */
+    private synchronized IndexWriter writer(int shard) throws IOException {
+        if (indexWriters[shard] == null)
+            indexWriters[shard] = new IndexWriter(directories[shard], newConfig(model));
+        return indexWriters[shard];
+    }
 
+    /**
+     * Configuration of a writer, every shard needs its own
+     *
+     * @param model Scoring model to be used
+     * @return IndexWriterConfig
+     * @throws IOException Exception while building analyzer
+     * @author Michael Mario Kubicki
+     */
+    private IndexWriterConfig newConfig(RankingModel model) throws IOException {
         //Get Customized Analyzer
         Analyzer analyzer = TextAnalyzer.GetAnalyzer();
 
@@ -108,6 +271,13 @@ public class Indexer {
         //Autocomit on closing writer
         writerConfig.setCommitOnClose(true);
 
+        //Memory for buffered documents, merging
+        applyWriterSettings(writerConfig);
+
+        //Stored content is most of the stored fields, smaller index for slower loading
+        if (compressContent)
+            writerConfig.setCodec(new Lucene87Codec(Lucene87Codec.Mode.BEST_COMPRESSION));
+
         //Alot of information if Verbose
         if (Information.VERBOSE)
             writerConfig.setInfoStream(System.out);
@@ -121,10 +291,23 @@ public class Indexer {
                 writerConfig.setSimilarity(new BM25Similarity());
         }
 
-        //Create writer for Index
-        indexWriter = new IndexWriter(indexDirectory, writerConfig);
+        return writerConfig;
+    }
 
-        setup = true;
+    /**
+     * Check for unsharded index in directory
+     *
+     * @param index_dir Directory of index
+     * @return true if there is an index directly in it
+     * @throws IOException Exception concerning Access to index directory
+     * @author Michael Mario Kubicki
+     */
+    private static boolean indexExists(File index_dir) throws IOException {
+        if (!index_dir.isDirectory())
+            return false;
+        try (Directory directory = IndexShards.Open(index_dir)) {
+            return DirectoryReader.indexExists(directory);
+        }
     }
 
     /**
@@ -137,15 +320,291 @@ public class Indexer {
      * @see Indexer#SetUp(File, RankingModel, IFileIndexer, CheckedList)
      */
     public void Close() throws IOException {
-        indexWriter.close();
+        Flush();
+        events.Drain();
+        long start = COMMIT.Start();
+        boolean committed = false;
+        for (int i = 0; i < indexWriters.length; ++i) {
+            if (indexWriters[i] != null) {
+                setCommitData(indexWriters[i]);
+                indexWriters[i].close();
+                indexWriters[i] = null;
+                committed = true;
+            }
+            directories[i].close();
+        }
+        if (committed)
+            COMMIT.Stop(start);
+        uncommitted.set(0);
         setup = false;
     }
 
+    /**
+     * Commit changes without closing the indexer
+     * Writers which weren't needed yet are left alone
+     *
+     * @throws IOException           Exception concerning Access to index directory
+     * @throws IllegalStateException Indexer wasn't setup correctly
+     * @author Michael Mario Kubicki
+     */
+    public void Commit() throws IOException, IllegalStateException {
+        if (!setup) throw new IllegalStateException("Indexer was not set up");
+
+        Flush();
+        long start = COMMIT.Start();
+        boolean committed = false;
+        for (IndexWriter indexWriter : indexWriters) {
+            if (indexWriter == null)
+                continue;
+            setCommitData(indexWriter);
+            indexWriter.commit();
+            committed = true;
+        }
+        if (committed)
+            COMMIT.Stop(start);
+        uncommitted.set(0);
+        lastCommit = System.currentTimeMillis();
+    }
+
+    /**
+     * Commit if there are enough changes or the oldest is old enough
+     * Keeps a long running writer from committing after every small change
+     *
+     * @return true if committed
+     * @throws IOException           Exception concerning Access to index directory
+     * @throws IllegalStateException Indexer wasn't setup correctly
+     * @author Michael Mario Kubicki
+     * @see Indexer#SetCommitThresholds(long, int)
+     */
+    public boolean MaybeCommit() throws IOException, IllegalStateException {
+        if (!setup) throw new IllegalStateException("Indexer was not set up");
+
+        int changes = uncommitted.get();
+        if (changes == 0 || changes < commitCount && System.currentTimeMillis() - lastCommit < commitMillis)
+            return false;
+        Commit();
+        return true;
+    }
+
+    /**
+     * Set when MaybeCommit() commits
+     *
+     * @param millis  maximum time since last commit
+     * @param changes maximum number of changed files
+     * @author Michael Mario Kubicki
+     */
+    public void SetCommitThresholds(long millis, int changes) {
+        this.commitMillis = millis;
+        this.commitCount = Math.max(1, changes);
+    }
+
+    /**
+     * Write changes collected in batches to the writer
+     * afterwards they can be seen by searchers on GetWriter()
+     * Must not be called while Index(...) is running on other threads
+     *
+     * @throws IOException           Exception concerning Access to index directory
+     * @throws IllegalStateException Indexer wasn't setup correctly
+     * @author Michael Mario Kubicki
+     */
+    public void Flush() throws IOException, IllegalStateException {
+        if (!setup) throw new IllegalStateException("Indexer was not set up");
+
+        synchronized (batches) {
+            for (MutationBatch mutations : batches)
+                if (!mutations.IsEmpty())
+                    flush(mutations);
+            //Batches of finished workers aren't needed anymore
+            batches.removeIf(mutations -> !mutations.owner.isAlive());
+        }
+    }
+
+    /**
+     * Writer used for indexing
+     * e.g. to search changes before they are committed
+     * Changes still in batches aren't in it, see Flush()
+     *
+     * @return IndexWriter
+     * @throws IOException           Exception concerning Access to index directory
+     * @throws IllegalStateException Indexer wasn't setup correctly or index is sharded
+     * @author Michael Mario Kubicki
+     * @see Indexer#GetWriters()
+     */
+    public IndexWriter GetWriter() throws IOException, IllegalStateException {
+        if (!setup) throw new IllegalStateException("Indexer was not set up");
+        if (indexWriters.length > 1) throw new IllegalStateException("Index is sharded");
+        return writer(0);
+    }
+
+    /**
+     * Writers used for indexing, one per shard in order of shards
+     *
+     * @return IndexWriters
+     * @throws IOException           Exception concerning Access to index directory
+     * @throws IllegalStateException Indexer wasn't setup correctly
+     * @author Michael Mario Kubicki
+     */
+    public IndexWriter[] GetWriters() throws IOException, IllegalStateException {
+        if (!setup) throw new IllegalStateException("Indexer was not set up");
+        IndexWriter[] writers = new IndexWriter[indexWriters.length];
+        for (int i = 0; i < writers.length; ++i)
+            writers[i] = writer(i);
+        return writers;
+    }
+
+    /**
+     * Mark how CheckedList state is kept, only when it changed
+     *
+     * @param indexWriter writer to be committed
+     * @author Michael Mario Kubicki
+     */
+    private void setCommitData(IndexWriter indexWriter) {
+        Map<String, String> commitData = new HashMap<>();
+        if (indexWriter.getLiveCommitData() != null)
+            indexWriter.getLiveCommitData().forEach(e -> commitData.put(e.getKey(), e.getValue()));
+        if (!commitData.entrySet().containsAll(checkedList.CommitData().entrySet())) {
+            commitData.putAll(checkedList.CommitData());
+            indexWriter.setLiveCommitData(commitData.entrySet());
+        }
+    }
+
+    /**
+     * Set when collected changes are written
+     * a thread's batch is written once it has this many documents/deletes or bytes of files
+     * 1 document writes every change at once
+     *
+     * @param docs  number of documents and deletes
+     * @param bytes size of files in batch
+     * @author Michael Mario Kubicki
+     */
+    public void SetBatchSize(int docs, long bytes) {
+        this.batchDocs = Math.max(1, docs);
+        this.batchBytes = Math.max(1, bytes);
+    }
+
+    /**
+     * Set when the IndexWriter writes a new segment
+     * Also changes an already set up writer
+     *
+     * @param ramBufferMB     memory for buffered documents, 0 or less only flushes by maxBufferedDocs
+     * @param maxBufferedDocs number of buffered documents, 0 or less only flushes by ramBufferMB
+     * @author Michael Mario Kubicki
+     */
+    public void SetWriterBuffer(double ramBufferMB, int maxBufferedDocs) {
+        this.ramBufferMB = ramBufferMB > 0 ? ramBufferMB : IndexWriterConfig.DISABLE_AUTO_FLUSH;
+        this.maxBufferedDocs = maxBufferedDocs > 0 ? maxBufferedDocs : IndexWriterConfig.DISABLE_AUTO_FLUSH;
+        if (this.ramBufferMB == IndexWriterConfig.DISABLE_AUTO_FLUSH && this.maxBufferedDocs == IndexWriterConfig.DISABLE_AUTO_FLUSH)
+            this.ramBufferMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+        if (setup)
+            for (IndexWriter indexWriter : indexWriters)
+                if (indexWriter != null)
+                    applyWriterSettings(indexWriter.getConfig());
+    }
+
+    /**
+     * Set how segments are merged
+     * Also changes an already set up writer
+     *
+     * @param policy       MergePolicy, null for Lucene's default
+     * @param compoundFile pack each new segment into a compound file
+     * @author Michael Mario Kubicki
+     */
+    public void SetMergePolicy(MergePolicy policy, boolean compoundFile) {
+        this.mergePolicy = policy;
+        this.compoundFile = compoundFile;
+        if (setup)
+            for (IndexWriter indexWriter : indexWriters)
+                if (indexWriter != null)
+                    applyWriterSettings(indexWriter.getConfig());
+    }
+
+    /**
+     * Put settings of writer into config
+     *
+     * @param config config of new or running writer
+     * @author Michael Mario Kubicki
+     */
+    private void applyWriterSettings(LiveIndexWriterConfig config) {
+        //Order matters, Lucene doesn't allow both disabled at any time
+        if (ramBufferMB != IndexWriterConfig.DISABLE_AUTO_FLUSH) {
+            config.setRAMBufferSizeMB(ramBufferMB);
+            config.setMaxBufferedDocs(maxBufferedDocs);
+        } else {
+            config.setMaxBufferedDocs(maxBufferedDocs);
+            config.setRAMBufferSizeMB(ramBufferMB);
+        }
+        if (mergePolicy != null)
+            config.setMergePolicy(mergePolicy);
+        config.setUseCompoundFile(compoundFile);
+    }
+
+    /**
+     * Set how much of the content is kept for snippets of results
+     * only used by writers opened afterwards, so call before SetUp(...)
+     * Content is then also indexed with offsets, documents indexed before have no snippets
+     *
+     * @param maxChars   characters stored from the start of every document, 0 or less stores nothing
+     * @param compressed compress stored fields harder, smaller index but slower snippets
+     * @author Michael Mario Kubicki
+     * @see Searching.Searcher#SetSnippets(int, int)
+     */
+    public void SetStoredContent(int maxChars, boolean compressed) {
+        this.storedContentChars = Math.max(0, maxChars);
+        this.compressContent = compressed;
+    }
+
+    /**
+     * Set number of shards the index is split into
+     * only used by SetUp(...) afterwards, has to match an existing index
+     * 1 is one unsharded index
+     *
+     * @param shards number of shards
+     * @author Michael Mario Kubicki
+     * @see IndexShards
+     */
+    public void SetShardCount(int shards) {
+        this.shardCount = Math.max(1, shards);
+    }
+
+    /**
+     * Set number of worker threads used while indexing
+     * 1 indexes everything on the calling thread
+     * 0 or less uses one worker per available processor
+     *
+     * @param threads number of workers
+     * @author Michael Mario Kubicki
+     */
+    public void SetThreadCount(int threads) {
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        this.threadCount = threads;
+    }
+
+    /**
+     * Set which files Index(...) finds and how
+     *
+     * @param include  globs of files to index, relative to documents directory, empty = all
+     * @param exclude  globs of files and directories to leave out
+     * @param links    what happens to symbolic links
+     * @param maxDepth maximum depth of directories, 0 or less is unlimited
+     * @param threads  threads listing directories, 1 = calling thread, 0 or less = one per processor
+     * @author Michael Mario Kubicki
+     * @see DirectoryCrawler
+     */
+    public void SetCrawl(List<String> include, List<String> exclude, LinkPolicy links, int maxDepth, int threads) {
+        this.crawlIncludes = include;
+        this.crawlExcludes = exclude;
+        this.crawlLinks = links;
+        this.crawlDepth = maxDepth;
+        this.crawlThreads = threads;
+    }
+
     /**
      * Index the documents in given directory
      * only lookout for specified file types
      * After indexing new/updating check for deletion
      * Call OnFinish listener after being done
+     * Uses multiple workers if thread count is greater than 1
      *
      * @param documents_dir Directory of the documents. Will be searched recursively
      * @param fileTypes     File types to index
@@ -153,79 +612,266 @@ public class Indexer {
      * @throws IllegalStateException Indexer wasn't setup correctly
      * @author Michael Mario Kubicki
      * @see Indexer#SetUp(File, RankingModel, IFileIndexer, CheckedList)
-     * @see Indexer#onFinish
+     * @see Indexer#AddListener(IIndexListener)
      */
     public void Index(File documents_dir, Set<String> fileTypes) throws IOException, IllegalStateException {
 
         if (!setup) throw new IllegalStateException("Indexer was not set up");
 
-        FileFilter filter = new IndexFileFilter(fileTypes);
+        long start = System.nanoTime();
+        filter = new IndexFileFilter(fileTypes);
+        documentsDir = documents_dir;
+
+        //Every file has to be checked again to find deleted ones
+        checkedList.ClearChecked();
 
-        indexDir(documents_dir, filter);
+        if (threadCount > 1)
+            indexDirParallel(documents_dir, filter);
+        else
+            indexDir(documents_dir, filter);
 
         //Check for removed
         Set<String> removed = checkedList.GetDifference();
         for (String s : removed) {
-            //Remove files with path s from index
-            indexWriter.deleteDocuments(new Term("path", s));
-            checkedList.checkedFiles.remove(s);
-            CallOnIndex(s + " REMOVED");
+            //Files of other shards weren't looked at
+            if (onlyShard >= 0 && shardOf(s) != onlyShard)
+                continue;
+            //Remove files with path s from index, grouped with others
+            delete(s);
+            checkedList.Remove(s);
+            REMOVED.Inc();
+            events.Publish(IndexEvent.Kind.Removed, s, 0, 0, 0);
+        }
+
+        //Workers are done, write what is left in their batches
+        Flush();
+
+        events.Publish(IndexEvent.Kind.Finished, documents_dir.getPath(), 0,
+                System.nanoTime() - start, indexedFileCounter.getAndSet(0));
+        //Listeners are done with this run before returning
+        events.Drain();
+    }
+
+    /**
+     * Throw away one shard and index its files again
+     * Other shards stay as they are, their files are not even checked
+     *
+     * @param shard         number of shard
+     * @param documents_dir Directory of the documents. Will be searched recursively
+     * @param fileTypes     File types to index
+     * @throws IOException           Exception concerning Access to documents
+     * @throws IllegalStateException Indexer wasn't setup correctly
+     * @author Michael Mario Kubicki
+     * @see Indexer#Index(File, Set)
+     */
+    public void RebuildShard(int shard, File documents_dir, Set<String> fileTypes) throws IOException, IllegalStateException {
+        if (!setup) throw new IllegalStateException("Indexer was not set up");
+        if (shard < 0 || shard >= indexWriters.length)
+            throw new IllegalArgumentException("No shard " + shard + ", index has " + indexWriters.length);
+
+        Flush();
+        writer(shard).deleteAll();
+        uncommitted.incrementAndGet();
+
+        //Forget files of shard, so all of them are new again
+        checkedList.ClearChecked();
+        for (String path : checkedList.GetDifference())
+            if (shardOf(path) == shard)
+                checkedList.Remove(path);
+
+        onlyShard = shard;
+        try {
+            Index(documents_dir, fileTypes);
+        } finally {
+            onlyShard = -1;
+        }
+    }
+
+    /**
+     * Index single file if the crawl of last Index(...) call would find it
+     * so file types, globs, depth and links apply to it as well
+     * Checks if file is new/changed like Index(...)
+     *
+     * @param file File to be indexed
+     * @throws IOException           Exception concerning Access to documents
+     * @throws IllegalStateException Indexer wasn't setup correctly
+     * @author Michael Mario Kubicki
+     */
+    public void IndexPath(File file) throws IOException, IllegalStateException {
+        if (!setup) throw new IllegalStateException("Indexer was not set up");
+
+        //Nothing indexed yet, no crawl to compare with
+        if (filter == null) {
+            if (file.isFile())
+                indexFile(file, null);
+            return;
         }
 
-        CallOnFinish("" + indexedFileCounter);
-        indexedFileCounter = 0;
+        BasicFileAttributes attrs = newCrawler(filter).Accept(documentsDir, file);
+        if (attrs != null)
+            indexFile(file, attrs);
+    }
+
+    /**
+     * Remove file from index
+     *
+     * @param path path of removed file
+     * @throws IOException           Exception concerning Access to index directory
+     * @throws IllegalStateException Indexer wasn't setup correctly
+     * @author Michael Mario Kubicki
+     */
+    public void RemovePath(String path) throws IOException, IllegalStateException {
+        if (!setup) throw new IllegalStateException("Indexer was not set up");
+
+        if (checkedList.Get(path) == null)
+            return;
+
+        delete(path);
+        checkedList.Remove(path);
+        REMOVED.Inc();
+        events.Publish(IndexEvent.Kind.Removed, path, 0, 0, 0);
+    }
+
+    /**
+     * Crawler for the files of an Index(...) call
+     *
+     * @param filter Filter for file types
+     * @return DirectoryCrawler
+     * @author Michael Mario Kubicki
+     */
+    private DirectoryCrawler newCrawler(FileFilter filter) {
+        DirectoryCrawler crawler = new DirectoryCrawler(filter);
+        crawler.SetGlobs(crawlIncludes, crawlExcludes);
+        crawler.SetLinks(crawlLinks);
+        crawler.SetMaxDepth(crawlDepth);
+        crawler.SetThreadCount(crawlThreads);
+        return crawler;
     }
 
     /**
-     * Index everything in the directory
+     * Index everything in the directory using a pool of workers
+     * The crawler fills a bounded queue while walking the directory,
+     * workers take files from the queue, check, parse and add them to the index
      *
      * @param dir    directory containing files to be indexed
      * @param filter Filter for file types
      * @throws IOException Exception concerning Access to documents
      * @author Michael Mario Kubicki
      */
-    private void indexDir(File dir, FileFilter filter) throws IOException {
+    private void indexDirParallel(File dir, FileFilter filter) throws IOException {
+
+        //Bounded, so walking can't run away from the workers
+        BlockingQueue<Found> queue = new ArrayBlockingQueue<>(threadCount * 64);
+
+        ExecutorService workers = Executors.newFixedThreadPool(threadCount);
+        ArrayList<Future<Void>> results = new ArrayList<>();
 
-        /*
-        Take all the Files in the directory
-        and for each:
-        - if directory: use indexDir recursively
-        - else: check if accessible and of correct type
-            then index it
-         */
+        try {
+            for (int i = 0; i < threadCount; ++i)
+                results.add(workers.submit(() -> {
+                    Found found;
+                    while ((found = queue.take()) != END_OF_QUEUE)
+                        indexFile(found.file, found.attrs);
+                    return null;
+                }));
+
+            try {
+                //Producer: crawl directory
+                newCrawler(filter).Crawl(dir, (file, attrs) -> offerToWorkers(new Found(file, attrs), queue, results));
+            } finally {
+                //Tell every worker to stop after the queue is empty
+                for (int i = 0; i < threadCount; ++i)
+                    offerToWorkers(END_OF_QUEUE, queue, results);
+            }
 
-        File[] files = dir.listFiles();
+            for (Future<Void> result : results)
+                result.get();
 
-        assert files != null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while indexing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
 
-        for (File file : files) {
-            if (file.isDirectory())
-                indexDir(file, filter);
-            else if (file.exists() && file.canRead() && filter.accept(file))
-                indexFile(file);
+    /**
+     * Put file into queue
+     * checks before each file if a worker failed, so crawling stops with it and a full queue can't block forever
+     *
+     * @param found   File to hand over
+     * @param queue   queue the workers take from
+     * @param workers running workers
+     * @throws IOException a worker failed or interrupted while waiting on queue
+     * @author Michael Mario Kubicki
+     */
+    private void offerToWorkers(Found found, BlockingQueue<Found> queue, ArrayList<Future<Void>> workers)
+            throws IOException {
+        try {
+            //A failed worker ends the crawl, the next file isn't even queued
+            do {
+                for (Future<Void> worker : workers)
+                    if (worker.isDone())
+                        worker.get();
+            } while (!queue.offer(found, 100, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while indexing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
         }
     }
 
+    /**
+     * Index everything in the directory on the calling thread
+     * files are indexed while the crawler finds them
+     *
+     * @param dir    directory containing files to be indexed
+     * @param filter Filter for file types
+     * @throws IOException Exception concerning Access to documents
+     * @author Michael Mario Kubicki
+     */
+    private void indexDir(File dir, FileFilter filter) throws IOException {
+        DirectoryCrawler crawler = newCrawler(filter);
+        //Files have to be indexed in order of finding
+        crawler.SetThreadCount(1);
+        crawler.Crawl(dir, this::indexFile);
+    }
+
     /**
      * Index the given file using the IndexWriter
      * First check using checkedList if file is already known, new or needs an update
      * Act accordingly
      *
-     * @param file File to be indexed
-     * @throws IOException Exception concerning file-accessing
+     * @param file  File to be indexed
+     * @param attrs attributes read while crawling, null to read them again
+     * @throws IOException Exception concerning file-accessing, file couldn't be checked
      * @author Michael Mario Kubicki
      * @see IndexWriter
-     * @see Indexer#onIndex
+     * @see Indexer#AddListener(IIndexListener)
      */
-    private void indexFile(File file) throws IOException {
+    private void indexFile(File file, BasicFileAttributes attrs) throws IOException {
+
+        if (onlyShard >= 0 && shardOf(file.getPath()) != onlyShard)
+            return;
 
         //Check if File is already on List or needs an update
-        CheckedList.FileState stateFile = CheckedList.FileState.New;
+        CheckedList.FileState stateFile;
         try {
-            stateFile = this.checkedList.CheckFile(file);
-        } catch (Exception e) {
-            e.printStackTrace(System.out);
-            System.exit(-1);
+            stateFile = attrs != null ? this.checkedList.CheckFile(file, attrs) : this.checkedList.CheckFile(file);
+        } catch (AccessDeniedException | NoSuchFileException | FileNotFoundException e) {
+            //Unreadable or gone since crawling, skipped like unreadable directories
+            UNREADABLE.Inc();
+            return;
+        } catch (RuntimeException e) {
+            //Fails Index(...), workers stop and the crawl is ended
+            throw new IOException("Checking " + file + " failed", e);
         }
 
         switch (stateFile) {
@@ -251,22 +897,9 @@ public class Indexer {
      * @author Michael Mario Kubicki
      */
     private void indexFileAdd(File file) throws IOException {
-        CallOnIndex(file.getPath() + " NEW");
-        indexedFileCounter++;
-
-        //Try finding document writing by extention
-        String filename = file.getName().toLowerCase();
-        for (String s : fileTypeIndexer.keySet()) {
-            if (filename.endsWith(s)) {
-                Document doc = fileTypeIndexer.get(s).index(file);
-                indexWriter.addDocument(doc);
-                return;
-            }
-        }
+        indexedFileCounter.incrementAndGet();
 
-        //Fallback
-        Document doc = backUpIndexer.index(file);
-        indexWriter.addDocument(doc);
+        indexDocument(file, false);
     }
 
     /**
@@ -276,96 +909,308 @@ public class Indexer {
      * @throws IOException
      */
     private void indexFileUpdate(File file) throws IOException {
-        CallOnIndex(file.getPath() + " UPDATE");
-        indexedFileCounter++;
-
-        //Try finding document writing by extention
-        String filename = file.getName().toLowerCase();
-        for (String s : fileTypeIndexer.keySet()) {
-            if (filename.endsWith(s)) {
-                Document doc = fileTypeIndexer.get(s).index(file);
-                indexWriter.updateDocument(new Term("path", file.getPath()), doc);
-                return;
+        indexedFileCounter.incrementAndGet();
+
+        indexDocument(file, true);
+    }
+
+    /**
+     * Build document with indexer of file type and write it
+     * Documents of non streaming indexers are held in memory completely,
+     * so only a limited amount of them is built at once
+     *
+     * @param file   File
+     * @param update replace existing document
+     * @throws IOException Exception while reading file or writing index
+     * @author Michael Mario Kubicki
+     */
+    private void indexDocument(File file, boolean update) throws IOException {
+        //Find document writing by extension, fallback if unknown
+        IFileIndexer fileIndexer = fileIndexers.Get(file);
+        if (fileIndexer == null)
+            fileIndexer = backUpIndexer;
+
+        long bytes = file.length();
+        int permits = 0;
+        if (threadCount > 1 && !fileIndexer.streaming())
+            permits = (int) Math.min(BUFFERED_BUDGET_KB, Math.max(1, bytes >> 10));
+
+        try {
+            bufferedBudget.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while indexing");
+        }
+        try {
+            long start = PARSE.Start();
+            List<Document> docs = fileIndexer.indexAll(file);
+            for (Document doc : docs) {
+                addState(doc, file);
+                addResultValues(doc);
+                addStoredContent(doc);
             }
+            long parsed = PARSE.Stop(start);
+            countType(file, bytes);
+
+            MutationBatch mutations = batch.get()[shardOf(file.getPath())];
+            if (update)
+                mutations.Update(file.getPath(), docs, bytes);
+            else
+                mutations.Add(file.getPath(), docs, bytes);
+            uncommitted.incrementAndGet();
+            events.Publish(update ? IndexEvent.Kind.Update : IndexEvent.Kind.New, file.getPath(), bytes, parsed, docs.size());
+
+            //Documents held in memory are written before giving back their budget
+            if (permits > 0 || mutations.IsFull(batchDocs, batchBytes))
+                flush(mutations);
+        } finally {
+            bufferedBudget.release(permits);
         }
+    }
 
-        //Fallback
-        Document doc = backUpIndexer.index(file);
-        indexWriter.updateDocument(new Term("path", file.getPath()), doc);
+    /**
+     * Count file and its bytes by file type
+     *
+     * @param file  indexed File
+     * @param bytes size of file
+     * @author Michael Mario Kubicki
+     */
+    private static void countType(File file, long bytes) {
+        String type = FileIndexerRegistry.Extension(file.getName());
+        Metrics.Counter("ir_indexed_files_total", "Files added or updated by type", "type", type).Inc();
+        Metrics.Counter("ir_indexed_bytes_total", "Bytes of files added or updated by type", "type", type).Add(bytes);
     }
 
     /**
-     * Add listener for indexing new file
-     * Listener receives path of file
+     * Remove documents of path with the next batch
      *
-     * @param listener To be add
+     * @param path path of file
+     * @throws IOException Exception while writing index
      * @author Michael Mario Kubicki
      */
-    public void AddOnIndex(IStringListener listener) {
-        onIndex.add(listener);
+    private void delete(String path) throws IOException {
+        MutationBatch mutations = batch.get()[shardOf(path)];
+        mutations.Delete(path);
+        uncommitted.incrementAndGet();
+        if (mutations.IsFull(batchDocs, batchBytes))
+            flush(mutations);
     }
 
     /**
-     * Add listener for finish of indexing call
-     * Listener receives number of indexed files as string
+     * Write batch to the writer of its shard
+     * Files which failed are forgotten by checkedList, so the next run tries them again
+     *
+     * @param mutations batch
+     * @throws IOException Exception while writing index
+     * @author Michael Mario Kubicki
+     */
+    private void flush(MutationBatch mutations) throws IOException {
+        for (String path : mutations.Flush(writer(mutations.shard))) {
+            checkedList.Remove(path);
+            FAILED.Inc();
+        }
+    }
+
+    /**
+     * Shard of path
+     *
+     * @param path path of file
+     * @return number of shard
+     * @author Michael Mario Kubicki
+     */
+    private int shardOf(String path) {
+        return IndexShards.Of(path, indexWriters.length);
+    }
+
+    /**
+     * Batches for a thread, one per shard, known to Flush()
+     *
+     * @return new empty batches
+     * @author Michael Mario Kubicki
+     */
+    private MutationBatch[] newBatches() {
+        MutationBatch[] shardBatches = new MutationBatch[indexWriters.length];
+        for (int i = 0; i < shardBatches.length; ++i) {
+            shardBatches[i] = new MutationBatch(Thread.currentThread(), i);
+            batches.add(shardBatches[i]);
+        }
+        return shardBatches;
+    }
+
+    /**
+     * Add size, modification time and hash from checkedList to document
+     * so the state can be read from the index
+     *
+     * @param doc  Document of file
+     * @param file File
+     * @throws IOException Exception while reading state
+     * @author Michael Mario Kubicki
+     * @see IndexCheckedList
+     */
+    private void addState(Document doc, File file) throws IOException {
+        CheckedList.Entry entry = checkedList.Get(file.getPath());
+        if (entry != null)
+            IndexCheckedList.AddState(doc, entry);
+    }
+
+    /**
+     * Add path and title as doc values, so results are loaded without stored fields
+     * Values too big for doc values are only stored
+     *
+     * @param doc Document of file
+     * @author Michael Mario Kubicki
+     * @see Searching.Searcher#Hydrate(org.apache.lucene.search.ScoreDoc[])
+     */
+    private static void addResultValues(Document doc) {
+        for (String field : new String[]{"path", "title"}) {
+            String value = doc.get(field);
+            if (value == null)
+                continue;
+            BytesRef bytes = new BytesRef(value);
+            if (bytes.length <= MAX_DOC_VALUE)
+                doc.add(new SortedDocValuesField(field, bytes));
+        }
+    }
+
+    /**
+     * Index content with offsets and store its beginning, so snippets need neither the file nor analyzing
+     * The beginning of streamed content is read by the batch right before the document is written
+     *
+     * @param doc Document of file
+     * @author Michael Mario Kubicki
+     * @see StoredPrefixField
+     */
+    private void addStoredContent(Document doc) {
+        IndexableField content = doc.getField("content");
+        if (storedContentChars <= 0 || content == null || content.fieldType().stored())
+            return;
+
+        Field indexed;
+        Field stored;
+        if (content.readerValue() != null) {
+            indexed = new Field("content", content.readerValue(), CONTENT_WITH_OFFSETS);
+            stored = new StoredPrefixField("content", indexed, storedContentChars);
+        } else if (content.stringValue() != null) {
+            String text = content.stringValue();
+            indexed = new Field("content", text, CONTENT_WITH_OFFSETS);
+            stored = new StoredField("content", text.substring(0, Math.min(text.length(), storedContentChars)));
+        } else {
+            //Own TokenStream, text unknown
+            return;
+        }
+
+        doc.removeFields("content");
+        doc.add(indexed);
+        doc.add(stored);
+    }
+
+    /**
+     * Add listener for everything the indexer does
+     * Listener is called on its own thread, in order of events
      *
      * @param listener To be add
      * @author Michael Mario Kubicki
+     * @see IndexEvent
      */
-    public void AddOnFinish(IStringListener listener) {
-        onFinish.add(listener);
+    public void AddListener(IIndexListener listener) {
+        events.Add(listener);
     }
 
     /**
-     * Remove listener for indexing new file
-     * Listener receives path of file
+     * Remove listener for everything the indexer does
      *
      * @param listener To be removed
      * @author Michael Mario Kubicki
      */
-    public void RemoveOnIndex(IStringListener listener) {
-        onIndex.remove(listener);
+    public void RemoveListener(IIndexListener listener) {
+        events.Remove(listener);
     }
 
     /**
-     * Remove listener for finish of indexing call
+     * Add listener for indexing new file
+     * Listener receives path of file and what happened, e.g. "path NEW"
+     *
+     * @param listener To be add
+     * @author Michael Mario Kubicki
+     * @see Indexer#AddListener(IIndexListener)
+     */
+    public synchronized void AddOnIndex(IStringListener listener) {
+        IIndexListener adapter = event -> {
+            if (event.GetKind() != IndexEvent.Kind.Finished)
+                listener.event(event.toString());
+        };
+        RemoveOnIndex(listener);
+        onIndex.put(listener, adapter);
+        AddListener(adapter);
+    }
+
+    /**
+     * Add listener for finish of indexing call
      * Listener receives number of indexed files as string
      *
-     * @param listener To be removed
+     * @param listener To be add
      * @author Michael Mario Kubicki
+     * @see Indexer#AddListener(IIndexListener)
      */
-    public void RemoveOnFinish(IStringListener listener) {
-        onFinish.remove(listener);
+    public synchronized void AddOnFinish(IStringListener listener) {
+        IIndexListener adapter = event -> {
+            if (event.GetKind() == IndexEvent.Kind.Finished)
+                listener.event(String.valueOf(event.GetDocuments()));
+        };
+        RemoveOnFinish(listener);
+        onFinish.put(listener, adapter);
+        AddListener(adapter);
     }
 
     /**
-     * Call listener OnIndex
+     * Remove listener for indexing new file
      *
-     * @param document document currently being indexed
+     * @param listener To be removed
      * @author Michael Mario Kubicki
      */
-    protected void CallOnIndex(String document) {
-        onIndex.forEach(l -> l.event(document));
+    public synchronized void RemoveOnIndex(IStringListener listener) {
+        IIndexListener adapter = onIndex.remove(listener);
+        if (adapter != null)
+            RemoveListener(adapter);
     }
 
     /**
-     * Call listener OnFinish
+     * Remove listener for finish of indexing call
      *
-     * @param count number of documents indexed
+     * @param listener To be removed
      * @author Michael Mario Kubicki
      */
-    protected void CallOnFinish(String count) {
-        onFinish.forEach(l -> l.event(count));
+    public synchronized void RemoveOnFinish(IStringListener listener) {
+        IIndexListener adapter = onFinish.remove(listener);
+        if (adapter != null)
+            RemoveListener(adapter);
     }
 
     /**
      * Add Indexer to extension
+     * replaces indexer found by FileIndexerRegistry
      *
      * @param extension file extension
      * @param indexer   Indexer
      * @author Michael Mario Kubicki
+     * @see FileIndexerRegistry
      */
     public void AddFileIndexer(String extension, IFileIndexer indexer) {
-        this.fileTypeIndexer.put(extension.toLowerCase(), indexer);
+        this.fileIndexers.Register(extension, indexer);
+    }
+
+    /**
+     * File found by the crawler with its attributes
+     *
+     * @author Michael Mario Kubicki
+     */
+    private static final class Found {
+        private final File file;
+        private final BasicFileAttributes attrs;
+
+        private Found(File file, BasicFileAttributes attrs) {
+            this.file = file;
+            this.attrs = attrs;
+        }
     }
 }
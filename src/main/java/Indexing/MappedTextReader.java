@@ -0,0 +1,313 @@
+package Indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decoded text of a byte range of a file
+ * Big ranges are read through memory-mapped regions, small ones through one reused buffer
+ * The file is only opened on first read and closed by close()
+ *
+ * @author Michael Mario Kubicki
+ * @see MappedTextReader#Detect(File)
+ * @see MappedTextReader#Passages(File, Charset, long)
+ */
+public class MappedTextReader extends Reader {
+
+    //Ranges at least this big are mapped
+    private static final long MAP_THRESHOLD = 4L << 20;
+    //Size of mapped regions
+    private static final long REGION = 256L << 20;
+    //Buffer for unmapped reading
+    private static final int CHUNK = 64 << 10;
+    //Bytes looked at for detecting charset
+    private static final int PRESCAN = 64 << 10;
+    //Passage ends at next line break within this many bytes
+    private static final int LINE_SEARCH = 64 << 10;
+
+    private final File file;
+    private final Charset charset;
+    private long start;
+    private final long end;
+    private final boolean map;
+    private final CharsetDecoder decoder;
+
+    private FileChannel channel;
+    private ByteBuffer bytes;
+    //File offset of first byte in bytes
+    private long bytesStart;
+    //File offset of next byte to load
+    private long position;
+
+    private final CharBuffer chars = CharBuffer.allocate(8192);
+    private boolean done;
+    private boolean closed;
+
+    /**
+     * Reader of whole file
+     *
+     * @param file    File
+     * @param charset Charset of file
+     * @author Michael Mario Kubicki
+     */
+    public MappedTextReader(File file, Charset charset) {
+        this(file, charset, 0, file.length());
+    }
+
+    /**
+     * Reader of bytes start (inclusive) to end (exclusive)
+     * Range should start at beginning of a char, see Passages(...)
+     *
+     * @param file    File
+     * @param charset Charset of file
+     * @param start   first byte
+     * @param end     end of range
+     * @author Michael Mario Kubicki
+     */
+    public MappedTextReader(File file, Charset charset, long start, long end) {
+        this.file = file;
+        this.charset = charset;
+        this.start = start;
+        this.end = end;
+        this.map = end - start >= MAP_THRESHOLD;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars.flip();
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("Reader is closed");
+        if (len == 0)
+            return 0;
+        if (!chars.hasRemaining()) {
+            if (done)
+                return -1;
+            fill();
+            if (!chars.hasRemaining())
+                return -1;
+        }
+
+        int count = Math.min(len, chars.remaining());
+        chars.get(cbuf, off, count);
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        bytes = null;
+        if (channel != null)
+            channel.close();
+    }
+
+    /**
+     * Decode next chars
+     *
+     * @throws IOException Exception while reading file
+     * @author Michael Mario Kubicki
+     */
+    private void fill() throws IOException {
+        if (channel == null)
+            open();
+
+        chars.clear();
+        while (chars.position() == 0) {
+            boolean last = position >= end;
+            decoder.decode(bytes, chars, last);
+
+            if (last && !bytes.hasRemaining()) {
+                decoder.flush(chars);
+                done = true;
+                break;
+            }
+            //Output full -> return what we have, input empty -> load more
+            if (chars.hasRemaining() && !last)
+                load();
+        }
+        chars.flip();
+    }
+
+    /**
+     * Open file, skip byte order mark
+     *
+     * @throws IOException Exception while opening
+     * @author Michael Mario Kubicki
+     */
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        if (start == 0)
+            start = bomLength(channel, charset);
+
+        position = start;
+        bytesStart = start;
+        if (map) {
+            bytes = ByteBuffer.allocate(0);
+        } else {
+            bytes = ByteBuffer.allocate((int) Math.max(16, Math.min(CHUNK, end - start)));
+            bytes.flip();
+        }
+        load();
+    }
+
+    /**
+     * Load next bytes, keeping bytes not decoded yet
+     *
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    private void load() throws IOException {
+        long offset = bytesStart + bytes.position();
+
+        if (map) {
+            long size = Math.min(REGION, end - offset);
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            bytesStart = offset;
+            position = offset + size;
+            return;
+        }
+
+        bytes.compact();
+        bytesStart = offset;
+        int wanted = (int) Math.min(bytes.remaining(), end - position);
+        bytes.limit(bytes.position() + wanted);
+        int read = 0;
+        while (bytes.hasRemaining()) {
+            int n = channel.read(bytes, position + read);
+            if (n < 0)
+                break;
+            read += n;
+        }
+        position += read;
+        //File got shorter, stop there
+        if (read < wanted)
+            position = end;
+        bytes.flip();
+    }
+
+    /**
+     * Guess charset of file from its first bytes
+     * byte order mark, then valid UTF-8, otherwise windows-1252
+     *
+     * @param file File
+     * @return Charset
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    public static Charset Detect(File file) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(PRESCAN, file.length()));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (head.hasRemaining()) {
+                if (channel.read(head) < 0)
+                    break;
+            }
+        }
+        head.flip();
+
+        Charset bom = bomCharset(head);
+        if (bom != null)
+            return bom;
+
+        //Last char may be cut off, so input isn't complete
+        CoderResult result = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(head, CharBuffer.allocate(head.remaining()), false);
+        if (result.isError())
+            return Charset.isSupported("windows-1252") ? Charset.forName("windows-1252") : StandardCharsets.ISO_8859_1;
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Split file into byte ranges of about passageBytes
+     * each range ends after a line break if there is one close by
+     * Only charsets with single byte line breaks are split
+     *
+     * @param file         File
+     * @param charset      Charset of file
+     * @param passageBytes wanted size of ranges
+     * @return [start, end] of each range
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    public static List<long[]> Passages(File file, Charset charset, long passageBytes) throws IOException {
+        List<long[]> passages = new ArrayList<>();
+        long length = file.length();
+
+        if (passageBytes <= 0 || length <= passageBytes || "\n".getBytes(charset).length != 1) {
+            passages.add(new long[]{0, length});
+            return passages;
+        }
+
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(LINE_SEARCH);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long start = 0;
+            while (length - start > passageBytes) {
+                long cut = start + passageBytes;
+
+                buffer.clear();
+                channel.read(buffer, cut);
+                buffer.flip();
+
+                int at = -1;
+                for (int i = 0; i < buffer.limit() && at < 0; ++i)
+                    if (buffer.get(i) == '\n')
+                        at = i + 1;
+
+                if (at >= 0) {
+                    cut += at;
+                } else if (utf8) {
+                    //No line break, at least don't cut a char
+                    int i = 0;
+                    while (i < buffer.limit() && (buffer.get(i) & 0xC0) == 0x80)
+                        i++;
+                    cut += i;
+                }
+
+                passages.add(new long[]{start, cut});
+                start = cut;
+            }
+            passages.add(new long[]{start, length});
+        }
+        return passages;
+    }
+
+    private static long bomLength(FileChannel channel, Charset charset) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(3);
+        while (head.hasRemaining()) {
+            if (channel.read(head, head.position()) < 0)
+                break;
+        }
+        head.flip();
+        Charset bom = bomCharset(head);
+        if (bom == null || !bom.equals(charset))
+            return 0;
+        return bom.equals(StandardCharsets.UTF_8) ? 3 : 2;
+    }
+
+    private static Charset bomCharset(ByteBuffer head) {
+        int length = head.remaining();
+        int b0 = length > 0 ? head.get(0) & 0xFF : -1;
+        int b1 = length > 1 ? head.get(1) & 0xFF : -1;
+        int b2 = length > 2 ? head.get(2) & 0xFF : -1;
+
+        if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF)
+            return StandardCharsets.UTF_8;
+        if (b0 == 0xFE && b1 == 0xFF)
+            return StandardCharsets.UTF_16BE;
+        if (b0 == 0xFF && b1 == 0xFE)
+            return StandardCharsets.UTF_16LE;
+        return null;
+    }
+}
@@ -0,0 +1,237 @@
+package Indexing;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes to the index collected by one thread, written together by Flush(...)
+ * Removed paths become one deleteDocuments(Term...) call, every file its own addDocuments(...)
+ * or updateDocuments(...) call, so a file which can't be read only loses its own documents
+ * <p>
+ * Only the last change of a path counts, e.g. added and removed again before flushing is nothing
+ * Documents which are replaced or fail get their readers closed,
+ * stored beginnings of streamed content are read right before a file is written
+ *
+ * @author Michael Mario Kubicki
+ * @see Indexer
+ */
+class MutationBatch {
+
+    //Guessed size of a document besides its content
+    private static final long DOC_OVERHEAD = 1024;
+
+    //Thread filling the batch, shard its changes belong to
+    final Thread owner;
+    final int shard;
+
+    //Includes analyzing, Lucene analyzes inside of addDocuments(...)
+    private static final Util.Metrics.Timer ADD = Util.Metrics.Stage("add");
+
+    private final LinkedHashMap<String, List<Document>> adds = new LinkedHashMap<>();
+    private final LinkedHashMap<String, List<Document>> updates = new LinkedHashMap<>();
+    private final LinkedHashSet<String> deletes = new LinkedHashSet<>();
+    private int docCount;
+    private long bytes;
+
+    MutationBatch(Thread owner, int shard) {
+        this.owner = owner;
+        this.shard = shard;
+    }
+
+    /**
+     * Add documents of a new file
+     *
+     * @param path  path of file
+     * @param docs  documents of file
+     * @param bytes size of file
+     * @author Michael Mario Kubicki
+     */
+    synchronized void Add(String path, List<Document> docs, long bytes) {
+        //Removed and back again: old documents have to go first
+        if (deletes.remove(path)) {
+            Update(path, docs, bytes);
+            return;
+        }
+        replaced(adds.put(path, docs), docs, bytes);
+    }
+
+    /**
+     * Replace documents of a changed file
+     *
+     * @param path  path of file
+     * @param docs  new documents of file
+     * @param bytes size of file
+     * @author Michael Mario Kubicki
+     */
+    synchronized void Update(String path, List<Document> docs, long bytes) {
+        //Not in index yet, still just an add
+        if (adds.containsKey(path)) {
+            replaced(adds.put(path, docs), docs, bytes);
+            return;
+        }
+        deletes.remove(path);
+        replaced(updates.put(path, docs), docs, bytes);
+    }
+
+    /**
+     * Remove documents of a file
+     *
+     * @param path path of file
+     * @author Michael Mario Kubicki
+     */
+    synchronized void Delete(String path) {
+        List<Document> added = adds.remove(path);
+        if (added != null) {
+            //Never reached the index
+            replaced(added, null, 0);
+            return;
+        }
+        replaced(updates.remove(path), null, 0);
+        deletes.add(path);
+    }
+
+    /**
+     * Check thresholds
+     *
+     * @param maxDocs  flush at this many documents or deletes
+     * @param maxBytes flush at this many (guessed) bytes
+     * @return true if batch should be flushed
+     * @author Michael Mario Kubicki
+     */
+    synchronized boolean IsFull(int maxDocs, long maxBytes) {
+        return docCount + deletes.size() >= maxDocs || bytes >= maxBytes;
+    }
+
+    /**
+     * Nothing collected
+     *
+     * @return true if empty
+     * @author Michael Mario Kubicki
+     */
+    synchronized boolean IsEmpty() {
+        return adds.isEmpty() && updates.isEmpty() && deletes.isEmpty();
+    }
+
+    /**
+     * Write all collected changes and empty the batch
+     * Documents are analyzed by the calling thread
+     * <p>
+     * A file whose documents can't be read or analyzed is removed from the index, the others are written.
+     * Its path is returned, so it can be forgotten and tried again later
+     *
+     * @param writer IndexWriter
+     * @return paths of files which failed, empty if all were written
+     * @throws IOException Exception while writing index, nothing more was written
+     * @author Michael Mario Kubicki
+     */
+    synchronized List<String> Flush(IndexWriter writer) throws IOException {
+        long start = ADD.Start();
+        List<String> failed = new ArrayList<>();
+        try {
+            if (!deletes.isEmpty()) {
+                Term[] terms = new Term[deletes.size()];
+                int i = 0;
+                for (String path : deletes)
+                    terms[i++] = new Term("path", path);
+                writer.deleteDocuments(terms);
+                deletes.clear();
+            }
+
+            write(writer, updates, true, failed);
+            write(writer, adds, false, failed);
+        } finally {
+            //Left over after a failed writer, never read
+            for (List<Document> docs : updates.values())
+                close(docs);
+            for (List<Document> docs : adds.values())
+                close(docs);
+            adds.clear();
+            updates.clear();
+            deletes.clear();
+            docCount = 0;
+            bytes = 0;
+            ADD.Stop(start);
+        }
+        return failed;
+    }
+
+    /**
+     * Write documents file by file, each one is removed from changes once written
+     *
+     * @param writer  IndexWriter
+     * @param changes path -> documents
+     * @param update  replace existing documents of path
+     * @param failed  gets paths whose documents couldn't be written
+     * @throws IOException Exception of the writer itself
+     * @author Michael Mario Kubicki
+     */
+    private static void write(IndexWriter writer, Map<String, List<Document>> changes, boolean update,
+                              List<String> failed) throws IOException {
+        Iterator<Map.Entry<String, List<Document>>> iterator = changes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, List<Document>> change = iterator.next();
+            Term path = new Term("path", change.getKey());
+            try {
+                StoredPrefixField.Capture(change.getValue());
+                if (update)
+                    writer.updateDocuments(path, change.getValue());
+                else
+                    writer.addDocuments(change.getValue());
+            } catch (IOException | RuntimeException e) {
+                //Writer is broken, not the file
+                if (!writer.isOpen() || writer.getTragicException() != null)
+                    throw e;
+                //Documents written so far are dropped by the writer, older versions have to go as well
+                close(change.getValue());
+                writer.deleteDocuments(path);
+                failed.add(change.getKey());
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Close readers of documents which won't be indexed
+     *
+     * @param docs documents, null for none
+     * @author Michael Mario Kubicki
+     */
+    private static void close(List<Document> docs) {
+        if (docs == null)
+            return;
+        for (Document doc : docs)
+            for (IndexableField field : doc.getFields()) {
+                Reader reader = field.readerValue();
+                if (reader == null)
+                    continue;
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    //Nothing left to do with it
+                }
+            }
+    }
+
+    private void replaced(List<Document> replaced, List<Document> docs, long size) {
+        if (replaced != null) {
+            docCount -= replaced.size();
+            if (replaced != docs)
+                close(replaced);
+        }
+        if (docs != null) {
+            docCount += docs.size();
+            bytes += size + DOC_OVERHEAD * docs.size();
+        }
+    }
+}
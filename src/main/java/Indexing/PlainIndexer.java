@@ -0,0 +1,110 @@
+package Indexing;
+
+import Util.IFileIndexer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Indexes complete content of file as text, file name as title
+ * Content is decoded while indexing (memory-mapped for big files), the file is closed afterwards
+ * <p>
+ * Files bigger than the passage size become one document per passage,
+ * all with the same path, numbered in stored field "passage"
+ *
+ * @author Michael Mario Kubicki
+ * @see MappedTextReader
+ */
+public class PlainIndexer implements IFileIndexer {
+
+    //null = detect per file
+    private final Charset charset;
+    //0 = never split
+    private final long passageBytes;
+
+    /**
+     * Detect charset, never split
+     * used by FileIndexerRegistry
+     *
+     * @author Michael Mario Kubicki
+     */
+    public PlainIndexer() {
+        this(null, 0);
+    }
+
+    /**
+     * Construct with settings
+     *
+     * @param charset      Charset of all files, null detects it per file
+     * @param passageBytes files bigger than this are split into passages, 0 never splits
+     * @author Michael Mario Kubicki
+     */
+    public PlainIndexer(Charset charset, long passageBytes) {
+        this.charset = charset;
+        this.passageBytes = passageBytes;
+    }
+
+    @Override
+    public Document index(File file) throws IOException {
+        return document(file, new MappedTextReader(file, charsetOf(file)), -1);
+    }
+
+    @Override
+    public List<Document> indexAll(File file) throws IOException {
+        if (passageBytes <= 0 || file.length() <= passageBytes)
+            return Collections.singletonList(index(file));
+
+        Charset fileCharset = charsetOf(file);
+        List<long[]> passages = MappedTextReader.Passages(file, fileCharset, passageBytes);
+
+        //Readers open file only when indexed
+        List<Document> documents = new ArrayList<>(passages.size());
+        for (int i = 0; i < passages.size(); ++i) {
+            long[] range = passages.get(i);
+            documents.add(document(file, new MappedTextReader(file, fileCharset, range[0], range[1]),
+                    passages.size() > 1 ? i : -1));
+        }
+        return documents;
+    }
+
+    private Document document(File file, MappedTextReader reader, int passage) {
+        Document doc = new Document();
+
+        doc.add(new TextField("content", reader));
+        doc.add(new TextField("title", file.getName(), Field.Store.YES));
+        doc.add(new StringField("path", file.getPath(), Field.Store.YES));
+        if (passage >= 0)
+            doc.add(new StoredField("passage", passage));
+
+        return doc;
+    }
+
+    private Charset charsetOf(File file) throws IOException {
+        return charset != null ? charset : MappedTextReader.Detect(file);
+    }
+
+    @Override
+    public Set<String> extensions() {
+        return Collections.singleton(".txt");
+    }
+
+    @Override
+    public Set<String> mimeTypes() {
+        return Collections.singleton("text/plain");
+    }
+
+    @Override
+    public boolean streaming() {
+        return true;
+    }
+}
@@ -0,0 +1,113 @@
+package Indexing;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexableField;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Stored beginning of a streamed field
+ * Capture() reads it from the stream before the document is handed to the writer,
+ * afterwards the streamed field reads the captured beginning again followed by the rest,
+ * so the stored value doesn't depend on the order the writer handles fields in
+ * <p>
+ * Capturing is left until writing, so files aren't opened while documents wait in a batch
+ *
+ * @author Michael Mario Kubicki
+ * @see Indexer#SetStoredContent(int, boolean)
+ * @see MutationBatch
+ */
+final class StoredPrefixField extends Field {
+
+    private final Field streamed;
+    private final int maxChars;
+    private boolean captured;
+
+    /**
+     * Stored field, empty until captured
+     *
+     * @param name     name of field
+     * @param streamed field with a Reader, in the same document
+     * @param maxChars characters stored at most
+     * @author Michael Mario Kubicki
+     */
+    StoredPrefixField(String name, Field streamed, int maxChars) {
+        super(name, "", StoredField.TYPE);
+        this.streamed = streamed;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Read beginning of the streamed field into this one
+     *
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    void Capture() throws IOException {
+        if (captured)
+            return;
+        captured = true;
+
+        Reader in = streamed.readerValue();
+        StringBuilder prefix = new StringBuilder();
+        char[] buffer = new char[Math.min(maxChars, 8192)];
+        int read;
+        while (prefix.length() < maxChars
+                && (read = in.read(buffer, 0, Math.min(buffer.length, maxChars - prefix.length()))) >= 0)
+            prefix.append(buffer, 0, read);
+
+        setStringValue(prefix.toString());
+        streamed.setReaderValue(new ReplayReader(prefix.toString(), in));
+    }
+
+    /**
+     * Capture all stored prefixes of documents
+     *
+     * @param docs documents about to be written
+     * @throws IOException Exception while reading
+     * @author Michael Mario Kubicki
+     */
+    static void Capture(List<Document> docs) throws IOException {
+        for (Document doc : docs)
+            for (IndexableField field : doc.getFields())
+                if (field instanceof StoredPrefixField)
+                    ((StoredPrefixField) field).Capture();
+    }
+
+    /**
+     * Captured beginning, then the rest of the stream
+     * Closing closes the stream
+     */
+    private static final class ReplayReader extends Reader {
+        private final String prefix;
+        private final Reader rest;
+        private int position;
+
+        ReplayReader(String prefix, Reader rest) {
+            this.prefix = prefix;
+            this.rest = rest;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (position < prefix.length()) {
+                int count = Math.min(len, prefix.length() - position);
+                prefix.getChars(position, position + count, cbuf, off);
+                position += count;
+                return count;
+            }
+            return rest.read(cbuf, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            rest.close();
+        }
+    }
+}
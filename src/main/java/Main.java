@@ -1,16 +1,24 @@
+import Indexing.DirectoryWatcher;
+import Indexing.IndexCheckedList;
 import Indexing.Indexer;
+import Indexing.PlainIndexer;
+import Searching.QueryResult;
+import Searching.ResultCache;
+import Searching.SearchResult;
+import Searching.SearchServer;
 import Searching.Searcher;
+import Searching.Suggester;
 import Util.*;
 
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.search.ScoreDoc;
-import org.jsoup.Jsoup;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Main {
 
@@ -30,32 +38,71 @@ public class Main {
         System.out.println("Document-directory: " + information.DocumentDirectory);
         System.out.println("Index-directory: " + information.IndexDirectory);
         System.out.println("Ranking Model: " + information.Ranking);
-        System.out.println("Query: " + information.Query);
+        if (information.Server)
+            System.out.println("Server: http://localhost:" + information.ServerPort + "/search?q=");
+        else if (information.Batch)
+            System.out.println("Query file: " + information.Query);
+        else
+            System.out.println("Query: " + information.Query);
         System.out.println("Number of Results Shown: " + information.ResultCount);
-        System.out.println("Indexed File types: " + information.FileTypes + "\n");
+        System.out.println("Indexed File types: " + information.FileTypes);
+        System.out.println("Indexing threads: " + (information.IndexThreads > 0 ?
+                information.IndexThreads : "all processors"));
+        System.out.println("Crawling threads: " + (information.CrawlThreads > 0 ?
+                information.CrawlThreads : "all processors") + ", links: " + information.CrawlLinks
+                + (information.CrawlMaxDepth > 0 ? ", max depth " + information.CrawlMaxDepth : ""));
+        System.out.println("Search threads per query: " + (information.SearchThreads > 0 ?
+                information.SearchThreads : "all processors"));
+        System.out.println("Text charset: " + (information.TextCharset != null ? information.TextCharset : "detect"));
+        System.out.println("Shards: " + information.Shards + (information.RebuildShard >= 0 ?
+                ", rebuilding shard " + information.RebuildShard : ""));
+        System.out.println("Writer buffer: " + information.RamBufferMB + " MB, batches of "
+                + information.BatchDocs + " documents");
+        System.out.println("Change detection hash: " + information.Hash + (information.HashSampleBytes > 0 ?
+                ", sampled above " + (information.HashSampleBytes >> 20) + " MB" : ""));
+        System.out.println("Snippets: " + (information.SnippetPassages > 0 && information.SnippetChars > 0 ?
+                information.SnippetPassages + " passages from " + information.SnippetChars + " stored characters"
+                        + (information.SnippetCompression ? ", compressed" : "") : "none"));
+        System.out.println("Checked files stored in: " + (information.StateInIndex ? "index" : "own files"));
+        System.out.println("Metrics file: " + (information.MetricsFile != null ? information.MetricsFile : "none"));
+        System.out.println("Watching for changes: " + (information.Watch ? "yes" : "no") + "\n");
+
+        //Metrics of the whole run
+        if (information.MetricsJMX)
+            Metrics.RegisterJMX();
+        if (information.MetricsFile != null)
+            Metrics.StartFileExport(information.MetricsFile, information.MetricsIntervalMillis);
 
         //Load known Files
-        CheckedList checkedList = new CheckedList();
-        File checkedListFile = new File(information.IndexDirectory + "/checked.dat");
-        if (checkedListFile.exists() && checkedListFile.isFile() && checkedListFile.canRead()) {
-            try {
-                InputStream in = new FileInputStream(checkedListFile);
-                ObjectInputStream objIN = new ObjectInputStream(in);
-                checkedList = (CheckedList) objIN.readObject();
-                objIN.close();
-                in.close();
-
-            } catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
-            }
+        //Without them every file would be added again next to its old documents, so don't go on
+        CheckedList checkedList = null;
+        try {
+            if (information.StateInIndex)
+                checkedList = IndexCheckedList.Load(information.IndexDirectory, information.Shards);
+            else
+                checkedList = CheckedList.Load(information.IndexDirectory);
+        } catch (IOException e) {
+            System.out.println("Cannot read checked files of index " + information.IndexDirectory + " ... "
+                    + e.getMessage());
+            System.out.println("Delete the index directory to index everything again");
+            e.printStackTrace(System.out);
+            System.exit(-1);
         }
 
+        checkedList.SetAlgorithm(information.Hash);
+        checkedList.SetSampling(information.HashSampleBytes);
+
         //Index
+        Indexer indexer = null;
         try {
-            Indexer indexer = new Indexer(
+            PlainIndexer plain = new PlainIndexer(information.TextCharset, information.PassageBytes);
+            indexer = new Indexer();
+            indexer.SetShardCount(information.Shards);
+            indexer.SetStoredContent(information.SnippetChars, information.SnippetCompression);
+            indexer.SetUp(
                     information.IndexDirectory,
                     information.Ranking,
-                    new PlainIndexer(),
+                    plain,
                     checkedList
             );
 
@@ -63,25 +110,57 @@ public class Main {
             indexer.AddOnIndex(new IndexedFile());
             indexer.AddOnFinish(new FinishedIndexing());
 
-            IFileIndexer html = new HTMLIndexer();
-            indexer.AddFileIndexer(".htm", html);
-            indexer.AddFileIndexer(".html", html);
+            //Indexers of file types are found by FileIndexerRegistry
+            //text files with own settings
+            indexer.AddFileIndexer(".txt", plain);
+            indexer.SetThreadCount(information.IndexThreads);
+            indexer.SetCrawl(information.CrawlInclude, information.CrawlExclude,
+                    information.CrawlLinks, information.CrawlMaxDepth, information.CrawlThreads);
+            indexer.SetBatchSize(information.BatchDocs, information.BatchBytes);
+            indexer.SetWriterBuffer(information.RamBufferMB, information.MaxBufferedDocs);
+            indexer.SetMergePolicy(new TieredMergePolicy()
+                    .setSegmentsPerTier(information.SegmentsPerTier)
+                    .setMaxMergedSegmentMB(information.MaxSegmentMB), information.CompoundFile);
+
+            if (information.RebuildShard >= 0)
+                indexer.RebuildShard(information.RebuildShard, information.DocumentDirectory, information.FileTypes);
+            else
+                indexer.Index(information.DocumentDirectory, information.FileTypes);
+
+            //Watcher keeps using it
+            if (!information.Watch)
+                indexer.Close();
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Cannot index ... " + e.getMessage());
+            System.exit(-1);
+        }
 
-            indexer.Index(information.DocumentDirectory, information.FileTypes);
+        if (information.Watch) {
+            watch(information, indexer, checkedList);
+            return;
+        }
 
-            indexer.Close();
-        } catch (IOException e) {
-            System.out.println("Cannot index ...");
-            System.exit(-1);
+        if (information.Server) {
+            serve(information, checkedList);
+            return;
+        }
+
+        if (information.Batch) {
+            batch(information, checkedList);
+            return;
         }
 
         //Search
         Searcher searcher = new Searcher();
-        ScoreDoc[] result = new ScoreDoc[0];
+        SearchResult[] result = new SearchResult[0];
         try {
-            searcher = new Searcher(information.IndexDirectory, information.Ranking, "content", "title");
+            searcher.SetSearchThreads(information.SearchThreads);
+            searcher.SetTotalHitsThreshold(information.TotalHitsThreshold);
+            searcher.SetSnippets(information.SnippetPassages, information.SnippetChars);
+            searcher.SetUp(information.IndexDirectory, information.Ranking, "content", "title");
 
-            result = searcher.Search(information.Query, information.ResultCount);
+            //Path and title of all results loaded at once
+            result = searcher.SearchResults(information.Query, information.ResultCount);
 
         } catch (IOException e) {
             System.out.println("Cannot read some files ...");
@@ -98,18 +177,18 @@ public class Main {
             if (result.length == 0) {
                 System.out.println("No relevant found");
             } else {
-                for (int i = 1; i <= result.length; ++i) {
-                    ScoreDoc scDocument = result[i - 1];
-                    Document document = searcher.GetDoc(scDocument.doc);
-                    File file = new File(document.getField("path").stringValue());
+                for (SearchResult searchResult : result) {
+                    File file = new File(searchResult.Path);
 
 
-                    System.out.println("Rank " + i);
-                    System.out.println("Score: " + scDocument.score);
+                    System.out.println("Rank " + searchResult.Rank);
+                    System.out.println("Score: " + searchResult.Score);
                     System.out.println("File: " + file.getName());
                     if (file.getName().toLowerCase().endsWith(".html") ||
                             file.getName().toLowerCase().endsWith(".htm"))
-                        System.out.println("Title: " + document.getField("title").stringValue());
+                        System.out.println("Title: " + searchResult.Title);
+                    if (searchResult.Snippet != null)
+                        System.out.println("Snippet: " + searchResult.Snippet);
                     System.out.println("Path: " + file.getPath() + "\n");
                 }
             }
@@ -126,15 +205,236 @@ public class Main {
         //Write checked List
 
         try {
-            FileOutputStream out = new FileOutputStream(checkedListFile);
-            ObjectOutputStream objOUT = new ObjectOutputStream(out);
-            objOUT.writeObject(checkedList);
-            objOUT.close();
-            out.close();
+            checkedList.Save();
+            checkedList.Close();
         } catch (IOException ex) {
             ex.printStackTrace(System.out);
             System.exit(-1);
         }
+
+        TextAnalyzer.Close();
+    }
+
+    /**
+     * Keep answering queries over HTTP until the program gets stopped
+     *
+     * @param information Settings
+     * @param checkedList checked files, saved before serving
+     * @author Michael Mario Kubicki
+     */
+    private static void serve(Information information, CheckedList checkedList) {
+        try {
+            checkedList.Save();
+            checkedList.Close();
+        } catch (IOException ex) {
+            ex.printStackTrace(System.out);
+            System.exit(-1);
+        }
+
+        try {
+            Searcher searcher = new Searcher();
+            searcher.SetSearchThreads(information.SearchThreads);
+            searcher.SetTotalHitsThreshold(information.TotalHitsThreshold);
+            searcher.SetSnippets(information.SnippetPassages, information.SnippetChars);
+            searcher.SetUp(information.IndexDirectory, information.Ranking, "content", "title");
+            searcher.SetCache(newCache(information));
+            setUpSuggester(information, searcher);
+            SearchServer server = new SearchServer(searcher, information.ServerPort,
+                    information.ResultCount, information.ServerRefreshMillis);
+            server.Start();
+
+            //Release index when stopped
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.Stop();
+                try {
+                    searcher.Close();
+                } catch (IOException e) {
+                    e.printStackTrace(System.out);
+                }
+            }));
+
+            System.out.println("\n=== SERVING ON PORT " + information.ServerPort + " ===\n");
+        } catch (IOException e) {
+            System.out.println("Cannot start server ...");
+            e.printStackTrace(System.out);
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Search every query of the query file and print results in TREC run format
+     * "query_id Q0 path rank score model", one line per result
+     * Lines are "id&lt;TAB&gt;query" or just the query, then the line number is the id
+     *
+     * @param information Settings
+     * @param checkedList checked files, saved before searching
+     * @author Michael Mario Kubicki
+     */
+    private static void batch(Information information, CheckedList checkedList) {
+        try {
+            checkedList.Save();
+            checkedList.Close();
+        } catch (IOException ex) {
+            ex.printStackTrace(System.out);
+            System.exit(-1);
+        }
+
+        //Read queries
+        List<String> ids = new ArrayList<>();
+        List<String> queries = new ArrayList<>();
+        try {
+            int lineNumber = 0;
+            for (String line : Files.readAllLines(new File(information.Query).toPath(), StandardCharsets.UTF_8)) {
+                lineNumber++;
+                if (line.trim().isEmpty())
+                    continue;
+                int tab = line.indexOf('\t');
+                ids.add(tab > 0 ? line.substring(0, tab).trim() : String.valueOf(lineNumber));
+                queries.add(tab > 0 ? line.substring(tab + 1) : line);
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot read query file ...");
+            e.printStackTrace(System.out);
+            System.exit(-1);
+        }
+
+        Searcher searcher = new Searcher();
+        try {
+            searcher.SetSearchThreads(information.SearchThreads);
+            searcher.SetTotalHitsThreshold(information.TotalHitsThreshold);
+            searcher.SetUp(information.IndexDirectory, information.Ranking, "content", "title");
+            searcher.SetCache(newCache(information));
+
+            long start = System.nanoTime();
+            QueryResult[] results = searcher.SearchBatch(queries, information.ResultCount, information.BatchThreads);
+            long took = System.nanoTime() - start;
+
+            System.out.println("\n=== RESULTS ===\n");
+
+            String run = information.Ranking == RankingModel.Okapi ? "OK" : "VS";
+            PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)), false, "UTF-8");
+            int failed = 0;
+            for (int i = 0; i < results.length; ++i) {
+                if (results[i].Error != null) {
+                    failed++;
+                    System.err.println("Error while parsing query " + ids.get(i) + ": " + results[i].Error);
+                    continue;
+                }
+                for (SearchResult result : results[i].Results)
+                    out.println(ids.get(i) + " Q0 " + result.Path + " " + result.Rank + " " + result.Score + " " + run);
+            }
+            out.flush();
+
+            System.out.println("\nSearched " + results.length + " queries in " + took / 1_000_000 + " ms"
+                    + (failed > 0 ? ", " + failed + " could not be parsed" : ""));
+            ResultCache cache = searcher.GetCache();
+            if (cache != null)
+                System.out.printf("Cache: %.1f%% hits, %d entries, %d KB%n",
+                        cache.HitRate() * 100, cache.Count(), cache.SizeInBytes() >> 10);
+            searcher.Close();
+            TextAnalyzer.Close();
+        } catch (IOException e) {
+            System.out.println("Cannot read some files ...");
+            e.printStackTrace(System.out);
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Result cache as set in settings
+     *
+     * @param information Settings
+     * @return ResultCache or null if caching is off
+     * @author Michael Mario Kubicki
+     */
+    private static ResultCache newCache(Information information) {
+        if (information.CacheEntries <= 0)
+            return null;
+        return new ResultCache(information.CacheEntries, information.CacheBytes);
+    }
+
+    /**
+     * Suggester as set in settings, stored next to the index
+     * Built in the background, stored one is used until then
+     *
+     * @param information Settings
+     * @param searcher    Searcher which is set up
+     * @throws IOException Exception while opening stored suggester
+     * @author Michael Mario Kubicki
+     */
+    private static void setUpSuggester(Information information, Searcher searcher) throws IOException {
+        if (information.SuggestTerms < 0)
+            return;
+        searcher.SetSuggester(new File(information.IndexDirectory, Suggester.FILE_NAME),
+                information.SuggestTerms, information.SuggestRefreshMillis);
+    }
+
+    /**
+     * Keep indexing changes of document directory until the program gets stopped
+     * Also answers queries over HTTP if server is wanted, changes are searchable before commit
+     *
+     * @param information Settings
+     * @param indexer     Indexer which indexed the directory once, stays open
+     * @param checkedList checked files used by indexer
+     * @author Michael Mario Kubicki
+     */
+    private static void watch(Information information, Indexer indexer, CheckedList checkedList) {
+        AtomicBoolean stopping = new AtomicBoolean();
+        try {
+            indexer.Commit();
+            checkedList.Save();
+
+            Searcher searcher = null;
+            SearchServer server = null;
+            if (information.Server) {
+                searcher = new Searcher();
+                searcher.SetSearchThreads(information.SearchThreads);
+                searcher.SetTotalHitsThreshold(information.TotalHitsThreshold);
+                searcher.SetSnippets(information.SnippetPassages, information.SnippetChars);
+                searcher.SetUp(indexer.GetWriters(), information.Ranking, "content", "title");
+                searcher.SetCache(newCache(information));
+                setUpSuggester(information, searcher);
+                server = new SearchServer(searcher, information.ServerPort,
+                        information.ResultCount, information.ServerRefreshMillis);
+                server.Start();
+                System.out.println("\n=== SERVING ON PORT " + information.ServerPort + " ===\n");
+            }
+
+            DirectoryWatcher watcher = new DirectoryWatcher(indexer, checkedList,
+                    information.DocumentDirectory, information.FileTypes,
+                    information.WatchDebounceMillis, information.WatchCommitMillis, information.WatchCommitCount);
+
+            //Hook only stops the watcher, this thread commits and releases the index once Run() returned
+            Thread watching = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                stopping.set(true);
+                watcher.Stop();
+                try {
+                    watching.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+
+            System.out.println("\n=== WATCHING " + information.DocumentDirectory + " ===\n");
+            try {
+                watcher.Run();
+            } finally {
+                if (server != null) {
+                    server.Stop();
+                    searcher.Close();
+                }
+                indexer.Close();
+                checkedList.Save();
+                checkedList.Close();
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot watch for changes ...");
+            e.printStackTrace(System.out);
+            //Exiting while shutting down would wait for the hook, which waits for this thread
+            if (!stopping.get())
+                System.exit(-1);
+        }
     }
 }
 
@@ -161,34 +461,3 @@ class FinishedIndexing implements IStringListener {
         System.out.println("Indexed " + input + " files");
     }
 }
-
-class HTMLIndexer implements IFileIndexer {
-
-    @Override
-    public Document index(File file) throws IOException {
-        Document doc = new Document();
-
-        InputStream is = new FileInputStream(file);
-        org.jsoup.nodes.Document website = Jsoup.parse(is, null, file.getParent());
-        doc.add(new TextField("content", website.body().text(), Field.Store.NO));
-        doc.add(new TextField("title", website.title(), Field.Store.YES));
-        doc.add(new StringField("path", file.getPath(), Field.Store.YES));
-
-        return doc;
-    }
-}
-
-class PlainIndexer implements IFileIndexer {
-
-    @Override
-    public Document index(File file) throws IOException {
-        Document doc = new Document();
-
-        FileReader reader = new FileReader(file);
-        doc.add(new TextField("content", reader));
-        doc.add(new TextField("title", file.getName(), Field.Store.YES));
-        doc.add(new StringField("path", file.getPath(), Field.Store.YES));
-
-        return doc;
-    }
-}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package Searching;
+
+import org.apache.lucene.search.ScoreDoc;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Where a page of results ended, as opaque token for the next page
+ * Token holds last hit (score and docID), its rank, the query and the version of the index.
+ * Searching after a hit only needs the hit, so every page costs the same as the first
+ * <p>
+ * DocIDs change with merges and deletes, a cursor of another version of the index
+ * still continues after the score of its last hit, but hits of equal score may be repeated or missed
+ *
+ * @author Michael Mario Kubicki
+ * @see Searcher#SearchPage(String, int, String)
+ */
+final class PageCursor {
+
+    private static final byte FORMAT = 1;
+    private static final int BYTES = 1 + 8 + 4 + 4 + 4 + 4;
+
+    final ScoreDoc After;
+    //Rank of last hit, next page starts one after it
+    final int Rank;
+    //Hash of parsed query, a cursor only belongs to one query
+    final int Query;
+    final long Version;
+
+    PageCursor(ScoreDoc after, int rank, int query, long version) {
+        this.After = after;
+        this.Rank = rank;
+        this.Query = query;
+        this.Version = version;
+    }
+
+    /**
+     * Token of cursor, safe in URLs
+     *
+     * @return token
+     * @author Michael Mario Kubicki
+     */
+    String Encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(BYTES);
+        buffer.put(FORMAT)
+                .putLong(Version)
+                .putInt(After.doc)
+                .putFloat(After.score)
+                .putInt(Rank)
+                .putInt(Query);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * Cursor of token
+     *
+     * @param token token made by Encode()
+     * @return cursor
+     * @throws IllegalArgumentException token isn't a cursor
+     * @author Michael Mario Kubicki
+     */
+    static PageCursor Decode(String token) throws IllegalArgumentException {
+        byte[] bytes = Base64.getUrlDecoder().decode(token);
+        if (bytes.length != BYTES || bytes[0] != FORMAT)
+            throw new IllegalArgumentException("Not a cursor: " + token);
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, BYTES - 1);
+            long version = buffer.getLong();
+            int doc = buffer.getInt();
+            float score = buffer.getFloat();
+            int rank = buffer.getInt();
+            int query = buffer.getInt();
+            if (doc < 0 || rank < 0)
+                throw new IllegalArgumentException("Not a cursor: " + token);
+            return new PageCursor(new ScoreDoc(doc, score), rank, query, version);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Not a cursor: " + token);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package Searching;
+
+/**
+ * Outcome of one query of a batch
+ * either Results or Error is set
+ *
+ * @author Michael Mario Kubicki
+ * @see Searcher#SearchBatch(java.util.List, int, int)
+ */
+public class QueryResult {
+    public final String Query;
+    public final SearchResult[] Results;
+    //Message why query could not be searched, null if it worked
+    public final String Error;
+    public final long TookNanos;
+
+    public QueryResult(String query, SearchResult[] results, String error, long tookNanos) {
+        this.Query = query;
+        this.Results = results;
+        this.Error = error;
+        this.TookNanos = tookNanos;
+    }
+}
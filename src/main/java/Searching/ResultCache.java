@@ -0,0 +1,196 @@
+package Searching;
+
+import org.apache.lucene.search.ScoreDoc;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of search results
+ * Bounded by number of entries and estimated memory
+ * <p>
+ * Entries belong to one version of the index,
+ * the first access with a newer version clears the cache
+ * Requests still searching an older version neither get nor change entries
+ *
+ * @author Michael Mario Kubicki
+ * @see Searcher#SetCache(ResultCache)
+ */
+public class ResultCache {
+
+    //Rough per object overheads used for estimating memory
+    private static final long ENTRY_OVERHEAD = 96;
+    private static final long RESULT_OVERHEAD = 64;
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    //Access ordered, eldest = least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    //Index version entries belong to
+    private long version = -1;
+    private long bytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Construct empty cache
+     *
+     * @param maxEntries maximum number of cached queries
+     * @param maxBytes   maximum estimated memory of cached results
+     * @author Michael Mario Kubicki
+     */
+    public ResultCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get cached results
+     * An older version of the index than the cached one is always a miss
+     *
+     * @param key     normalized query, model and number of results
+     * @param version version of the index searched
+     * @return Entry or null if not cached
+     * @author Michael Mario Kubicki
+     */
+    synchronized Entry Get(String key, long version) {
+        if (version < this.version) {
+            misses++;
+            return null;
+        }
+        invalidate(version);
+
+        Entry entry = entries.get(key);
+        if (entry == null)
+            misses++;
+        else
+            hits++;
+        return entry;
+    }
+
+    /**
+     * Cache results, evicts least recently used entries if full
+     * Results of an older version of the index are dropped
+     *
+     * @param key     normalized query, model and number of results
+     * @param version version of the index searched
+     * @param entry   results
+     * @author Michael Mario Kubicki
+     */
+    synchronized void Put(String key, long version, Entry entry) {
+        if (version < this.version)
+            return;
+        invalidate(version);
+
+        //Too big for the whole cache
+        if (entry.bytes > maxBytes)
+            return;
+
+        Entry old = entries.put(key, entry);
+        if (old != null)
+            bytes -= old.bytes;
+        bytes += entry.bytes;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Remove everything
+     *
+     * @author Michael Mario Kubicki
+     */
+    public synchronized void Clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Part of lookups answered from the cache
+     *
+     * @return hits / (hits + misses), 0 if nothing was looked up
+     * @author Michael Mario Kubicki
+     */
+    public synchronized double HitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public synchronized long Hits() {
+        return hits;
+    }
+
+    public synchronized long Misses() {
+        return misses;
+    }
+
+    public synchronized long Evictions() {
+        return evictions;
+    }
+
+    //Number of times the cache was cleared because the index changed
+    public synchronized long Invalidations() {
+        return invalidations;
+    }
+
+    public synchronized int Count() {
+        return entries.size();
+    }
+
+    //Estimated memory of cached keys and results
+    public synchronized long SizeInBytes() {
+        return bytes;
+    }
+
+    /**
+     * Clear if entries belong to an older version of the index
+     * Callers make sure version isn't older than the cached one
+     *
+     * @param version current version of the index
+     * @author Michael Mario Kubicki
+     */
+    private void invalidate(long version) {
+        if (version == this.version)
+            return;
+        if (!entries.isEmpty())
+            invalidations++;
+        Clear();
+        this.version = version;
+    }
+
+    /**
+     * Cached results of one query
+     * ScoreDocs are only valid for the version of the index they were found in
+     */
+    static class Entry {
+        final ScoreDoc[] ScoreDocs;
+        final SearchResult[] Results;
+        final long bytes;
+
+        Entry(String key, ScoreDoc[] scoreDocs, SearchResult[] results) {
+            this.ScoreDocs = scoreDocs;
+            this.Results = results;
+
+            long size = ENTRY_OVERHEAD + 2L * key.length();
+            for (SearchResult result : results) {
+                size += RESULT_OVERHEAD;
+                if (result.Path != null)
+                    size += 2L * result.Path.length();
+                if (result.Title != null)
+                    size += 2L * result.Title.length();
+                if (result.Snippet != null)
+                    size += 2L * result.Snippet.length();
+            }
+            this.bytes = size;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package Searching;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads path and title of hits without loading whole stored documents
+ * Hits are visited in order of docID, so every segment is read front to back once
+ * Values come from SortedDocValues, documents indexed without them
+ * fall back to reading just these stored fields
+ *
+ * @author Michael Mario Kubicki
+ * @see Searcher#Hydrate(ScoreDoc[])
+ */
+final class ResultHydrator {
+
+    private static final String PATH = "path";
+    private static final String TITLE = "title";
+    private static final Set<String> FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(PATH, TITLE)));
+
+    private ResultHydrator() {
+    }
+
+    /**
+     * Results of hits, in order of hits
+     *
+     * @param reader reader the hits were found in
+     * @param hits   hits ordered by rank
+     * @return results ordered by rank
+     * @throws IOException Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    static SearchResult[] Hydrate(IndexReader reader, ScoreDoc[] hits) throws IOException {
+        //docID in high bits, position of hit in low bits -> sorting gives docID order
+        long[] order = new long[hits.length];
+        for (int i = 0; i < hits.length; ++i)
+            order[i] = ((long) hits[i].doc << 32) | i;
+        Arrays.sort(order);
+
+        String[] paths = new String[hits.length];
+        String[] titles = new String[hits.length];
+
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = null;
+        SortedDocValues pathValues = null;
+        SortedDocValues titleValues = null;
+        for (long packed : order) {
+            int doc = (int) (packed >>> 32);
+            int i = (int) packed;
+
+            if (leaf == null || doc >= leaf.docBase + leaf.reader().maxDoc()) {
+                leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+                pathValues = sorted(leaf.reader(), PATH);
+                titleValues = sorted(leaf.reader(), TITLE);
+            }
+
+            int local = doc - leaf.docBase;
+            paths[i] = value(pathValues, local);
+            titles[i] = value(titleValues, local);
+
+            //Indexed before doc values or without them
+            if (paths[i] == null || titles[i] == null) {
+                Document stored = leaf.reader().document(local, FIELDS);
+                paths[i] = stored.get(PATH);
+                titles[i] = stored.get(TITLE);
+            }
+        }
+
+        SearchResult[] results = new SearchResult[hits.length];
+        for (int i = 0; i < hits.length; ++i)
+            results[i] = new SearchResult(i + 1, hits[i].score, paths[i], titles[i]);
+        return results;
+    }
+
+    /**
+     * Doc values of field in segment
+     *
+     * @param leafReader segment
+     * @param field      name of field
+     * @return SortedDocValues or null if field has none in segment
+     * @throws IOException Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    private static SortedDocValues sorted(LeafReader leafReader, String field) throws IOException {
+        FieldInfo info = leafReader.getFieldInfos().fieldInfo(field);
+        if (info == null || info.getDocValuesType() != DocValuesType.SORTED)
+            return null;
+        return leafReader.getSortedDocValues(field);
+    }
+
+    /**
+     * Value of document, documents have to be asked for in increasing order
+     *
+     * @param values doc values of segment, may be null
+     * @param doc    docID in segment
+     * @return value or null if document has none
+     * @throws IOException Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    private static String value(SortedDocValues values, int doc) throws IOException {
+        if (values == null || !values.advanceExact(doc))
+            return null;
+        return values.binaryValue().utf8ToString();
+    }
+}
@@ -0,0 +1,24 @@
+package Searching;
+
+/**
+ * One page of results of a query
+ * Next page is asked for with Cursor, which is null after the last page
+ *
+ * @author Michael Mario Kubicki
+ * @see Searcher#SearchPage(String, int, String)
+ */
+public class SearchPage {
+    public final SearchResult[] Results;
+    //Token of next page, null if there is none
+    public final String Cursor;
+    //Number of hits, only a lower bound if not TotalHitsExact
+    public final long TotalHits;
+    public final boolean TotalHitsExact;
+
+    public SearchPage(SearchResult[] results, String cursor, long totalHits, boolean totalHitsExact) {
+        this.Results = results;
+        this.Cursor = cursor;
+        this.TotalHits = totalHits;
+        this.TotalHitsExact = totalHitsExact;
+    }
+}
@@ -0,0 +1,28 @@
+package Searching;
+
+/**
+ * One result of a search
+ *
+ * @author Michael Mario Kubicki
+ * @see Searcher#SearchResults(String, int)
+ */
+public class SearchResult {
+    public final int Rank;
+    public final float Score;
+    public final String Path;
+    public final String Title;
+    //Passages matching the query, null if there are none
+    public final String Snippet;
+
+    public SearchResult(int rank, float score, String path, String title) {
+        this(rank, score, path, title, null);
+    }
+
+    public SearchResult(int rank, float score, String path, String title, String snippet) {
+        this.Rank = rank;
+        this.Score = score;
+        this.Path = path;
+        this.Title = title;
+        this.Snippet = snippet;
+    }
+}
@@ -0,0 +1,404 @@
+package Searching;
+
+import Util.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.BooleanQuery;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long running HTTP endpoint answering queries with one warm Searcher
+ * Index is checked for new commits in a fixed interval
+ * <p>
+ * GET /search?q=query[&amp;n=number_of_results]
+ * answers with JSON: {"query": ..., "took_ms": ..., "results": [{"rank", "score", "path", "title", "snippet"}, ...]}
+ * with &amp;cursor=[next_cursor of previous page, empty for first page] results come in pages,
+ * answer then also has "total_hits", "total_hits_exact" and "next_cursor" (null after last page)
+ * <p>
+ * GET /suggest?q=prefix[&amp;n=number_of_suggestions]
+ * answers with JSON: {"prefix": ..., "took_ms": ..., "suggestions": [{"text", "weight"}, ...]}
+ * no suggestions until the suggester is built, see Searcher#SetSuggester(...)
+ * <p>
+ * GET /stats
+ * answers with JSON of the result cache: {"cache": {"entries", "bytes", "hits", "misses", "hit_rate", ...}}
+ * <p>
+ * GET /metrics
+ * answers with all Metrics in Prometheus text format
+ *
+ * @author Michael Mario Kubicki
+ * @see SearchServer#Start()
+ * @see SearchServer#Stop()
+ */
+public class SearchServer {
+
+    private final Searcher searcher;
+    private final int port;
+    private final int resultCount;
+    private final long refreshMillis;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private ScheduledExecutorService refresher;
+
+    /**
+     * Construct server, nothing is started yet
+     *
+     * @param searcher      Searcher which is set up
+     * @param port          Port to listen on (localhost only)
+     * @param result_count  Number of results if request doesn't say
+     * @param refreshMillis Interval to check for new commits
+     * @author Michael Mario Kubicki
+     */
+    public SearchServer(Searcher searcher, int port, int result_count, long refreshMillis) {
+        this.searcher = searcher;
+        this.port = port;
+        this.resultCount = result_count;
+        this.refreshMillis = refreshMillis;
+    }
+
+    /**
+     * Start listening and refreshing
+     *
+     * @throws IOException Exception while opening port
+     * @author Michael Mario Kubicki
+     * @see SearchServer#Stop()
+     */
+    public void Start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/search", this::handleSearch);
+        server.createContext("/suggest", this::handleSuggest);
+        server.createContext("/stats", this::handleStats);
+        server.createContext("/metrics", this::handleMetrics);
+
+        handlers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server.setExecutor(handlers);
+
+        //Pick up commits of indexer, suggester follows in the background
+        refresher = Executors.newSingleThreadScheduledExecutor();
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                searcher.Refresh();
+                searcher.RefreshSuggester();
+            } catch (IOException e) {
+                e.printStackTrace(System.out);
+            }
+        }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+
+        server.start();
+    }
+
+    /**
+     * Stop listening, searcher is left open
+     *
+     * @author Michael Mario Kubicki
+     * @see SearchServer#Start()
+     */
+    public void Stop() {
+        server.stop(0);
+        handlers.shutdown();
+        refresher.shutdown();
+    }
+
+    /**
+     * Answer one search request
+     *
+     * @param exchange HTTP request and response
+     * @throws IOException Exception while answering
+     * @author Michael Mario Kubicki
+     */
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, error("Only GET is supported"));
+                return;
+            }
+
+            Map<String, String> parameters = parameters(exchange);
+            if (parameters == null)
+                return;
+            String query = parameters.get("q");
+            if (query == null || query.trim().isEmpty()) {
+                respond(exchange, 400, error("Missing parameter q"));
+                return;
+            }
+
+            int count = resultCount;
+            try {
+                if (parameters.containsKey("n"))
+                    count = Integer.parseInt(parameters.get("n"));
+            } catch (NumberFormatException e) {
+                respond(exchange, 400, error("Parameter n is no number"));
+                return;
+            }
+            if (count <= 0) {
+                respond(exchange, 400, error("Parameter n has to be positive"));
+                return;
+            }
+
+            //Paging only if asked for, plain search can be answered from cache
+            String cursor = parameters.get("cursor");
+            PageCursor after = null;
+            if (cursor != null && !cursor.isEmpty()) {
+                try {
+                    after = searcher.Cursor(query, cursor);
+                } catch (IllegalArgumentException e) {
+                    respond(exchange, 400, error("Bad cursor: " + e.getMessage()));
+                    return;
+                }
+            }
+
+            long start = System.nanoTime();
+            SearchPage page = cursor != null ? searcher.SearchAfter(query, count, after) : null;
+            SearchResult[] results = page != null ? page.Results : searcher.SearchResults(query, count);
+            long took = System.nanoTime() - start;
+
+            StringBuilder json = new StringBuilder();
+            json.append("{\"query\":").append(quote(query))
+                    .append(",\"took_ms\":").append(took / 1_000_000.0);
+            if (page != null)
+                json.append(",\"total_hits\":").append(page.TotalHits)
+                        .append(",\"total_hits_exact\":").append(page.TotalHitsExact)
+                        .append(",\"next_cursor\":").append(quote(page.Cursor));
+            json.append(",\"results\":[");
+            for (int i = 0; i < results.length; ++i) {
+                if (i > 0)
+                    json.append(',');
+                json.append("{\"rank\":").append(results[i].Rank)
+                        .append(",\"score\":").append(results[i].Score)
+                        .append(",\"path\":").append(quote(results[i].Path))
+                        .append(",\"title\":").append(quote(results[i].Title))
+                        .append(",\"snippet\":").append(quote(results[i].Snippet))
+                        .append('}');
+            }
+            json.append("]}");
+
+            respond(exchange, 200, json.toString());
+        } catch (ParseException e) {
+            respond(exchange, 400, error("Cannot parse query: " + e.getMessage()));
+        } catch (BooleanQuery.TooManyClauses e) {
+            respond(exchange, 400, error("Query has too many clauses: " + e.getMessage()));
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace(System.out);
+            respond(exchange, 500, error("Cannot search index"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answer one prefix with suggestions
+     *
+     * @param exchange HTTP request and response
+     * @throws IOException Exception while answering
+     * @author Michael Mario Kubicki
+     */
+    private void handleSuggest(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, error("Only GET is supported"));
+                return;
+            }
+
+            Map<String, String> parameters = parameters(exchange);
+            if (parameters == null)
+                return;
+            String prefix = parameters.get("q");
+            if (prefix == null) {
+                respond(exchange, 400, error("Missing parameter q"));
+                return;
+            }
+
+            int count = resultCount;
+            try {
+                if (parameters.containsKey("n"))
+                    count = Integer.parseInt(parameters.get("n"));
+            } catch (NumberFormatException e) {
+                respond(exchange, 400, error("Parameter n is no number"));
+                return;
+            }
+            if (count <= 0) {
+                respond(exchange, 400, error("Parameter n has to be positive"));
+                return;
+            }
+
+            long start = System.nanoTime();
+            Suggester.Suggestion[] suggestions = searcher.Suggest(prefix, count);
+            long took = System.nanoTime() - start;
+
+            StringBuilder json = new StringBuilder();
+            json.append("{\"prefix\":").append(quote(prefix))
+                    .append(",\"took_ms\":").append(took / 1_000_000.0)
+                    .append(",\"suggestions\":[");
+            for (int i = 0; i < suggestions.length; ++i) {
+                if (i > 0)
+                    json.append(',');
+                json.append("{\"text\":").append(quote(suggestions[i].Text))
+                        .append(",\"weight\":").append(suggestions[i].Weight)
+                        .append('}');
+            }
+            json.append("]}");
+
+            respond(exchange, 200, json.toString());
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace(System.out);
+            respond(exchange, 500, error("Cannot read suggester"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answer with statistics of the result cache
+     *
+     * @param exchange HTTP request and response
+     * @throws IOException Exception while answering
+     * @author Michael Mario Kubicki
+     */
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            ResultCache cache = searcher.GetCache();
+            if (cache == null) {
+                respond(exchange, 200, "{\"cache\":null}");
+                return;
+            }
+            respond(exchange, 200, "{\"cache\":{"
+                    + "\"entries\":" + cache.Count()
+                    + ",\"bytes\":" + cache.SizeInBytes()
+                    + ",\"hits\":" + cache.Hits()
+                    + ",\"misses\":" + cache.Misses()
+                    + ",\"hit_rate\":" + cache.HitRate()
+                    + ",\"evictions\":" + cache.Evictions()
+                    + ",\"invalidations\":" + cache.Invalidations()
+                    + "}}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answer with metrics, for Prometheus to scrape
+     *
+     * @param exchange HTTP request and response
+     * @throws IOException Exception while answering
+     * @author Michael Mario Kubicki
+     * @see Metrics#Prometheus()
+     */
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            respond(exchange, 200, Metrics.Prometheus(), "text/plain; version=0.0.4; charset=utf-8");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        respond(exchange, status, json, "application/json; charset=utf-8");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text, String contentType) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    /**
+     * Decoded parameters of request, answers 400 if they can't be decoded
+     *
+     * @param exchange HTTP request and response
+     * @return parameter -> value, null if already answered
+     * @throws IOException Exception while answering
+     * @author Michael Mario Kubicki
+     */
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        try {
+            return parseQuery(exchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, error("Malformed parameters: " + e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Split query part of URL into decoded parameters
+     *
+     * @param rawQuery query part, may be null
+     * @return parameter -> value
+     * @throws UnsupportedEncodingException never, UTF-8 always exists
+     * @throws IllegalArgumentException     malformed %-encoding
+     * @author Michael Mario Kubicki
+     */
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null)
+            return parameters;
+
+        for (String pair : rawQuery.split("&")) {
+            int split = pair.indexOf('=');
+            if (split <= 0)
+                continue;
+            parameters.put(URLDecoder.decode(pair.substring(0, split), "UTF-8"),
+                    URLDecoder.decode(pair.substring(split + 1), "UTF-8"));
+        }
+        return parameters;
+    }
+
+    /**
+     * String as JSON string literal
+     *
+     * @param value String, may be null
+     * @return quoted and escaped value or null
+     * @author Michael Mario Kubicki
+     */
+    static String quote(String value) {
+        if (value == null)
+            return "null";
+
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    else
+                        quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -1,28 +1,67 @@
 package Searching;
 
+import Util.IndexShards;
+import Util.Metrics;
 import Util.RankingModel;
 import Util.TextAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class for querying constructed index
  * Setup everything by using the constructor with arguments or calling setup
  * use Search(...) to index a directory
  * after calling close needs to be setup again
+ * <p>
+ * Searches are done on a shared IndexSearcher which can be used by multiple threads,
+ * call Refresh() to see commits done after setup
+ * <p>
+ * Many queries at once: SearchBatch(...) runs them on a pool of workers,
+ * SetSearchThreads(...) additionally searches the segments of one query in parallel
+ * <p>
+ * With SetCache(...) repeated queries are answered from a ResultCache
+ * <p>
+ * A sharded index is searched as one, every shard is one slice of SetSearchThreads(...)
+ * <p>
+ * With SetSuggester(...) prefixes are completed by Suggest(...),
+ * the suggester is built again in the background once the index changed
+ * <p>
+ * With SetSnippets(...) results get passages matching the query,
+ * made from offsets and stored content of the index, see Indexer#SetStoredContent(int, boolean)
+ * <p>
+ * SearchPage(...) pages through results with cursors, each page costs about as much as the first.
+ * Hits are only counted exactly up to SetTotalHitsThreshold(...)
  *
  * @author Michael Mario Kubicki
  * @see Searcher#SetUp(File, RankingModel, String, String...)
@@ -31,11 +70,53 @@ import java.io.IOException;
  */
 public class Searcher {
 
-    private IndexReader indexReader;
-    private IndexSearcher indexSearcher;
-    private MultiFieldQueryParser queryParser;
+    //One per shard
+    private Directory[] index;
+    private ReferenceManager<IndexSearcher> searcherManager;
+    //Parser isn't thread safe, one per searching thread
+    private ThreadLocal<MultiFieldQueryParser> queryParsers;
     private boolean setup = false;
 
+    //Threads searching slices of segments of one query
+    //1 == search on calling thread
+    private int searchThreads = 1;
+    private ExecutorService sliceExecutor;
+
+    //Model of searchers, part of cache key
+    private RankingModel model;
+    //null == no caching
+    private ResultCache cache;
+
+    //Latency of queries by model, includes parsing and loading results
+    private Metrics.Timer queryTimer;
+    private static final Metrics.Counter PARSE_ERRORS = Metrics.Counter("ir_query_parse_errors_total", "Queries which couldn't be parsed");
+
+    //Prefix suggestions, null == none (yet)
+    private volatile Suggester suggester;
+    private File suggestFile;
+    private int suggestTerms;
+    private long suggestMillis;
+    //One build at a time, in background
+    private ExecutorService suggestBuilder;
+    private final AtomicBoolean building = new AtomicBoolean(false);
+    private volatile long lastSuggestBuild;
+    private static final Metrics.Timer SUGGEST = Metrics.Timer("ir_suggest_seconds", "Time to complete a prefix");
+    private static final Metrics.Timer SUGGEST_BUILD = Metrics.Timer("ir_suggest_build_seconds", "Time to build the suggester");
+
+    //Passages per result (0 = no snippets) and characters of stored content looked at
+    private int snippetPassages = 0;
+    private int snippetChars = 10000;
+    private Analyzer analyzer;
+    //Hits are counted exactly up to this many, more may be skipped without being counted
+    private int totalHitsThreshold = 1000;
+    //Order of hits of TopScoreDocCollector
+    private static final Comparator<ScoreDoc> BY_SCORE_THEN_DOC = (a, b) -> {
+        int byScore = Float.compare(b.score, a.score);
+        return byScore != 0 ? byScore : Integer.compare(a.doc, b.doc);
+    };
+
+    private static final Metrics.Timer SNIPPETS = Metrics.Timer("ir_snippet_seconds", "Time to make snippets of one page of results");
+
 
     /**
      * Empty constructor
@@ -63,6 +144,21 @@ public class Searcher {
         this.SetUp(index_dir, model, field, other_fields);
     }
 
+    /**
+     * Construct and setup on a writer, see changes before they are committed
+     *
+     * @param writer       Writer of index
+     * @param model        Ranking Model
+     * @param field        Field to search/compare
+     * @param other_fields Additional fields
+     * @throws IOException Exception concerning accessing index files
+     * @author Michael Mario Kubicki
+     */
+    public Searcher(IndexWriter writer, RankingModel model, String field, String... other_fields) throws IOException {
+        this();
+        this.SetUp(writer, model, field, other_fields);
+    }
+
     /**
      * Setup searcher to search query
      *
@@ -76,21 +172,88 @@ public class Searcher {
      */
     public void SetUp(File index_dir, RankingModel model, String field, String... other_fields) throws IOException {
 
-        //Open index in reader
-        Directory index = FSDirectory.open(index_dir.toPath());
-        indexReader = DirectoryReader.open(index);
+        //Open index, all shards if sharded
+        File[] dirs = IndexShards.Dirs(index_dir, IndexShards.Count(index_dir));
+        index = new Directory[dirs.length];
+        for (int i = 0; i < dirs.length; ++i)
+            index[i] = IndexShards.Open(dirs[i]);
+        this.model = model;
+        queryTimer = queryTimer(model);
 
-        //Create searcher
-        indexSearcher = new IndexSearcher(indexReader);
+        //Create searchers using the ranking model
+        SearcherFactory factory = getFactory(model, startSliceExecutor());
+        if (index.length == 1)
+            searcherManager = new SearcherManager(index[0], factory);
+        else
+            searcherManager = ShardSearcherManager.Open(index, factory);
 
-        switch (model) {
-            case VectorSpace:
-                indexSearcher.setSimilarity(new ClassicSimilarity());
-                break;
-            case Okapi:
-                indexSearcher.setSimilarity(new BM25Similarity());
-                break;
-        }
+        setUpParser(field, other_fields);
+    }
+
+    /**
+     * Setup searcher on a writer
+     * Refresh() then also sees changes which aren't committed yet (near-real-time)
+     * writer stays open on Close()
+     *
+     * @param writer       Writer of index
+     * @param model        Ranking Model
+     * @param field        Field to search/compare
+     * @param other_fields Additional fields
+     * @throws IOException Exception concerning accessing index files
+     * @author Michael Mario Kubicki
+     * @see Searcher#Close()
+     */
+    public void SetUp(IndexWriter writer, RankingModel model, String field, String... other_fields) throws IOException {
+        SetUp(new IndexWriter[]{writer}, model, field, other_fields);
+    }
+
+    /**
+     * Setup searcher on the writers of all shards
+     * Refresh() then also sees changes which aren't committed yet (near-real-time)
+     * writers stay open on Close()
+     *
+     * @param writers      Writer of every shard of index
+     * @param model        Ranking Model
+     * @param field        Field to search/compare
+     * @param other_fields Additional fields
+     * @throws IOException Exception concerning accessing index files
+     * @author Michael Mario Kubicki
+     * @see Searcher#Close()
+     */
+    public void SetUp(IndexWriter[] writers, RankingModel model, String field, String... other_fields) throws IOException {
+
+        index = null;
+        this.model = model;
+        queryTimer = queryTimer(model);
+        SearcherFactory factory = getFactory(model, startSliceExecutor());
+        if (writers.length == 1)
+            searcherManager = new SearcherManager(writers[0], factory);
+        else
+            searcherManager = ShardSearcherManager.Open(writers, factory);
+
+        setUpParser(field, other_fields);
+    }
+
+    /**
+     * Timer of queries with model
+     *
+     * @param model Ranking Model
+     * @return Timer
+     * @author Michael Mario Kubicki
+     */
+    private static Metrics.Timer queryTimer(RankingModel model) {
+        return Metrics.Timer("ir_query_seconds", "Time to answer a query by ranking model", "model", model.name());
+    }
+
+    /**
+     * Construct query parser for fields
+     *
+     * @param field        Field to search/compare
+     * @param other_fields Additional fields
+     * @throws IOException Exception while building analyzer
+     * @author Michael Mario Kubicki
+     */
+    private void setUpParser(String field, String... other_fields) throws IOException {
 
         //Construct Query parser
         //Using Multiple fields
@@ -99,10 +262,9 @@ public class Searcher {
         for (int i = 1; i < fieldsConcat.length; ++i)
             fieldsConcat[i] = other_fields[i - 1];
 
-        queryParser = new MultiFieldQueryParser(
-                fieldsConcat,
-                TextAnalyzer.GetAnalyzer()
-        );
+        //Shared analyzer, parsers are cheap to create once per thread
+        analyzer = TextAnalyzer.GetAnalyzer();
+        queryParsers = ThreadLocal.withInitial(() -> new MultiFieldQueryParser(fieldsConcat, analyzer));
 
         setup = true;
     }
@@ -115,7 +277,239 @@ public class Searcher {
      * @see Searcher#SetUp(File, RankingModel, String, String...)
      */
     public void Close() throws IOException {
-        indexReader.close();
+        if (suggestBuilder != null)
+            suggestBuilder.shutdownNow();
+        suggestBuilder = null;
+        if (suggester != null)
+            suggester.Close();
+        suggester = null;
+        searcherManager.close();
+        if (index != null)
+            for (Directory directory : index)
+                directory.close();
+        if (sliceExecutor != null)
+            sliceExecutor.shutdown();
+        sliceExecutor = null;
+        setup = false;
+    }
+
+    /**
+     * Set number of threads searching the segments of one query
+     * only used by searchers created afterwards, so call before SetUp(...)
+     * 1 searches everything on the calling thread
+     * 0 or less uses one thread per available processor
+     *
+     * @param threads number of threads per query
+     * @author Michael Mario Kubicki
+     * @see Searcher#SetUp(File, RankingModel, String, String...)
+     */
+    public void SetSearchThreads(int threads) {
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        this.searchThreads = threads;
+    }
+
+    /**
+     * Answer repeated queries from cache
+     * Cache is cleared by itself once a new version of the index is searched
+     *
+     * @param cache ResultCache, null turns caching off
+     * @author Michael Mario Kubicki
+     */
+    public void SetCache(ResultCache cache) {
+        this.cache = cache;
+        if (cache == null)
+            return;
+
+        //Replaces gauges of a cache set before
+        Metrics.Gauge("ir_cache_hits", "Queries answered from cache", cache::Hits);
+        Metrics.Gauge("ir_cache_misses", "Queries not found in cache", cache::Misses);
+        Metrics.Gauge("ir_cache_hit_ratio", "Hits of all lookups in cache", cache::HitRate);
+        Metrics.Gauge("ir_cache_entries", "Results in cache", cache::Count);
+        Metrics.Gauge("ir_cache_bytes", "Guessed memory used by cache", cache::SizeInBytes);
+    }
+
+    /**
+     * Cache used by this searcher
+     *
+     * @return ResultCache or null if caching is off
+     * @author Michael Mario Kubicki
+     */
+    public ResultCache GetCache() {
+        return cache;
+    }
+
+    /**
+     * Add snippets to results of SearchResults(...) and SearchBatch(...)
+     * Passages are found in the stored beginning of the content, through offsets in the index
+     * if it was indexed with them, by analyzing it again otherwise.
+     * Documents without stored content have no snippet
+     *
+     * @param passages passages per result, 0 or less turns snippets off
+     * @param maxChars characters of stored content looked at per result, bounds work per result
+     * @author Michael Mario Kubicki
+     */
+    public void SetSnippets(int passages, int maxChars) {
+        this.snippetPassages = Math.max(0, passages);
+        this.snippetChars = Math.max(1, maxChars);
+    }
+
+    /**
+     * Set how many hits are counted exactly
+     * Above it hits which can't make it into the results are skipped, total is then only a lower bound
+     *
+     * @param threshold hits counted exactly, 0 or less always counts all
+     * @author Michael Mario Kubicki
+     * @see SearchPage#TotalHitsExact
+     */
+    public void SetTotalHitsThreshold(int threshold) {
+        this.totalHitsThreshold = threshold > 0 ? threshold : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Complete prefixes with titles and frequent terms of the index
+     * A suggester stored in file is used right away, it is built again in the background
+     * if it belongs to another version of the index, see RefreshSuggester()
+     *
+     * @param file     file of suggester, normally next to the index
+     * @param maxTerms number of content terms suggested at most
+     * @param millis   minimum time between two builds
+     * @throws IOException Exception while opening stored suggester
+     * @author Michael Mario Kubicki
+     * @see Suggester
+     */
+    public void SetSuggester(File file, int maxTerms, long millis) throws IOException {
+        if (!setup) throw new IllegalStateException("Searcher was not set up");
+
+        this.suggestFile = file;
+        this.suggestTerms = maxTerms;
+        this.suggestMillis = millis;
+        if (suggestBuilder == null)
+            suggestBuilder = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "suggest-build");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        Suggester stored;
+        try {
+            stored = Suggester.Open(file);
+        } catch (IOException e) {
+            //Broken file is replaced by the build
+            stored = null;
+        }
+        swapSuggester(stored);
+        lastSuggestBuild = 0;
+        RefreshSuggester();
+    }
+
+    /**
+     * Build suggester again in the background if the index changed since it was built
+     * and the last build is long enough ago
+     * Suggest(...) keeps using the old one until the new one is done
+     *
+     * @return true if a build was started
+     * @author Michael Mario Kubicki
+     */
+    public boolean RefreshSuggester() {
+        if (suggestBuilder == null || System.currentTimeMillis() - lastSuggestBuild < suggestMillis)
+            return false;
+        if (!building.compareAndSet(false, true))
+            return false;
+
+        suggestBuilder.execute(() -> {
+            try {
+                buildSuggester();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace(System.out);
+            } finally {
+                lastSuggestBuild = System.currentTimeMillis();
+                building.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Build suggester from current view of the index, if it changed
+     *
+     * @throws IOException Exception while reading index or writing suggester
+     * @author Michael Mario Kubicki
+     */
+    private void buildSuggester() throws IOException {
+        IndexSearcher indexSearcher = searcherManager.acquire();
+        try {
+            long version = version(indexSearcher.getIndexReader());
+            Suggester current = suggester;
+            if (current != null && current.Version() == version)
+                return;
+
+            long start = SUGGEST_BUILD.Start();
+            Suggester.Build(indexSearcher.getIndexReader(), version, suggestFile, suggestTerms);
+            SUGGEST_BUILD.Stop(start);
+        } finally {
+            searcherManager.release(indexSearcher);
+        }
+        swapSuggester(Suggester.Open(suggestFile));
+    }
+
+    /**
+     * Use another suggester, old one is closed once no lookup uses it anymore
+     *
+     * @param next new suggester, may be null
+     * @throws IOException Exception while closing old one
+     * @author Michael Mario Kubicki
+     */
+    private void swapSuggester(Suggester next) throws IOException {
+        Suggester previous = suggester;
+        suggester = next;
+        if (next != null)
+            Metrics.Gauge("ir_suggest_bytes", "Size of the suggester file", next::SizeInBytes);
+        if (previous != null)
+            previous.Close();
+    }
+
+    /**
+     * Complete prefix, e.g. while typing a query
+     *
+     * @param prefix typed text
+     * @param count  number of suggestions
+     * @return suggestions, best first, none if there is no suggester yet
+     * @throws IOException Exception while reading suggester
+     * @author Michael Mario Kubicki
+     * @see Searcher#SetSuggester(File, int, long)
+     */
+    public Suggester.Suggestion[] Suggest(String prefix, int count) throws IOException {
+        long start = SUGGEST.Start();
+        try {
+            while (true) {
+                Suggester current = suggester;
+                if (current == null)
+                    return new Suggester.Suggestion[0];
+                //Swapped and closed in between, take the new one
+                if (!current.TryIncRef())
+                    continue;
+                try {
+                    return current.Lookup(prefix, count);
+                } finally {
+                    current.DecRef();
+                }
+            }
+        } finally {
+            SUGGEST.Stop(start);
+        }
+    }
+
+    /**
+     * Look for new commits of the index
+     * searches started afterwards see them
+     *
+     * @return true if there was a new commit
+     * @throws IOException Exception while opening new commit
+     * @author Michael Mario Kubicki
+     */
+    public boolean Refresh() throws IOException {
+        return searcherManager.maybeRefresh();
     }
 
     /**
@@ -132,12 +526,511 @@ public class Searcher {
     public ScoreDoc[] Search(String query, int result_count) throws IllegalStateException, ParseException, IOException {
         if (!setup) throw new IllegalStateException("Indexer was not set up");
 
-        TopDocs td = indexSearcher.search(queryParser.parse(query), result_count);
+        long start = queryTimer.Start();
+        Query parsed = parse(query);
+
+        IndexSearcher indexSearcher = searcherManager.acquire();
+        try {
+            if (cache != null)
+                return cached(indexSearcher, parsed, result_count).ScoreDocs.clone();
+
+            return topDocs(indexSearcher, parsed, result_count, null).scoreDocs;
+        } finally {
+            searcherManager.release(indexSearcher);
+            queryTimer.Stop(start);
+        }
+    }
+
+    /**
+     * Search for given Query and load path and title of the results
+     * both done on the same view of the index, so results stay valid while refreshing
+     *
+     * @param query        Query to be searched
+     * @param result_count Number of results expected
+     * @return results ordered by rank
+     * @throws IllegalStateException Searcher wasn't setup correctly
+     * @throws ParseException        Exception while parsing
+     * @throws IOException           Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    public SearchResult[] SearchResults(String query, int result_count) throws IllegalStateException, ParseException, IOException {
+        if (!setup) throw new IllegalStateException("Indexer was not set up");
+
+        long start = queryTimer.Start();
+        Query parsed = parse(query);
 
-        return td.scoreDocs;
+        IndexSearcher indexSearcher = searcherManager.acquire();
+        try {
+            return search(indexSearcher, parsed, result_count).Results;
+        } finally {
+            searcherManager.release(indexSearcher);
+            queryTimer.Stop(start);
+        }
+    }
+
+    /**
+     * Search one page of results, the next one is found with the cursor of the page
+     * Only the hit a page ended with is looked at, not the ones before it,
+     * so deep pages cost as much as the first one
+     * Cursors stay valid after Refresh(), see PageCursor
+     *
+     * @param query     Query to be searched
+     * @param page_size Number of results per page
+     * @param cursor    Cursor of previous page, null or empty for first page
+     * @return page with results, ranks continue those of the previous pages
+     * @throws IllegalStateException    Searcher wasn't setup correctly
+     * @throws IllegalArgumentException cursor is broken or belongs to another query
+     * @throws ParseException           Exception while parsing
+     * @throws IOException              Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    public SearchPage SearchPage(String query, int page_size, String cursor) throws IllegalStateException, IllegalArgumentException, ParseException, IOException {
+        return SearchAfter(query, page_size, cursor != null && !cursor.isEmpty() ? Cursor(query, cursor) : null);
+    }
+
+    /**
+     * Cursor of a token, checked to belong to query
+     *
+     * @param query Query the cursor is used with
+     * @param token cursor of previous page
+     * @return cursor
+     * @throws IllegalArgumentException token is broken or belongs to another query
+     * @throws ParseException           Exception while parsing
+     * @author Michael Mario Kubicki
+     * @see Searcher#SearchPage(String, int, String)
+     */
+    PageCursor Cursor(String query, String token) throws IllegalArgumentException, ParseException {
+        PageCursor cursor = PageCursor.Decode(token);
+        if (cursor.Query != queryHash(parse(query)))
+            throw new IllegalArgumentException("Cursor belongs to another query");
+        return cursor;
+    }
+
+    /**
+     * Search one page of results after a checked cursor
+     *
+     * @param query     Query to be searched
+     * @param page_size Number of results per page
+     * @param previous  Cursor of previous page, null for first page
+     * @return page with results
+     * @throws IllegalStateException Searcher wasn't setup correctly
+     * @throws ParseException        Exception while parsing
+     * @throws IOException           Exception while accessing index
+     * @author Michael Mario Kubicki
+     * @see Searcher#Cursor(String, String)
+     */
+    SearchPage SearchAfter(String query, int page_size, PageCursor previous) throws IllegalStateException, ParseException, IOException {
+        if (!setup) throw new IllegalStateException("Indexer was not set up");
+
+        long start = queryTimer.Start();
+        Query parsed = parse(query);
+        int queryHash = queryHash(parsed);
+
+        IndexSearcher indexSearcher = searcherManager.acquire();
+        try {
+            TopDocs topDocs = topDocs(indexSearcher, parsed, page_size, previous != null ? previous.After : null);
+            ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+
+            SearchResult[] results = ResultHydrator.Hydrate(indexSearcher.getIndexReader(), scoreDocs);
+            if (snippetPassages > 0 && results.length > 0)
+                results = withSnippets(indexSearcher, parsed, topDocs, results);
+
+            //Ranks continue after previous page
+            int rank = previous != null ? previous.Rank : 0;
+            if (rank > 0)
+                for (int i = 0; i < results.length; ++i)
+                    results[i] = new SearchResult(rank + results[i].Rank, results[i].Score,
+                            results[i].Path, results[i].Title, results[i].Snippet);
+            rank += results.length;
+
+            boolean exact = topDocs.totalHits.relation == TotalHits.Relation.EQUAL_TO;
+            String next = null;
+            if (scoreDocs.length == page_size && !(exact && rank >= topDocs.totalHits.value))
+                next = new PageCursor(scoreDocs[scoreDocs.length - 1], rank, queryHash,
+                        version(indexSearcher.getIndexReader())).Encode();
+
+            return new SearchPage(results, next, topDocs.totalHits.value, exact);
+        } finally {
+            searcherManager.release(indexSearcher);
+            queryTimer.Stop(start);
+        }
+    }
+
+    /**
+     * Hash of query and model, stable over restarts unlike hashCode() of queries
+     *
+     * @param parsed parsed Query
+     * @return hash
+     * @author Michael Mario Kubicki
+     */
+    private int queryHash(Query parsed) {
+        return (model.name() + '|' + parsed.toString()).hashCode();
+    }
+
+    /**
+     * Search many queries, e.g. a query log, on a pool of workers
+     * All queries see the same view of the index, results are in order of the queries
+     * A query which can't be parsed doesn't stop the others, its result has an Error
+     *
+     * @param queries      Queries to be searched
+     * @param result_count Number of results expected per query
+     * @param threads      Number of workers, 0 or less uses one per available processor
+     * @return one QueryResult per query, same order
+     * @throws IllegalStateException Searcher wasn't setup correctly
+     * @throws IOException           Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    public QueryResult[] SearchBatch(List<String> queries, int result_count, int threads) throws IllegalStateException, IOException {
+        if (!setup) throw new IllegalStateException("Indexer was not set up");
+
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        threads = Math.max(1, Math.min(threads, queries.size()));
+
+        QueryResult[] results = new QueryResult[queries.size()];
+        //Next query to be taken by a worker
+        AtomicInteger next = new AtomicInteger(0);
+
+        IndexSearcher indexSearcher = searcherManager.acquire();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t)
+                futures.add(workers.submit(() -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < results.length)
+                        results[i] = searchOne(indexSearcher, queries.get(i), result_count);
+                    return null;
+                }));
+
+            for (Future<Void> future : futures)
+                future.get();
+
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            workers.shutdownNow();
+            searcherManager.release(indexSearcher);
+        }
+    }
+
+    /**
+     * Parse and search one query of a batch
+     *
+     * @param indexSearcher searcher of the batch
+     * @param query         Query to be searched
+     * @param result_count  Number of results expected
+     * @return QueryResult, with Error if query can't be parsed
+     * @throws IOException Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    private QueryResult searchOne(IndexSearcher indexSearcher, String query, int result_count) throws IOException {
+        long start = queryTimer.Start();
+        try {
+            SearchResult[] results = search(indexSearcher, parse(query), result_count).Results;
+            return new QueryResult(query, results, null, queryTimer.Stop(start));
+        } catch (ParseException e) {
+            return new QueryResult(query, new SearchResult[0], e.getMessage(), queryTimer.Stop(start));
+        }
+    }
+
+    /**
+     * Search and load path and title of the results, from cache if possible
+     *
+     * @param indexSearcher searcher to use, has to be acquired
+     * @param query         parsed Query
+     * @param result_count  Number of results expected
+     * @return results ordered by rank
+     * @throws IOException Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    private ResultCache.Entry search(IndexSearcher indexSearcher, Query query, int result_count) throws IOException {
+        if (cache != null)
+            return cached(indexSearcher, query, result_count);
+        return load(indexSearcher, query, result_count, "");
+    }
+
+    /**
+     * Look up results in cache, search and cache them if missing
+     * Key is the parsed query, so differently written but equal queries share an entry
+     *
+     * @param indexSearcher searcher to use, has to be acquired
+     * @param query         parsed Query
+     * @param result_count  Number of results expected
+     * @return results ordered by rank
+     * @throws IOException Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    private ResultCache.Entry cached(IndexSearcher indexSearcher, Query query, int result_count) throws IOException {
+        String key = model.name() + '|' + result_count + '|' + query.toString();
+        long version = version(indexSearcher.getIndexReader());
+
+        ResultCache.Entry entry = cache.Get(key, version);
+        if (entry == null) {
+            entry = load(indexSearcher, query, result_count, key);
+            cache.Put(key, version, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Version of index, sum of versions of shards if sharded
+     * grows with every change, like the version of one index
+     *
+     * @param reader reader of searcher
+     * @return version
+     * @author Michael Mario Kubicki
+     */
+    private static long version(IndexReader reader) {
+        if (reader instanceof DirectoryReader)
+            return ((DirectoryReader) reader).getVersion();
+
+        long version = 0;
+        for (IndexReaderContext shard : reader.getContext().children())
+            version += ((DirectoryReader) shard.reader()).getVersion();
+        return version;
+    }
+
+    /**
+     * Search and load path, title and snippets of the results
+     *
+     * @param indexSearcher searcher to use, has to be acquired
+     * @param query         parsed Query
+     * @param result_count  Number of results expected
+     * @param key           key of cache entry
+     * @return results ordered by rank
+     * @throws IOException Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    private ResultCache.Entry load(IndexSearcher indexSearcher, Query query, int result_count, String key) throws IOException {
+        TopDocs topDocs = topDocs(indexSearcher, query, result_count, null);
+        ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+
+        SearchResult[] results = ResultHydrator.Hydrate(indexSearcher.getIndexReader(), scoreDocs);
+        if (snippetPassages > 0 && results.length > 0)
+            results = withSnippets(indexSearcher, query, topDocs, results);
+        return new ResultCache.Entry(key, scoreDocs, results);
+    }
+
+    /**
+     * Best hits, after a hit of a previous page if given
+     * Hits are counted exactly up to totalHitsThreshold per slice of the searcher
+     *
+     * @param indexSearcher searcher to use, has to be acquired
+     * @param query         parsed Query
+     * @param count         Number of hits expected
+     * @param after         last hit of previous page, null for the best hits
+     * @return hits ordered by score, then docID
+     * @throws IOException Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    private TopDocs topDocs(IndexSearcher indexSearcher, Query query, int count, ScoreDoc after) throws IOException {
+        int numHits = Math.max(1, Math.min(count, indexSearcher.getIndexReader().maxDoc()));
+        int threshold = Math.max(numHits, totalHitsThreshold);
+
+        return indexSearcher.search(query, new CollectorManager<TopScoreDocCollector, TopDocs>() {
+            @Override
+            public TopScoreDocCollector newCollector() {
+                return TopScoreDocCollector.create(numHits, after, threshold);
+            }
+
+            @Override
+            public TopDocs reduce(Collection<TopScoreDocCollector> collectors) {
+                //Same order as searching after a hit, so no hit is repeated or missed between pages
+                List<ScoreDoc> hits = new ArrayList<>();
+                long total = 0;
+                TotalHits.Relation relation = TotalHits.Relation.EQUAL_TO;
+                for (TopScoreDocCollector collector : collectors) {
+                    TopDocs slice = collector.topDocs();
+                    total += slice.totalHits.value;
+                    if (slice.totalHits.relation != TotalHits.Relation.EQUAL_TO)
+                        relation = TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO;
+                    for (ScoreDoc hit : slice.scoreDocs)
+                        hits.add(hit);
+                }
+                hits.sort(BY_SCORE_THEN_DOC);
+                if (hits.size() > numHits)
+                    hits = hits.subList(0, numHits);
+                return new TopDocs(new TotalHits(total, relation), hits.toArray(new ScoreDoc[0]));
+            }
+        });
     }
 
+    /**
+     * Add passages matching the query to results
+     * Only content of the hits is read, at most snippetChars of each
+     *
+     * @param indexSearcher searcher the hits were found by
+     * @param query         parsed Query
+     * @param topDocs       hits
+     * @param results       results of hits, same order
+     * @return results with snippets
+     * @throws IOException Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
+    private SearchResult[] withSnippets(IndexSearcher indexSearcher, Query query, TopDocs topDocs, SearchResult[] results) throws IOException {
+        long start = SNIPPETS.Start();
+        try {
+            UnifiedHighlighter highlighter = new UnifiedHighlighter(indexSearcher, analyzer);
+            highlighter.setMaxLength(snippetChars);
+            //Snippets are shown in HTML as well, text of documents is escaped
+            highlighter.setFormatter(new DefaultPassageFormatter("<b>", "</b>", "... ", true));
+            String[] snippets = highlighter.highlight("content", query, topDocs, snippetPassages);
+
+            SearchResult[] withSnippets = new SearchResult[results.length];
+            for (int i = 0; i < results.length; ++i) {
+                SearchResult result = results[i];
+                withSnippets[i] = new SearchResult(result.Rank, result.Score, result.Path, result.Title, snippets[i]);
+            }
+            return withSnippets;
+        } finally {
+            SNIPPETS.Stop(start);
+        }
+    }
+
+    /**
+     * Load path and title of results of Search(...) in one go
+     * much cheaper than GetDoc(...) for every result
+     * Only valid for results of Search(...) as long as Refresh() was not called in between
+     *
+     * @param hits results of Search(...), ordered by rank
+     * @return results with path and title, same order
+     * @throws IOException Exception while accessing index
+     * @author Michael Mario Kubicki
+     * @see Searcher#SearchResults(String, int)
+     */
+    public SearchResult[] Hydrate(ScoreDoc[] hits) throws IOException {
+        IndexSearcher indexSearcher = searcherManager.acquire();
+        try {
+            return ResultHydrator.Hydrate(indexSearcher.getIndexReader(), hits);
+        } finally {
+            searcherManager.release(indexSearcher);
+        }
+    }
+
+    /**
+     * Get stored fields of document
+     * Only valid for results of Search(...) as long as Refresh() was not called in between
+     *
+     * @param doc document id
+     * @return Document
+     * @throws IOException Exception while accessing index
+     * @author Michael Mario Kubicki
+     */
     public Document GetDoc(int doc) throws IOException {
-        return indexSearcher.doc(doc);
+        IndexSearcher indexSearcher = searcherManager.acquire();
+        try {
+            return indexSearcher.doc(doc);
+        } finally {
+            searcherManager.release(indexSearcher);
+        }
+    }
+
+    /**
+     * Parse query with parser of current thread
+     *
+     * @param query Query to be parsed
+     * @return parsed Query
+     * @throws ParseException Exception while parsing
+     * @author Michael Mario Kubicki
+     */
+    private Query parse(String query) throws ParseException {
+        try {
+            return queryParsers.get().parse(query);
+        } catch (ParseException e) {
+            PARSE_ERRORS.Inc();
+            throw e;
+        }
+    }
+
+    /**
+     * Start threads for searching slices, if more than one is wanted
+     *
+     * @return executor or null
+     * @author Michael Mario Kubicki
+     */
+    private ExecutorService startSliceExecutor() {
+        if (sliceExecutor != null)
+            sliceExecutor.shutdown();
+        sliceExecutor = null;
+        if (searchThreads > 1)
+            sliceExecutor = Executors.newFixedThreadPool(searchThreads, runnable -> {
+                Thread thread = new Thread(runnable, "search-slice");
+                //Don't keep program alive if Close() is forgotten
+                thread.setDaemon(true);
+                return thread;
+            });
+        return sliceExecutor;
+    }
+
+    /**
+     * Factory for searchers using the ranking model
+     *
+     * @param model    Ranking Model
+     * @param executor Executor for searching slices of one query, null searches on calling thread
+     * @return SearcherFactory
+     * @author Michael Mario Kubicki
+     */
+    private static SearcherFactory getFactory(RankingModel model, ExecutorService executor) {
+        Similarity similarity = getSimilarity(model);
+        return new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+                IndexSearcher indexSearcher = reader instanceof MultiReader
+                        ? new IndexSearcher(reader, executor) {
+                    @Override
+                    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                        return shardSlices(leaves);
+                    }
+                }
+                        : new IndexSearcher(reader, executor);
+                indexSearcher.setSimilarity(similarity);
+                return indexSearcher;
+            }
+        };
+    }
+
+    /**
+     * One slice per shard, so shards are searched in parallel
+     * and their top hits merged by the searcher
+     *
+     * @param leaves segments of all shards
+     * @return slices
+     * @author Michael Mario Kubicki
+     */
+    private static IndexSearcher.LeafSlice[] shardSlices(List<LeafReaderContext> leaves) {
+        //Segments of a shard have the shard as parent
+        Map<IndexReaderContext, List<LeafReaderContext>> shards = new LinkedHashMap<>();
+        for (LeafReaderContext leaf : leaves)
+            shards.computeIfAbsent(leaf.parent, shard -> new ArrayList<>()).add(leaf);
+
+        IndexSearcher.LeafSlice[] slices = new IndexSearcher.LeafSlice[shards.size()];
+        int i = 0;
+        for (List<LeafReaderContext> shard : shards.values())
+            slices[i++] = new IndexSearcher.LeafSlice(shard.toArray(new LeafReaderContext[0]));
+        return slices;
+    }
+
+    /**
+     * Similarity belonging to ranking model
+     *
+     * @param model Ranking Model
+     * @return Similarity
+     * @author Michael Mario Kubicki
+     */
+    private static Similarity getSimilarity(RankingModel model) {
+        switch (model) {
+            case VectorSpace:
+                return new ClassicSimilarity();
+            case Okapi:
+            default:
+                return new BM25Similarity();
+        }
     }
 }
@@ -0,0 +1,133 @@
+package Searching;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * SearcherManager for a sharded index
+ * Searchers are on a MultiReader over one DirectoryReader per shard,
+ * so scores are the same as with one index
+ * Refreshing only reopens shards which changed, the others are shared with the last searcher
+ *
+ * @author Michael Mario Kubicki
+ * @see Util.IndexShards
+ */
+class ShardSearcherManager extends ReferenceManager<IndexSearcher> {
+
+    private final SearcherFactory factory;
+
+    private ShardSearcherManager(DirectoryReader[] shards, SearcherFactory factory) throws IOException {
+        this.factory = factory;
+        current = newSearcher(shards, null);
+    }
+
+    /**
+     * Manager on last commits of shards
+     *
+     * @param shards  Directory of every shard
+     * @param factory creates searchers
+     * @return ShardSearcherManager
+     * @throws IOException Exception concerning accessing index files
+     * @author Michael Mario Kubicki
+     */
+    static ShardSearcherManager Open(Directory[] shards, SearcherFactory factory) throws IOException {
+        DirectoryReader[] readers = new DirectoryReader[shards.length];
+        for (int i = 0; i < shards.length; ++i)
+            readers[i] = DirectoryReader.open(shards[i]);
+        return new ShardSearcherManager(readers, factory);
+    }
+
+    /**
+     * Manager on writers of shards, sees changes before they are committed
+     *
+     * @param shards  IndexWriter of every shard
+     * @param factory creates searchers
+     * @return ShardSearcherManager
+     * @throws IOException Exception concerning accessing index files
+     * @author Michael Mario Kubicki
+     */
+    static ShardSearcherManager Open(IndexWriter[] shards, SearcherFactory factory) throws IOException {
+        DirectoryReader[] readers = new DirectoryReader[shards.length];
+        for (int i = 0; i < shards.length; ++i)
+            readers[i] = DirectoryReader.open(shards[i]);
+        return new ShardSearcherManager(readers, factory);
+    }
+
+    @Override
+    protected void decRef(IndexSearcher reference) throws IOException {
+        reference.getIndexReader().decRef();
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+        IndexReader previous = referenceToRefresh.getIndexReader();
+        List<IndexReaderContext> children = previous.getContext().children();
+
+        DirectoryReader[] shards = new DirectoryReader[children.size()];
+        boolean changed = false;
+        for (int i = 0; i < shards.length; ++i) {
+            DirectoryReader old = (DirectoryReader) children.get(i).reader();
+            DirectoryReader newer = DirectoryReader.openIfChanged(old);
+            if (newer == null) {
+                old.incRef();
+                shards[i] = old;
+            } else {
+                shards[i] = newer;
+                changed = true;
+            }
+        }
+
+        if (!changed) {
+            for (DirectoryReader shard : shards)
+                shard.decRef();
+            return null;
+        }
+        return newSearcher(shards, previous);
+    }
+
+    @Override
+    protected boolean tryIncRef(IndexSearcher reference) {
+        return reference.getIndexReader().tryIncRef();
+    }
+
+    @Override
+    protected int getRefCount(IndexSearcher reference) {
+        return reference.getIndexReader().getRefCount();
+    }
+
+    /**
+     * Searcher over shards
+     * takes over one reference of every shard reader
+     *
+     * @param shards   reader of every shard
+     * @param previous reader of last searcher, null if first
+     * @return IndexSearcher
+     * @throws IOException Exception concerning accessing index files
+     * @author Michael Mario Kubicki
+     */
+    private IndexSearcher newSearcher(DirectoryReader[] shards, IndexReader previous) throws IOException {
+        try {
+            //Holds its own reference of every shard
+            MultiReader reader = new MultiReader(shards, false);
+            try {
+                return factory.newSearcher(reader, previous);
+            } catch (IOException | RuntimeException e) {
+                reader.close();
+                throw e;
+            }
+        } finally {
+            for (DirectoryReader shard : shards)
+                shard.decRef();
+        }
+    }
+}
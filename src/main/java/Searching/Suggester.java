@@ -0,0 +1,477 @@
+package Searching;
+
+import Util.IndexShards;
+import Util.TextAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.*;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.*;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prefix suggestions from an FST of titles and frequent content terms
+ * <p>
+ * Every entry is a lowercased key mapping to a cost (MAX_WEIGHT - weight),
+ * so the cheapest paths below a prefix are the heaviest completions.
+ * Keys whose shown text differs from the key (e.g. title with capitals) are "key\0text"
+ * <p>
+ * Content terms are stems, each is suggested as the word it most often comes from
+ * in titles and the stored content of a sample of documents. Stems without such a word aren't suggested,
+ * so content terms need stored content (snippet_chars greater than 0), without it only words of titles are found.
+ * Words of titles are found once per segment and kept until the segment is closed
+ * <p>
+ * Stored in one file next to the index: magic, version of the index it was built from, FST.
+ * The FST stays in the memory-mapped file, only the file is opened, nothing is loaded.
+ * A new file is written beside and moved over the old one, open suggesters keep reading the old one
+ * <p>
+ * Can be used by multiple threads, closed once the last user released it
+ *
+ * @author Michael Mario Kubicki
+ * @see Suggester#Build(IndexReader, long, File, int)
+ * @see Suggester#Open(File)
+ * @see Searcher#Suggest(String, int)
+ */
+public final class Suggester {
+
+    //Name of file next to the index
+    public static final String FILE_NAME = "suggest.fst";
+
+    private static final int MAGIC = 0x53554731;
+    private static final long MAX_WEIGHT = Integer.MAX_VALUE;
+    //Weight of a title per document having it, titles come before terms of same frequency
+    private static final long TITLE_WEIGHT = 10;
+    //Terms in fewer documents aren't suggested
+    private static final int MIN_DOC_FREQ = 2;
+    private static final byte SEPARATOR = 0;
+    //Documents whose stored content is read to find the words of stems
+    private static final int SURFACE_DOCS = 1000;
+    private static final Set<String> CONTENT = Collections.singleton("content");
+    //Segment -> stem -> word -> count in its titles, titles of a segment never change
+    private static final Map<IndexReader.CacheKey, Map<String, Map<String, Integer>>> TITLE_FORMS = new ConcurrentHashMap<>();
+    //Missing stored content is only reported once
+    private static final AtomicBoolean WARNED = new AtomicBoolean();
+
+    private final Directory directory;
+    private final IndexInput input;
+    private final FST<Long> fst;
+    private final long version;
+    //Users + 1 until closed
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private Suggester(Directory directory, IndexInput input, FST<Long> fst, long version) {
+        this.directory = directory;
+        this.input = input;
+        this.fst = fst;
+        this.version = version;
+    }
+
+    /**
+     * Open suggestions stored in file
+     *
+     * @param file file written by Build(...)
+     * @return Suggester or null if there is no file
+     * @throws IOException Exception while reading or file isn't a suggester
+     * @author Michael Mario Kubicki
+     */
+    public static Suggester Open(File file) throws IOException {
+        if (!file.isFile())
+            return null;
+
+        Directory directory = IndexShards.Open(file.getAbsoluteFile().getParentFile());
+        IndexInput input = null;
+        try {
+            input = directory.openInput(file.getName(), IOContext.DEFAULT);
+            if (input.readInt() != MAGIC)
+                throw new IOException("Not a suggester: " + file);
+            long version = input.readLong();
+            //FST is read from the mapped file on lookup
+            FST<Long> fst = new FST<>(input, input, PositiveIntOutputs.getSingleton(), new OffHeapFSTStore());
+            return new Suggester(directory, input, fst, version);
+        } catch (IOException | RuntimeException e) {
+            if (input != null)
+                input.close();
+            directory.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Build suggestions of titles and the most frequent content terms and write them to file
+     *
+     * @param reader   reader of index, all shards if sharded
+     * @param version  version of index read, stored to know when to build again
+     * @param file     file to write
+     * @param maxTerms number of content terms taken at most
+     * @throws IOException Exception while reading index or writing file
+     * @author Michael Mario Kubicki
+     */
+    public static void Build(IndexReader reader, long version, File file, int maxTerms) throws IOException {
+        //Sorted keys as needed by the FST
+        TreeMap<BytesRef, Long> weights = new TreeMap<>();
+        addTitles(reader, weights);
+        addTerms(reader, maxTerms, weights);
+
+        Builder<Long> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+        IntsRefBuilder scratch = new IntsRefBuilder();
+        for (Map.Entry<BytesRef, Long> entry : weights.entrySet())
+            builder.add(Util.toIntsRef(entry.getKey(), scratch), MAX_WEIGHT - Math.min(MAX_WEIGHT, entry.getValue()));
+        FST<Long> fst = builder.finish();
+        if (fst == null) {
+            //Nothing to suggest, no file at all
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp);
+             BufferedOutputStream buffered = new BufferedOutputStream(stream, 1 << 16);
+             OutputStreamDataOutput out = new OutputStreamDataOutput(buffered)) {
+            out.writeInt(MAGIC);
+            out.writeLong(version);
+            fst.save(out, out);
+            //Everything has to reach the file before it is synced
+            buffered.flush();
+            stream.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Add every title, weighted by number of live documents having it
+     *
+     * @param reader  reader of index
+     * @param weights key -> weight
+     * @throws IOException Exception while reading index
+     * @author Michael Mario Kubicki
+     */
+    private static void addTitles(IndexReader reader, Map<BytesRef, Long> weights) throws IOException {
+        for (LeafReaderContext leaf : reader.leaves()) {
+            SortedDocValues titles = DocValues.getSorted(leaf.reader(), "title");
+            if (titles.getValueCount() == 0)
+                continue;
+
+            int[] counts = new int[titles.getValueCount()];
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            for (int doc = titles.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = titles.nextDoc())
+                if (liveDocs == null || liveDocs.get(doc))
+                    counts[titles.ordValue()]++;
+
+            for (int ord = 0; ord < counts.length; ++ord) {
+                if (counts[ord] == 0)
+                    continue;
+                String title = titles.lookupOrd(ord).utf8ToString().trim();
+                if (!title.isEmpty())
+                    weights.merge(key(title), counts[ord] * TITLE_WEIGHT, Long::sum);
+            }
+        }
+    }
+
+    /**
+     * Add the most frequent terms of content as words, weighted by document frequency
+     *
+     * @param reader   reader of index
+     * @param maxTerms number of terms taken at most
+     * @param weights  key -> weight
+     * @throws IOException Exception while reading index
+     * @author Michael Mario Kubicki
+     */
+    private static void addTerms(IndexReader reader, int maxTerms, Map<BytesRef, Long> weights) throws IOException {
+        Terms terms = MultiTerms.getTerms(reader, "content");
+        if (terms == null || maxTerms <= 0)
+            return;
+
+        //Least frequent on top, replaced by more frequent ones
+        PriorityQueue<Map.Entry<BytesRef, Integer>> top = new PriorityQueue<>(maxTerms,
+                (a, b) -> Integer.compare(a.getValue(), b.getValue()));
+        TermsEnum termsEnum = terms.iterator();
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            int docFreq = termsEnum.docFreq();
+            if (docFreq < MIN_DOC_FREQ || top.size() == maxTerms && top.peek().getValue() >= docFreq)
+                continue;
+            if (top.size() == maxTerms)
+                top.poll();
+            top.add(new AbstractMap.SimpleImmutableEntry<>(BytesRef.deepCopyOf(term), docFreq));
+        }
+
+        //Stem -> word it comes from -> count
+        Map<String, Map<String, Integer>> forms = new HashMap<>();
+        for (Map.Entry<BytesRef, Integer> entry : top)
+            forms.put(entry.getKey().utf8ToString(), new HashMap<>());
+        countSurfaceForms(reader, forms);
+
+        for (Map.Entry<BytesRef, Integer> entry : top) {
+            Map<String, Integer> words = forms.get(entry.getKey().utf8ToString());
+            //Stem never seen as word, e.g. "happi"
+            if (words.isEmpty())
+                continue;
+            String word = Collections.max(words.entrySet(), Map.Entry.comparingByValue()).getKey();
+            weights.merge(new BytesRef(word), (long) entry.getValue(), Long::sum);
+        }
+    }
+
+    /**
+     * Count the words stems come from, in all titles and the stored content of a sample of documents
+     *
+     * @param reader reader of index
+     * @param forms  stem -> word -> count, only stems already in it are counted
+     * @throws IOException Exception while reading index
+     * @author Michael Mario Kubicki
+     */
+    private static void countSurfaceForms(IndexReader reader, Map<String, Map<String, Integer>> forms) throws IOException {
+        Analyzer analyzer = TextAnalyzer.GetAnalyzer(TextAnalyzer.SURFACE);
+
+        for (LeafReaderContext leaf : reader.leaves())
+            for (Map.Entry<String, Map<String, Integer>> title : titleForms(leaf.reader(), analyzer).entrySet()) {
+                Map<String, Integer> words = forms.get(title.getKey());
+                if (words != null)
+                    title.getValue().forEach((word, count) -> words.merge(word, count, Integer::sum));
+            }
+
+        //Spread over the whole index, reading all content would take too long
+        int step = Math.max(1, reader.maxDoc() / SURFACE_DOCS);
+        Bits liveDocs = MultiBits.getLiveDocs(reader);
+        boolean stored = false;
+        for (int doc = 0; doc < reader.maxDoc(); doc += step) {
+            if (liveDocs != null && !liveDocs.get(doc))
+                continue;
+            //Only stored if indexed with snippets
+            String content = reader.document(doc, CONTENT).get("content");
+            if (content != null) {
+                stored = true;
+                countSurfaceForms(analyzer, content, forms, false);
+            }
+        }
+
+        if (!stored && !forms.isEmpty() && WARNED.compareAndSet(false, true))
+            System.out.println("Suggestions: index has no stored content (snippet_chars is 0), "
+                    + "content terms are only suggested if they appear in titles");
+    }
+
+    /**
+     * Words stems come from in titles of a segment, found once per segment
+     *
+     * @param leaf     segment
+     * @param analyzer analyzer giving every word followed by its stem
+     * @return stem -> word -> count of all stems in titles
+     * @throws IOException Exception while reading index
+     * @author Michael Mario Kubicki
+     */
+    private static Map<String, Map<String, Integer>> titleForms(LeafReader leaf, Analyzer analyzer) throws IOException {
+        IndexReader.CacheHelper helper = leaf.getCoreCacheHelper();
+        if (helper != null) {
+            Map<String, Map<String, Integer>> cached = TITLE_FORMS.get(helper.getKey());
+            if (cached != null)
+                return cached;
+        }
+
+        Map<String, Map<String, Integer>> forms = new HashMap<>();
+        SortedDocValues titles = DocValues.getSorted(leaf, "title");
+        for (int ord = 0; ord < titles.getValueCount(); ++ord)
+            countSurfaceForms(analyzer, titles.lookupOrd(ord).utf8ToString(), forms, true);
+
+        if (helper != null && TITLE_FORMS.putIfAbsent(helper.getKey(), forms) == null)
+            helper.addClosedListener(TITLE_FORMS::remove);
+        return forms;
+    }
+
+    /**
+     * Count the words stems come from in text
+     *
+     * @param analyzer analyzer giving every word followed by its stem
+     * @param text     text
+     * @param forms    stem -> word -> count
+     * @param add      count every stem, otherwise only stems already in forms
+     * @throws IOException Exception while analyzing
+     * @author Michael Mario Kubicki
+     */
+    private static void countSurfaceForms(Analyzer analyzer, String text, Map<String, Map<String, Integer>> forms,
+                                          boolean add) throws IOException {
+        try (TokenStream stream = analyzer.tokenStream("content", text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            KeywordAttribute keyword = stream.addAttribute(KeywordAttribute.class);
+            stream.reset();
+            String word = null;
+            while (stream.incrementToken()) {
+                if (keyword.isKeyword()) {
+                    word = term.toString();
+                } else if (word != null) {
+                    Map<String, Integer> words = add
+                            ? forms.computeIfAbsent(term.toString(), stem -> new HashMap<>())
+                            : forms.get(term.toString());
+                    if (words != null)
+                        words.merge(word, 1, Integer::sum);
+                    word = null;
+                }
+            }
+            stream.end();
+        }
+    }
+
+    /**
+     * Key of shown text, lowercased text and the text itself if it differs
+     *
+     * @param text shown text
+     * @return key
+     * @author Michael Mario Kubicki
+     */
+    private static BytesRef key(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        if (lower.equals(text))
+            return new BytesRef(lower);
+        BytesRefBuilder key = new BytesRefBuilder();
+        key.copyChars(lower);
+        key.append(SEPARATOR);
+        key.append(new BytesRef(text));
+        return key.toBytesRef();
+    }
+
+    /**
+     * Heaviest completions of prefix, case is ignored
+     * Texts differing only by case are given once
+     *
+     * @param prefix typed text
+     * @param count  number of suggestions
+     * @return suggestions, heaviest first
+     * @throws IOException Exception while reading file
+     * @author Michael Mario Kubicki
+     */
+    public Suggestion[] Lookup(String prefix, int count) throws IOException {
+        BytesRef key = new BytesRef(prefix.toLowerCase(Locale.ROOT));
+        FST.BytesReader bytesReader = fst.getBytesReader();
+
+        //Follow prefix, summing up its cost
+        FST.Arc<Long> arc = fst.getFirstArc(new FST.Arc<>());
+        long prefixCost = 0;
+        for (int i = 0; i < key.length; ++i) {
+            if (fst.findTargetArc(key.bytes[key.offset + i] & 0xFF, arc, arc, bytesReader) == null)
+                return new Suggestion[0];
+            prefixCost += arc.output();
+        }
+
+        //Some more for the ones differing only by case
+        Util.TopResults<Long> completions = Util.shortestPaths(fst, arc, prefixCost,
+                Comparator.naturalOrder(), 2 * count, true);
+
+        Map<String, Suggestion> suggestions = new LinkedHashMap<>();
+        BytesRefBuilder completion = new BytesRefBuilder();
+        for (Util.Result<Long> result : completions) {
+            completion.copyBytes(key);
+            for (int i = 0; i < result.input.length; ++i)
+                completion.append((byte) result.input.ints[result.input.offset + i]);
+            String text = text(completion.get());
+            suggestions.putIfAbsent(text.toLowerCase(Locale.ROOT), new Suggestion(text, MAX_WEIGHT - result.output));
+            if (suggestions.size() == count)
+                break;
+        }
+        return suggestions.values().toArray(new Suggestion[0]);
+    }
+
+    /**
+     * Shown text of key
+     *
+     * @param key key in FST
+     * @return text after separator or key itself
+     * @author Michael Mario Kubicki
+     */
+    private static String text(BytesRef key) {
+        for (int i = 0; i < key.length; ++i)
+            if (key.bytes[key.offset + i] == SEPARATOR)
+                return new String(key.bytes, key.offset + i + 1, key.length - i - 1, StandardCharsets.UTF_8);
+        return key.utf8ToString();
+    }
+
+    /**
+     * Version of index the suggestions were built from
+     *
+     * @return version
+     * @author Michael Mario Kubicki
+     */
+    public long Version() {
+        return version;
+    }
+
+    /**
+     * Size of the FST in bytes
+     *
+     * @return size
+     * @author Michael Mario Kubicki
+     */
+    public long SizeInBytes() {
+        return input.length();
+    }
+
+    /**
+     * Take a reference, so file stays open while looking up
+     *
+     * @return false if already closed
+     * @author Michael Mario Kubicki
+     */
+    boolean TryIncRef() {
+        int count;
+        while ((count = references.get()) > 0)
+            if (references.compareAndSet(count, count + 1))
+                return true;
+        return false;
+    }
+
+    /**
+     * Give back a reference, last one closes the file
+     *
+     * @throws IOException Exception while closing
+     * @author Michael Mario Kubicki
+     */
+    void DecRef() throws IOException {
+        if (references.decrementAndGet() == 0) {
+            try {
+                input.close();
+            } finally {
+                directory.close();
+            }
+        }
+    }
+
+    /**
+     * Close once no lookup is running anymore
+     *
+     * @throws IOException Exception while closing
+     * @author Michael Mario Kubicki
+     */
+    public void Close() throws IOException {
+        DecRef();
+    }
+
+    /**
+     * One completion of a prefix
+     *
+     * @author Michael Mario Kubicki
+     */
+    public static class Suggestion {
+        public final String Text;
+        public final long Weight;
+
+        public Suggestion(String text, long weight) {
+            this.Text = text;
+            this.Weight = weight;
+        }
+    }
+}
@@ -1,112 +1,631 @@
 package Util;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.TreeSet;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
 
 /**
- * Serializable object to check for Updates/New/Deletion/...
+ * Object to check for Updates/New/Deletion/...
+ * CheckFile can be called from multiple threads at once
+ * <p>
+ * Stored next to the index as a memory-mapped snapshot (checked.idx, then checked.[generation].idx)
+ * and a log of changes since that snapshot (checked.log)
+ * Saving only appends the changes of this run to the log,
+ * once the log gets too big it is merged into a new snapshot of the next generation.
+ * The mapped snapshot is never replaced, the old one is deleted once that is possible
+ * <p>
+ * A record of the log cut off by a crash is cut away on loading,
+ * so records appended afterwards are read again
+ * <p>
+ * Paths in the snapshot are numbered densely in sorted order,
+ * which of them were checked in this run is one bit per path,
+ * so finding deleted files is a single scan over the snapshot
+ * <p>
+ * Changes are found in tiers: same size, modification time and file key (inode) is known
+ * without reading the file, only the others are hashed.
+ * Files bigger than the sample threshold are hashed by samples of head, middle and tail,
+ * see SetSampling(...). How often each tier decided is counted in Metrics
  *
  * @author Michael Mario Kubicki
+ * @see CheckedList#Load(File)
+ * @see CheckedList#Save()
  */
 public class CheckedList implements java.io.Serializable {
-    //Serialized part
-    //Map from Path -> Hash
-    public HashMap<String, String> checkedFiles;
-    //Not serialized
+    //Keep checked.dat files written by older versions readable
+    private static final long serialVersionUID = -6222056114980336595L;
+    //Fields of checked.dat files written by older versions
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("checkedFiles", HashMap.class),
+            new ObjectStreamField("fileAttributes", HashMap.class)
+    };
+
+    //checked.idx is generation 0, later ones are checked.[generation].idx
+    private static final String SNAPSHOT_PREFIX = "checked";
+    private static final String SNAPSHOT_SUFFIX = ".idx";
+    private static final String LOG_FILE = "checked.log";
+    private static final String LEGACY_FILE = "checked.dat";
+
+    //Log is merged into snapshot once it is bigger than this part of the snapshot
+    private static final int COMPACT_RATIO = 4;
+    //... but never when it is smaller than this
+    private static final long COMPACT_MIN_LOG = 1 << 20;
+    //Time spent hashing changed files
+    private static final Metrics.Timer HASH = Metrics.Stage("hash");
+    //Which tier decided, bytes read and not read because of it
+    private static final Metrics.Counter BY_ATTRIBUTES = tierCounter("attributes");
+    private static final Metrics.Counter BY_SAMPLE = tierCounter("sampled_hash");
+    private static final Metrics.Counter BY_HASH = tierCounter("hash");
+    private static final Metrics.Counter HASHED_BYTES = Metrics.Counter("ir_change_hashed_bytes_total",
+            "Bytes read to hash files for change detection");
+    private static final Metrics.Counter SKIPPED_BYTES = Metrics.Counter("ir_change_skipped_bytes_total",
+            "Bytes of checked files not read thanks to attributes or sampling");
+    //Bytes read at each of the three positions of a sampled hash
+    private static final long SAMPLE_BYTES = 1 << 20;
+
+    //Directory containing the files, null if never saved
+    private transient File directory;
+    //Memory-mapped snapshot and its generation
+    private transient volatile Manifest snapshot;
+    private transient long generation;
+    //Map from Path -> Entry changed since snapshot, REMOVED for deletion
+    private transient HashMap<String, Entry> changes;
+    //Map from Path -> Entry changed since last save
+    private transient HashMap<String, Entry> unsaved;
     //all files we checked
-    //difference between this and checkedFiles == deleted
-    public transient TreeSet<String> controllList;
+    //known files not in here == deleted
+    //number in snapshot -> checked, paths not in snapshot by name
+    private transient BitSet checked;
+    private transient HashSet<String> checkedOther;
+    //Hash used for changed files
+    private transient HashAlgorithm algorithm;
+    //Files bigger than this get a sampled hash, 0 = never
+    private transient long sampleThreshold;
+    //Taken over from checked.dat of older versions
+    private transient boolean legacy;
 
     public CheckedList() {
-        checkedFiles = new HashMap<>();
-        controllList = new TreeSet<>();
+        init();
+        snapshot = emptySnapshot();
+    }
+
+    /**
+     * Load checked files stored in directory
+     * Directory without stored files gives empty list
+     * checked.dat of older versions is taken over
+     *
+     * @param directory Directory containing the files, normally index directory
+     * @return CheckedList
+     * @throws IOException Exception while reading files
+     * @author Michael Mario Kubicki
+     * @see CheckedList#Save()
+     */
+    public static CheckedList Load(File directory) throws IOException {
+        long generation = lastGeneration(directory);
+        File snapshotFile = snapshotFile(directory, generation);
+        File logFile = new File(directory, LOG_FILE);
+        File legacyFile = new File(directory, LEGACY_FILE);
+
+        CheckedList checkedList;
+        if (!snapshotFile.exists() && !logFile.exists() && legacyFile.isFile()) {
+            //Take over file of older version, gets written as snapshot on save
+            try (ObjectInputStream in = new ObjectInputStream(
+                    new BufferedInputStream(new FileInputStream(legacyFile)))) {
+                checkedList = (CheckedList) in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        } else {
+            checkedList = new CheckedList();
+            checkedList.snapshot = Manifest.Open(snapshotFile);
+            //Broken end of a crash would hide everything appended after it
+            long complete = Manifest.ReadLog(logFile, checkedList.changes);
+            if (logFile.isFile() && logFile.length() > complete)
+                Manifest.TruncateLog(logFile, complete);
+            deleteOlderSnapshots(directory, generation);
+        }
+
+        checkedList.directory = directory;
+        checkedList.generation = generation;
+        return checkedList;
+    }
+
+    /**
+     * Highest generation of snapshots in directory
+     *
+     * @param directory directory of the files
+     * @return generation, 0 if there is none
+     * @author Michael Mario Kubicki
+     */
+    private static long lastGeneration(File directory) {
+        long last = 0;
+        String[] names = directory.list();
+        if (names != null)
+            for (String name : names)
+                last = Math.max(last, generationOf(name));
+        return last;
+    }
+
+    /**
+     * Generation of snapshot file
+     *
+     * @param name name of file
+     * @return generation, -1 if it is no snapshot
+     * @author Michael Mario Kubicki
+     */
+    private static long generationOf(String name) {
+        if (name.equals(SNAPSHOT_PREFIX + SNAPSHOT_SUFFIX))
+            return 0;
+        if (!name.startsWith(SNAPSHOT_PREFIX + '.') || !name.endsWith(SNAPSHOT_SUFFIX))
+            return -1;
+        try {
+            return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length() + 1, name.length() - SNAPSHOT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * File of snapshot of generation
+     *
+     * @param directory  directory of the files
+     * @param generation generation of snapshot
+     * @return file
+     * @author Michael Mario Kubicki
+     */
+    private static File snapshotFile(File directory, long generation) {
+        if (generation == 0)
+            return new File(directory, SNAPSHOT_PREFIX + SNAPSHOT_SUFFIX);
+        return new File(directory, SNAPSHOT_PREFIX + '.' + generation + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Delete snapshots before generation
+     * Ones still mapped (e.g. on Windows) stay until a later run
+     *
+     * @param directory  directory of the files
+     * @param generation current generation
+     * @author Michael Mario Kubicki
+     */
+    private static void deleteOlderSnapshots(File directory, long generation) {
+        String[] names = directory.list();
+        if (names == null)
+            return;
+        for (String name : names) {
+            long older = generationOf(name);
+            if (older < 0 || older >= generation)
+                continue;
+            try {
+                Files.deleteIfExists(new File(directory, name).toPath());
+            } catch (IOException e) {
+                //Still in use, next run deletes it
+            }
+        }
+    }
+
+    /**
+     * Save changes to directory loaded from
+     * Appends to log, merges log into snapshot if it got too big
+     *
+     * @throws IOException           Exception while writing files
+     * @throws IllegalStateException CheckedList wasn't loaded from a directory
+     * @author Michael Mario Kubicki
+     * @see CheckedList#Load(File)
+     */
+    public synchronized void Save() throws IOException, IllegalStateException {
+        if (directory == null)
+            throw new IllegalStateException("CheckedList was not loaded from a directory");
+
+        File logFile = new File(directory, LOG_FILE);
+
+        long logSize = logFile.length();
+        if (!unsaved.isEmpty())
+            logSize = Manifest.AppendLog(logFile, unsaved);
+        unsaved.clear();
+
+        //Merge log into snapshot of next generation, current one is still mapped
+        //Log replayed onto new snapshot after a crash in between only repeats what it has
+        if (legacy || logSize > Math.max(COMPACT_MIN_LOG, snapshot.SizeInBytes() / COMPACT_RATIO)) {
+            File snapshotFile = snapshotFile(directory, generation + 1);
+            snapshot.Compact(snapshotFile, changes);
+            Files.deleteIfExists(logFile.toPath());
+            Manifest compacted = Manifest.Open(snapshotFile);
+            changes.clear();
+
+            //Numbers changed, keep what was checked in this run
+            checked = snapshot.Remap(checked, compacted);
+            for (Iterator<String> it = checkedOther.iterator(); it.hasNext(); ) {
+                int id = compacted.Find(it.next());
+                if (id >= 0) {
+                    checked.set(id);
+                    it.remove();
+                }
+            }
+            snapshot = compacted;
+            generation++;
+            deleteOlderSnapshots(directory, generation);
+
+            //Old file no longer needed
+            if (legacy)
+                Files.deleteIfExists(new File(directory, LEGACY_FILE).toPath());
+            legacy = false;
+        }
+    }
+
+    /**
+     * Start a new run, forget which files were checked
+     * so GetDifference looks at all known files again
+     *
+     * @author Michael Mario Kubicki
+     */
+    public synchronized void ClearChecked() {
+        checked.clear();
+        checkedOther.clear();
+    }
+
+    /**
+     * Release resources, unsaved changes are lost
+     *
+     * @throws IOException Exception while closing
+     * @author Michael Mario Kubicki
+     */
+    public void Close() throws IOException {
+        //State is in memory and mapped snapshot, nothing to release
     }
 
     /**
-     * Get the Difference from checkedFiles and controllList
+     * Get the known files not checked in this run
      * basically the deleted files
      *
      * @return path of deleted Files
      * @author Michael Mario Kubicki
      */
-    public Set<String> GetDifference() {
-        //Try making copy of keySet from HashMap
-        //to modify with removeAll with controllList
-        HashMap<String, String> test = (HashMap<String, String>) checkedFiles.clone();
-        Set<String> testSet = test.keySet();
-        testSet.removeAll(controllList);
+    public synchronized Set<String> GetDifference() {
+        Set<String> deleted = new TreeSet<>();
 
-        return testSet;
+        snapshot.ForEachUnmarked(checked, (path, entry) -> {
+            if (!changes.containsKey(path))
+                deleted.add(path);
+        });
+        changes.forEach((path, entry) -> {
+            if (entry != Entry.REMOVED && !wasChecked(path))
+                deleted.add(path);
+        });
+
+        return deleted;
+    }
+
+    /**
+     * Select hash used for files whose size or modification time changed
+     *
+     * @param algorithm hash to use
+     * @author Michael Mario Kubicki
+     */
+    public void SetAlgorithm(HashAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Hash files bigger than threshold only by samples of head, middle and tail
+     * Much less to read for big files, but a change between the samples
+     * keeping size and modification time is missed
+     * Changing the threshold makes files crossing it look changed once
+     *
+     * @param threshold size in bytes, 0 or less hashes every file completely
+     * @author Michael Mario Kubicki
+     */
+    public void SetSampling(long threshold) {
+        this.sampleThreshold = Math.max(0, threshold);
     }
 
     /**
      * Check if the file is new/needs update/or nothing
+     * Reads attributes of file first
      *
      * @param file File to check
      * @return State what to do
-     * @throws NoSuchAlgorithmException shouldn't be thrown at all (except your java has no MD5)
+     * @throws IOException Exception while reading file
      * @author Michael Mario Kubicki
+     * @see CheckedList#CheckFile(File, BasicFileAttributes)
      */
-    public FileState CheckFile(File file) throws NoSuchAlgorithmException {
+    public FileState CheckFile(File file) throws IOException {
+        return CheckFile(file, Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+    }
 
-        if (controllList == null)
-            controllList = new TreeSet<>();
+    /**
+     * Check if the file is new/needs update/or nothing
+     * Files with same size, modification time and file key as last run are not read at all
+     *
+     * @param file  File to check
+     * @param attrs attributes of file, e.g. read while crawling
+     * @return State what to do
+     * @throws IOException Exception while reading file
+     * @author Michael Mario Kubicki
+     */
+    public FileState CheckFile(File file, BasicFileAttributes attrs) throws IOException {
 
-        controllList.add(file.getPath());
+        String path = file.getPath();
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        long fileKey = FileKey(attrs);
 
-        //Calculate MD5 hash of File to see change
+        markChecked(path);
+        Entry known = lookup(path);
 
-        //See https://stackoverflow.com/a/304350
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        try (InputStream is = new FileInputStream(file);
-             DigestInputStream dis = new DigestInputStream(is, md)) {
-            //Read complete File
-            while (dis.available() > 0) {
-                dis.read();
-            }
-        } catch (IOException ex) {
-            ex.printStackTrace(System.out);
-            System.exit(-1);
+        //Tier 1: same size, modification time and file -> known without hashing
+        //no key on one side (file system without keys, older state) doesn't count as changed
+        if (known != null && known.Size == size && known.Modified == modified
+                && (known.FileKey == fileKey || known.FileKey == 0 || fileKey == 0)) {
+            BY_ATTRIBUTES.Inc();
+            SKIPPED_BYTES.Add(size);
+            //Take over key into state of older versions
+            if (known.FileKey == 0 && fileKey != 0)
+                record(path, new Entry(size, modified, fileKey, known.Digest));
+            return FileState.Known;
         }
 
-        byte[] hash_bytes = md.digest();
-        StringBuilder hash = new StringBuilder();
-        for (byte b : hash_bytes) {
-            hash.append(Integer.toString(b, 16));
+        //Tier 2: calculate hash of File to see change, sampled for big files
+        //Hashing is done outside the lock
+        boolean sampled = sampleThreshold > 0 && size > sampleThreshold && size > 3 * SAMPLE_BYTES;
+        long start = HASH.Start();
+        byte[] digest = sampled ? FileHasher.HashSampled(file, algorithm, SAMPLE_BYTES) : FileHasher.Hash(file, algorithm);
+        digest = Arrays.copyOf(digest, Manifest.DIGEST_WIDTH);
+        HASH.Stop(start);
+        if (sampled) {
+            BY_SAMPLE.Inc();
+            HASHED_BYTES.Add(3 * SAMPLE_BYTES);
+            SKIPPED_BYTES.Add(size - 3 * SAMPLE_BYTES);
+        } else {
+            BY_HASH.Inc();
+            HASHED_BYTES.Add(size);
         }
-
-        //Result in hash.toString()
+        record(path, new Entry(size, modified, fileKey, digest));
 
         //Check if we know this file
         //Don't know -> new
         //Know, but changed hash -> update
         //Know and same hash -> known (do nothing)
-        if (checkedFiles.containsKey(file.getPath())) {
-            if (checkedFiles.get(file.getPath()).equals(hash.toString()))
-                return FileState.Known;
-            else {
-                checkedFiles.replace(file.getPath(), hash.toString());
-                return FileState.Update;
-            }
-        } else {
-            checkedFiles.put(file.getPath(), hash.toString());
+        if (known == null)
             return FileState.New;
+        else if (Arrays.equals(known.Digest, digest))
+            return FileState.Known;
+        else
+            return FileState.Update;
+    }
+
+    /**
+     * Forget a file, e.g. after it was removed from the index
+     *
+     * @param path path of the file
+     * @author Michael Mario Kubicki
+     */
+    public synchronized void Remove(String path) {
+        changes.put(path, Entry.REMOVED);
+        unsaved.put(path, Entry.REMOVED);
+    }
+
+    /**
+     * Get what is known about a file, including changes of this run
+     *
+     * @param path path of the file
+     * @return Entry or null if unknown
+     * @throws IOException Exception while reading stored state
+     * @author Michael Mario Kubicki
+     */
+    public Entry Get(String path) throws IOException {
+        return lookup(path);
+    }
+
+    /**
+     * Data to store with the commit of the index
+     * Empty as state is stored in own files
+     *
+     * @return commit data
+     * @author Michael Mario Kubicki
+     */
+    public Map<String, String> CommitData() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Check if file was checked in this run
+     *
+     * @param path path of the file
+     * @return true if checked
+     * @author Michael Mario Kubicki
+     */
+    protected boolean wasChecked(String path) {
+        Manifest current = snapshot;
+        int id = current.Find(path);
+        synchronized (this) {
+            //Compacted in between, numbers changed
+            if (current != snapshot)
+                id = snapshot.Find(path);
+            return id >= 0 ? checked.get(id) : checkedOther.contains(path);
+        }
+    }
+
+    /**
+     * Remember that file was checked in this run
+     *
+     * @param path path of the file
+     * @author Michael Mario Kubicki
+     */
+    private void markChecked(String path) {
+        //Searching the mapped snapshot needs no lock
+        Manifest current = snapshot;
+        int id = current.Find(path);
+        synchronized (this) {
+            //Compacted in between, numbers changed
+            if (current != snapshot)
+                id = snapshot.Find(path);
+            if (id >= 0)
+                checked.set(id);
+            else
+                checkedOther.add(path);
         }
     }
 
+    /**
+     * Remember new state of file
+     *
+     * @param path  path of the file
+     * @param entry new state
+     * @author Michael Mario Kubicki
+     */
+    protected synchronized void record(String path, Entry entry) {
+        changes.put(path, entry);
+        unsaved.put(path, entry);
+    }
+
+    /**
+     * Entry of path, changes first then snapshot
+     *
+     * @param path path of file
+     * @return Entry or null if unknown
+     * @throws IOException Exception while reading stored state
+     * @author Michael Mario Kubicki
+     */
+    protected synchronized Entry lookup(String path) throws IOException {
+        Entry entry = changes.get(path);
+        if (entry == Entry.REMOVED)
+            return null;
+        if (entry != null)
+            return entry;
+        return snapshot.Lookup(path);
+    }
+
+    /**
+     * Number identifying the file on its file system, e.g. device and inode
+     * A file replaced by another one gets another key
+     *
+     * @param attrs attributes of file
+     * @return key, 0 if file system has no keys
+     * @author Michael Mario Kubicki
+     */
+    public static long FileKey(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        if (key == null)
+            return 0;
+        //FNV-1a of its description, keys only have to be compared
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.toString().getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static Metrics.Counter tierCounter(String tier) {
+        return Metrics.Counter("ir_change_checks_total", "Checked files by tier deciding if they changed", "tier", tier);
+    }
+
+    private void init() {
+        changes = new HashMap<>();
+        unsaved = new HashMap<>();
+        checked = new BitSet();
+        checkedOther = new HashSet<>();
+        algorithm = HashAlgorithm.MD5;
+    }
+
+    private static Manifest emptySnapshot() {
+        try {
+            return Manifest.Open(new File(""));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Read checked.dat written by older versions
+     * All entries become unsaved changes
+     *
+     * @param in stream to read from
+     * @throws IOException            Exception while reading
+     * @throws ClassNotFoundException class of a serialized object not found
+     * @author Michael Mario Kubicki
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        HashMap<String, String> checkedFiles = (HashMap<String, String>) fields.get("checkedFiles", null);
+        HashMap<String, long[]> fileAttributes = (HashMap<String, long[]>) fields.get("fileAttributes", null);
+
+        init();
+        snapshot = emptySnapshot();
+        legacy = true;
+
+        if (checkedFiles == null)
+            return;
+
+        checkedFiles.forEach((path, hex) -> {
+            long[] attributes = fileAttributes == null ? null : fileAttributes.get(path);
+            //No attributes -> will be hashed again
+            Entry entry = new Entry(
+                    attributes == null ? -1 : attributes[0],
+                    attributes == null ? -1 : attributes[1],
+                    fromHex(hex));
+            changes.put(path, entry);
+            unsaved.put(path, entry);
+        });
+    }
+
+    /**
+     * Only checked.dat of older versions is read, nothing is written that way anymore
+     *
+     * @param out stream to write to
+     * @throws NotSerializableException always
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        throw new NotSerializableException("CheckedList is stored with Save()");
+    }
+
+    //Hash of older versions, unreadable ones give a digest that never matches
+    private static byte[] fromHex(String hex) {
+        byte[] digest = new byte[Manifest.DIGEST_WIDTH];
+        if (hex.length() > 2 * digest.length || hex.length() % 2 != 0)
+            return digest;
+        try {
+            for (int i = 0; i < hex.length() / 2; ++i)
+                digest[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        } catch (NumberFormatException e) {
+            Arrays.fill(digest, (byte) 0);
+        }
+        return digest;
+    }
+
     public enum FileState {
         New,
         Update,
         Known
     }
 
-}
+    /**
+     * What is known about a checked file
+     * Digest is always DIGEST_WIDTH bytes long, FileKey is 0 if unknown
+     */
+    public static class Entry {
+        //Length of stored digests, shorter hashes are padded with zeros
+        public static final int DIGEST_WIDTH = Manifest.DIGEST_WIDTH;
+
+        //Marks removed file
+        static final Entry REMOVED = new Entry(-1, -1, new byte[DIGEST_WIDTH]);
+
+        public final long Size;
+        public final long Modified;
+        public final long FileKey;
+        public final byte[] Digest;
 
+        public Entry(long size, long modified, byte[] digest) {
+            this(size, modified, 0, digest);
+        }
+
+        public Entry(long size, long modified, long fileKey, byte[] digest) {
+            this.Size = size;
+            this.Modified = modified;
+            this.FileKey = fileKey;
+            this.Digest = digest;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * Hashing of file content for change detection
+ * Buffers and digests are reused per thread,
+ * large files are read memory-mapped
+ *
+ * @author Michael Mario Kubicki
+ */
+public class FileHasher {
+
+    //Size of the reused read buffer
+    private static final int BUFFER_SIZE = 1 << 16;
+    //Files at least this big get memory-mapped instead of read into the buffer
+    private static final long MAP_THRESHOLD = 1 << 22;
+    //Biggest region mapped at once
+    private static final long MAP_REGION = 1 << 28;
+
+    private static final ThreadLocal<ByteBuffer> buffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private static final ThreadLocal<MessageDigest> md5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final ThreadLocal<CRC32> crc32 = ThreadLocal.withInitial(CRC32::new);
+    private static final ThreadLocal<Adler32> adler32 = ThreadLocal.withInitial(Adler32::new);
+
+    /**
+     * Hash complete content of the file
+     *
+     * @param file      File to hash
+     * @param algorithm Hash to use
+     * @return hash as bytes (16 for MD5, 8 for Checksum)
+     * @throws IOException Exception while reading file
+     * @author Michael Mario Kubicki
+     */
+    public static byte[] Hash(File file, HashAlgorithm algorithm) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            return digest(algorithm, consumer -> read(channel, size, consumer));
+        }
+    }
+
+    /**
+     * Hash head, middle and tail of the file plus its size
+     * Reads 3 * sample bytes no matter how big the file is,
+     * files not bigger than that are hashed completely
+     * A change between the samples keeping the size is not seen
+     *
+     * @param file      File to hash
+     * @param algorithm Hash to use
+     * @param sample    bytes read at each of the three positions
+     * @return hash as bytes (16 for MD5, 8 for Checksum)
+     * @throws IOException Exception while reading file
+     * @author Michael Mario Kubicki
+     */
+    public static byte[] HashSampled(File file, HashAlgorithm algorithm, long sample) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= 3 * sample)
+                return digest(algorithm, consumer -> read(channel, size, consumer));
+
+            return digest(algorithm, consumer -> {
+                for (long position : new long[]{0, (size - sample) / 2, size - sample})
+                    readRegion(channel, position, sample, consumer);
+                ByteBuffer length = ByteBuffer.allocate(8);
+                length.putLong(size).flip();
+                consumer.accept(length);
+            });
+        }
+    }
+
+    /**
+     * Feed data into reused digest of algorithm
+     *
+     * @param algorithm Hash to use
+     * @param feeder    hands data to the digest
+     * @return hash as bytes (16 for MD5, 8 for Checksum)
+     * @throws IOException Exception while reading file
+     * @author Michael Mario Kubicki
+     */
+    private static byte[] digest(HashAlgorithm algorithm, Feeder feeder) throws IOException {
+        switch (algorithm) {
+            case Checksum:
+                CRC32 crc = crc32.get();
+                Adler32 adler = adler32.get();
+                crc.reset();
+                adler.reset();
+                feeder.feed(region -> {
+                    //Both consume the buffer, so let the second one start at same position
+                    int position = region.position();
+                    crc.update(region);
+                    region.position(position);
+                    adler.update(region);
+                });
+                return ByteBuffer.allocate(8)
+                        .putInt((int) crc.getValue())
+                        .putInt((int) adler.getValue())
+                        .array();
+            case MD5:
+            default:
+                MessageDigest md = md5.get();
+                md.reset();
+                feeder.feed(md::update);
+                return md.digest();
+        }
+    }
+
+    /**
+     * Convert hash to hex string
+     *
+     * @param hash hash bytes
+     * @return lowercase hex, two chars per byte
+     * @author Michael Mario Kubicki
+     */
+    public static String ToHex(byte[] hash) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; ++i) {
+            hex[2 * i] = digits[(hash[i] >> 4) & 0xF];
+            hex[2 * i + 1] = digits[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Feed complete channel to consumer
+     * either through mapped regions or through the reused buffer
+     *
+     * @param channel  opened file
+     * @param size     size of file
+     * @param consumer gets every region/buffer filled with data
+     * @throws IOException Exception while reading file
+     * @author Michael Mario Kubicki
+     */
+    private static void read(FileChannel channel, long size, RegionConsumer consumer) throws IOException {
+        if (size >= MAP_THRESHOLD) {
+            for (long position = 0; position < size; position += MAP_REGION) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, Math.min(MAP_REGION, size - position));
+                consumer.accept(region);
+            }
+            return;
+        }
+
+        //Read until end of file, not until available() says so
+        ByteBuffer buf = buffer.get();
+        buf.clear();
+        while (channel.read(buf) != -1) {
+            buf.flip();
+            consumer.accept(buf);
+            buf.clear();
+        }
+    }
+
+    /**
+     * Feed part of channel to consumer through the reused buffer
+     *
+     * @param channel  opened file
+     * @param position first byte
+     * @param length   number of bytes
+     * @param consumer gets every buffer filled with data
+     * @throws IOException Exception while reading file
+     * @author Michael Mario Kubicki
+     */
+    private static void readRegion(FileChannel channel, long position, long length, RegionConsumer consumer) throws IOException {
+        ByteBuffer buf = buffer.get();
+        while (length > 0) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), length));
+            int read = channel.read(buf, position);
+            if (read <= 0)
+                return;
+            buf.flip();
+            consumer.accept(buf);
+            position += read;
+            length -= read;
+        }
+    }
+
+    private interface Feeder {
+        void feed(RegionConsumer consumer) throws IOException;
+    }
+
+    private interface RegionConsumer {
+        void accept(ByteBuffer region);
+    }
+}
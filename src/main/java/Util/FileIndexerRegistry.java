@@ -0,0 +1,125 @@
+package Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the IFileIndexer for a file
+ * One hash lookup on the extension, MIME type only if no extension matches
+ * <p>
+ * Load() takes every IFileIndexer found by ServiceLoader,
+ * Register(...) adds or replaces by hand
+ *
+ * @author Michael Mario Kubicki
+ * @see IFileIndexer
+ * @see FileIndexerRegistry#Load()
+ */
+public class FileIndexerRegistry {
+
+    //Extension with dot, lower case -> indexer
+    private final Map<String, IFileIndexer> byExtension = new ConcurrentHashMap<>();
+    //MIME type -> indexer
+    private final Map<String, IFileIndexer> byMimeType = new ConcurrentHashMap<>();
+
+    /**
+     * Registry with all indexers found by ServiceLoader
+     * Cheapest indexer wins if several handle the same type
+     *
+     * @return FileIndexerRegistry
+     * @author Michael Mario Kubicki
+     */
+    public static FileIndexerRegistry Load() {
+        FileIndexerRegistry registry = new FileIndexerRegistry();
+        for (IFileIndexer indexer : ServiceLoader.load(IFileIndexer.class)) {
+            for (String extension : indexer.extensions())
+                byCost(registry.byExtension, normalize(extension), indexer);
+            for (String mimeType : indexer.mimeTypes())
+                byCost(registry.byMimeType, mimeType.toLowerCase(), indexer);
+        }
+        return registry;
+    }
+
+    /**
+     * Use indexer for files with extension, replaces previous one
+     *
+     * @param extension file extension, with or without dot
+     * @param indexer   Indexer
+     * @author Michael Mario Kubicki
+     */
+    public void Register(String extension, IFileIndexer indexer) {
+        byExtension.put(normalize(extension), indexer);
+    }
+
+    /**
+     * Use indexer for all types it declares, replaces previous ones
+     *
+     * @param indexer Indexer
+     * @author Michael Mario Kubicki
+     */
+    public void Register(IFileIndexer indexer) {
+        for (String extension : indexer.extensions())
+            Register(extension, indexer);
+        for (String mimeType : indexer.mimeTypes())
+            byMimeType.put(mimeType.toLowerCase(), indexer);
+    }
+
+    /**
+     * Indexer for file
+     *
+     * @param file File
+     * @return IFileIndexer or null if none handles it
+     * @author Michael Mario Kubicki
+     */
+    public IFileIndexer Get(File file) {
+        IFileIndexer indexer = byExtension.get(Extension(file.getName()));
+        if (indexer != null || byMimeType.isEmpty())
+            return indexer;
+
+        try {
+            String mimeType = Files.probeContentType(file.toPath());
+            return mimeType == null ? null : byMimeType.get(mimeType.toLowerCase());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Registered extensions
+     *
+     * @return extensions with dot
+     * @author Michael Mario Kubicki
+     */
+    public Set<String> Extensions() {
+        return byExtension.keySet();
+    }
+
+    /**
+     * Extension of file name, lower case with dot
+     *
+     * @param fileName name of file
+     * @return extension or "" if there is none
+     * @author Michael Mario Kubicki
+     */
+    public static String Extension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0)
+            return "";
+        return fileName.substring(dot).toLowerCase();
+    }
+
+    private static String normalize(String extension) {
+        extension = extension.toLowerCase();
+        return extension.startsWith(".") ? extension : "." + extension;
+    }
+
+    private static void byCost(Map<String, IFileIndexer> map, String key, IFileIndexer indexer) {
+        IFileIndexer old = map.get(key);
+        if (old == null || indexer.cost() < old.cost())
+            map.put(key, indexer);
+    }
+}
@@ -0,0 +1,19 @@
+package Util;
+
+/**
+ * Enum for selection of hash used to detect changed files
+ */
+public enum HashAlgorithm {
+    MD5("MD5"),
+    Checksum("CRC32 + Adler32");
+
+    private String name;
+
+    HashAlgorithm(String stringVal) {
+        name = stringVal;
+    }
+
+    public String toString() {
+        return name;
+    }
+}
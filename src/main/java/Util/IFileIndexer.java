@@ -4,7 +4,69 @@ import org.apache.lucene.document.Document;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
+/**
+ * Turns a file into a Document
+ * Implementations listed in META-INF/services/Util.IFileIndexer are found by FileIndexerRegistry,
+ * they need a public no-argument constructor
+ *
+ * @author Michael Mario Kubicki
+ * @see FileIndexerRegistry
+ */
 public interface IFileIndexer {
     Document index(File file) throws IOException;
+
+    /**
+     * All documents of a file, e.g. one per passage of a big file
+     * All of them need the same "path", they are replaced/removed together
+     *
+     * @param file File
+     * @return documents, at least one
+     * @throws IOException Exception while reading file
+     */
+    default List<Document> indexAll(File file) throws IOException {
+        return Collections.singletonList(index(file));
+    }
+
+    /**
+     * File extensions handled, lower case with dot (".html")
+     *
+     * @return extensions
+     */
+    default Set<String> extensions() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * MIME types handled, used if no extension matches
+     *
+     * @return MIME types
+     */
+    default Set<String> mimeTypes() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Relative work per byte, 1 = reading plain text
+     * If several indexers handle the same type the cheapest is used
+     *
+     * @return cost hint
+     */
+    default int cost() {
+        return 1;
+    }
+
+    /**
+     * Content is read while indexing (Reader/TokenStream fields)
+     * instead of being held in memory for the whole document
+     * Documents may wait in a batch before being indexed, readers should open the file on first read
+     *
+     * @return true if memory doesn't grow with file size
+     */
+    default boolean streaming() {
+        return false;
+    }
 }
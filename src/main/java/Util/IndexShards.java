@@ -0,0 +1,109 @@
+package Util;
+
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Constants;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Layout of a sharded index
+ * Shard i is the index in subdirectory "shard-i" of the index directory,
+ * every document is in the shard its path hashes to
+ * An index without shard directories is one unsharded index
+ *
+ * @author Michael Mario Kubicki
+ */
+public final class IndexShards {
+
+    private static final String PREFIX = "shard-";
+    //Fixed, shard of a path must never change
+    private static final int SEED = 0x5EED;
+
+    private IndexShards() {
+    }
+
+    /**
+     * Shard a path belongs to
+     *
+     * @param path   path of file
+     * @param shards number of shards
+     * @return shard from 0 to shards - 1
+     * @author Michael Mario Kubicki
+     */
+    public static int Of(String path, int shards) {
+        if (shards <= 1)
+            return 0;
+        BytesRef bytes = new BytesRef(path);
+        return Math.floorMod(StringHelper.murmurhash3_x86_32(bytes, SEED), shards);
+    }
+
+    /**
+     * Directory of shard
+     *
+     * @param index_dir Directory of index
+     * @param shard     number of shard
+     * @return Directory of shard
+     * @author Michael Mario Kubicki
+     */
+    public static File Dir(File index_dir, int shard) {
+        return new File(index_dir, PREFIX + shard);
+    }
+
+    /**
+     * Directories holding the index, one per shard or just index_dir if not sharded
+     *
+     * @param index_dir Directory of index
+     * @param shards    number of shards
+     * @return Directories
+     * @author Michael Mario Kubicki
+     */
+    public static File[] Dirs(File index_dir, int shards) {
+        if (shards <= 1)
+            return new File[]{index_dir};
+        File[] dirs = new File[shards];
+        for (int i = 0; i < shards; ++i)
+            dirs[i] = Dir(index_dir, i);
+        return dirs;
+    }
+
+    /**
+     * Number of shards of existing index, counted from shard-0 on
+     * Only shards with a commit count
+     *
+     * @param index_dir Directory of index
+     * @return number of shards, 1 if not sharded
+     * @author Michael Mario Kubicki
+     */
+    public static int Count(File index_dir) {
+        int count = 0;
+        while (hasCommit(Dir(index_dir, count)))
+            count++;
+        return Math.max(1, count);
+    }
+
+    /**
+     * Open index or shard directory
+     * memory mapped on 64-bit Linux, otherwise what Lucene thinks is best
+     *
+     * @param dir Directory of index or shard
+     * @return Directory
+     * @throws IOException Exception concerning Access to directory
+     * @author Michael Mario Kubicki
+     */
+    public static Directory Open(File dir) throws IOException {
+        if (Constants.LINUX && Constants.JRE_IS_64BIT)
+            return new MMapDirectory(dir.toPath());
+        return FSDirectory.open(dir.toPath());
+    }
+
+    private static boolean hasCommit(File dir) {
+        String[] segments = dir.list((parent, name) -> name.startsWith(IndexFileNames.SEGMENTS + "_"));
+        return segments != null && segments.length > 0;
+    }
+}
@@ -8,8 +8,10 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
@@ -23,6 +25,14 @@ public class Information {
 
     //Additional flag
     public static boolean VERBOSE;
+    //Run as search server instead of answering one query
+    public boolean Server;
+    //Keep watching document directory after indexing
+    public boolean Watch;
+    //Query is a file with one query per line
+    public boolean Batch;
+    //Shard to index again from scratch instead of indexing changes, -1 = none
+    public int RebuildShard;
     //Information taken from commandline
     public File DocumentDirectory;
     public File IndexDirectory;
@@ -31,6 +41,62 @@ public class Information {
     //Information from own settings and user-settings
     public int ResultCount;
     public Set<String> FileTypes;
+    //Number of indexing workers, 0 = one per processor
+    public int IndexThreads;
+    //Finding files: threads listing directories (0 = one per processor), globs relative to document directory,
+    //symbolic links (SKIP, FILES or FOLLOW), maximum depth (0 = unlimited)
+    public int CrawlThreads;
+    public List<String> CrawlInclude;
+    public List<String> CrawlExclude;
+    public LinkPolicy CrawlLinks;
+    public int CrawlMaxDepth;
+    //Hash used to detect changed files, files bigger than sample size only get a sampled hash (0 = never)
+    public HashAlgorithm Hash;
+    public long HashSampleBytes;
+    //Keep state of checked files in index instead of own files
+    public boolean StateInIndex;
+    //Port of search server and interval to look for new commits
+    public int ServerPort;
+    public long ServerRefreshMillis;
+    //Quiet time before changed file is indexed, maximum time/number of changes before commit
+    public long WatchDebounceMillis;
+    public long WatchCommitMillis;
+    public int WatchCommitCount;
+    //Threads searching segments of one query (1 = calling thread), workers for batches (0 = one per processor)
+    public int SearchThreads;
+    public int BatchThreads;
+    //Hits counted exactly, more are only a lower bound (0 = always exact)
+    public int TotalHitsThreshold;
+    //Content terms in suggester of server (0 = only titles, -1 = no suggestions), minimum time between two builds
+    public int SuggestTerms;
+    public long SuggestRefreshMillis;
+    //Content stored per document for snippets (0 = none, needs new index), passages per result (0 = no snippets),
+    //stored fields compressed harder
+    public int SnippetChars;
+    public int SnippetPassages;
+    public boolean SnippetCompression;
+    //Cached queries of server/batch (0 = no cache) and their maximum memory
+    public int CacheEntries;
+    public long CacheBytes;
+    //Charset of text files (null = detect), size above which they are split into passages (0 = never)
+    public Charset TextCharset;
+    public long PassageBytes;
+    //Changes collected per indexing thread before they are written
+    public int BatchDocs;
+    public long BatchBytes;
+    //Memory/documents buffered by IndexWriter before writing a segment (0 = no limit by it)
+    public double RamBufferMB;
+    public int MaxBufferedDocs;
+    //Merging: segments of same size allowed, biggest merged segment, compound files for new segments
+    public double SegmentsPerTier;
+    public double MaxSegmentMB;
+    public boolean CompoundFile;
+    //Number of shards of index (1 = not sharded), has to stay the same for an index
+    public int Shards;
+    //File metrics are written to (null = none) and how often, register metrics with JMX
+    public File MetricsFile;
+    public long MetricsIntervalMillis;
+    public boolean MetricsJMX;
 
     /**
      * empty constructor for own setup
@@ -40,6 +106,47 @@ public class Information {
     public Information() {
         VERBOSE = false;
         FileTypes = new TreeSet<>();
+        IndexThreads = 1;
+        CrawlThreads = 0;
+        CrawlInclude = new ArrayList<>();
+        CrawlExclude = new ArrayList<>();
+        CrawlLinks = LinkPolicy.Follow;
+        CrawlMaxDepth = 0;
+        Hash = HashAlgorithm.MD5;
+        HashSampleBytes = 0;
+        StateInIndex = false;
+        Server = false;
+        ServerPort = 8080;
+        ServerRefreshMillis = 1000;
+        Watch = false;
+        WatchDebounceMillis = 500;
+        WatchCommitMillis = 5000;
+        WatchCommitCount = 1000;
+        Batch = false;
+        SearchThreads = 1;
+        BatchThreads = 0;
+        TotalHitsThreshold = 1000;
+        SuggestTerms = 50000;
+        SuggestRefreshMillis = 60000;
+        SnippetChars = 10000;
+        SnippetPassages = 2;
+        SnippetCompression = false;
+        CacheEntries = 1000;
+        CacheBytes = 16L << 20;
+        TextCharset = null;
+        PassageBytes = 64L << 20;
+        BatchDocs = 256;
+        BatchBytes = 32L << 20;
+        RamBufferMB = 64;
+        MaxBufferedDocs = 0;
+        SegmentsPerTier = 10;
+        MaxSegmentMB = 5 * 1024;
+        CompoundFile = true;
+        Shards = 1;
+        RebuildShard = -1;
+        MetricsFile = null;
+        MetricsIntervalMillis = 10000;
+        MetricsJMX = true;
     }
 
     /**
@@ -58,6 +165,16 @@ public class Information {
         if (Arg.contains("-h")) {
             System.out.println("USAGE: ");
             System.out.println("IR_P.jar [path_to_document_folder] [path_to_index_folder] [VS/OK] [\"query\"] [optional: path_to_settings.xml]");
+            System.out.println("IR_P.jar -s [path_to_document_folder] [path_to_index_folder] [VS/OK] [optional: path_to_settings.xml]");
+            System.out.println("IR_P.jar -w [path_to_document_folder] [path_to_index_folder] [VS/OK] [optional: path_to_settings.xml]");
+            System.out.println("IR_P.jar -b [path_to_document_folder] [path_to_index_folder] [VS/OK] [path_to_query_file] [optional: path_to_settings.xml]");
+            System.out.println("-v verbose output of indexing");
+            System.out.println("-s index, then keep answering queries on http://localhost:[server_port]/search?q=query&n=count");
+            System.out.println("   add &cursor= for pages, next page with &cursor=[next_cursor of answer]");
+            System.out.println("   prefixes are completed on http://localhost:[server_port]/suggest?q=prefix&n=count");
+            System.out.println("-w index, then keep indexing changes of document folder (combine with -s to search them)");
+            System.out.println("-b search every line of query file ([id<TAB>]query), results in TREC run format");
+            System.out.println("-r [shard] index given shard of a sharded index (index_shards) again from scratch");
             System.exit(0);
         }
         //Check for verbose flag
@@ -65,29 +182,59 @@ public class Information {
             VERBOSE = true;
             Arg.remove("-v");
         }
+        //Check for server flag
+        if (Arg.contains("-s")) {
+            information.Server = true;
+            Arg.remove("-s");
+        }
+        //Check for watch flag
+        if (Arg.contains("-w")) {
+            information.Watch = true;
+            Arg.remove("-w");
+        }
+        //Check for batch flag
+        if (Arg.contains("-b")) {
+            information.Batch = true;
+            Arg.remove("-b");
+        }
+        //Check for rebuild flag, followed by number of shard
+        int rebuild = Arg.indexOf("-r");
+        if (rebuild >= 0) {
+            try {
+                information.RebuildShard = Integer.parseInt(Arg.get(rebuild + 1));
+            } catch (Exception e) {
+                System.out.println("Missing number of shard after -r");
+                errorUsage();
+            }
+            Arg.remove(rebuild + 1);
+            Arg.remove(rebuild);
+        }
 
         //After removal of additional flags
         //commandline should only have at least 4 parts
         //5 if you use additional settings
+        //no query as server/watcher -> one less
         //Check for sanity
-        if (Arg.size() < 4 || Arg.size() > 5) {
+        boolean longRunning = information.Server || information.Watch;
+        int needed = longRunning ? 3 : 4;
+        if (Arg.size() < needed || Arg.size() > needed + 1) {
             errorUsage();
         }
 
         //First command = document directory
         //Check if exists, as it is primary input
-        information.DocumentDirectory = getDirectory(args[0]);
+        information.DocumentDirectory = getDirectory(Arg.get(0));
 
         //Second command = index directory
         //Could exist or not
         //only surface check for validity and create if needed
-        information.IndexDirectory = new File(args[1]);
+        information.IndexDirectory = new File(Arg.get(1));
         if (!information.IndexDirectory.exists())
             information.IndexDirectory.mkdirs();
 
         //Third command = Ranking Model
         //Select case
-        switch (args[2].toUpperCase()) {
+        switch (Arg.get(2).toUpperCase()) {
             case "VS":
                 information.Ranking = RankingModel.VectorSpace;
                 break;
@@ -101,7 +248,13 @@ public class Information {
         }
 
         //Fourth command = Query
-        information.Query = args[3];
+        //or file of queries in batch mode
+        if (!longRunning)
+            information.Query = Arg.get(3);
+        if (information.Batch && !longRunning && !new File(information.Query).isFile()) {
+            System.out.println("Error with: " + information.Query);
+            errorUsage();
+        }
 
         //Load Settings from internal storage
         //Basic number of results and used file extensions
@@ -112,11 +265,11 @@ public class Information {
         }
 
         //If additional Settings load them
-        if (args.length == 5) {
+        if (Arg.size() == needed + 1) {
             try {
                 //Fifth command = path to settings
                 //Read and load
-                File inputFile = new File(args[4]);
+                File inputFile = new File(Arg.get(needed));
                 InputStream is = new FileInputStream(inputFile);
                 information.loadSettings(is);
 
@@ -139,6 +292,9 @@ public class Information {
     private static void errorUsage() {
         System.out.println("Wrong usage:");
         System.out.println("IR_P.jar [path_to_document_folder] [path_to_index_folder] [VS/OK] [query] [optional: path_to_settings.xml]");
+        System.out.println("IR_P.jar -s [path_to_document_folder] [path_to_index_folder] [VS/OK] [optional: path_to_settings.xml]");
+        System.out.println("IR_P.jar -w [path_to_document_folder] [path_to_index_folder] [VS/OK] [optional: path_to_settings.xml]");
+        System.out.println("IR_P.jar -b [path_to_document_folder] [path_to_index_folder] [VS/OK] [path_to_query_file] [optional: path_to_settings.xml]");
         System.out.println("or ir_programming_task.jar -h for more information");
         System.exit(-1);
     }
@@ -184,9 +340,32 @@ public class Information {
      * Load XML from inputStream
      * <p>
      * Settings = XML
-     * Two elements (both optional)
+     * Elements (all optional)
      * - number_results
      * - file_types (multiple delimited by ';'
+     * - index_threads (0 = one per processor)
+     * - crawl_threads (directories listed at once, 0 = one per processor)
+     * - crawl_include, crawl_exclude (globs relative to document folder, multiple delimited by ';')
+     * - crawl_links (SKIP, FILES or FOLLOW symbolic links, FOLLOW by default), crawl_max_depth (0 = unlimited)
+     * - hash_algorithm (MD5 or CHECKSUM), hash_sample_mb (bigger files only hashed at head, middle and tail, 0 = never)
+     * - checked_storage (FILES or INDEX)
+     * - server_port, server_refresh_ms (only used with -s)
+     * - watch_debounce_ms, watch_commit_ms, watch_commit_count (only used with -w)
+     * - search_threads (threads per query, 1 = none extra, 0 = one per processor)
+     * - batch_threads (queries searched at once with -b, 0 = one per processor)
+     * - total_hits_threshold (hits counted exactly, 0 = always exact)
+     * - cache_entries, cache_mb (result cache of -s/-b, 0 entries = no cache)
+     * - suggest_terms, suggest_refresh_ms (prefix suggestions of -s, 0 terms = only titles, -1 = no suggestions)
+     *   terms are suggested as the words found for them in titles and stored content,
+     *   with snippet_chars 0 only terms also found in titles are suggested
+     * - snippet_chars (content stored per document, 0 = none), snippet_passages (per result, 0 = no snippets)
+     * - snippet_compression (FAST or HIGH, HIGH = smaller index but slower snippets)
+     * - text_charset (AUTO or charset name), passage_mb (split bigger text files, 0 = never)
+     * - batch_docs, batch_mb (changes collected by each indexing thread before writing them)
+     * - ram_buffer_mb, max_buffered_docs (new segment when reached, 0 = not used)
+     * - segments_per_tier, max_segment_mb, compound_file (merging, compound_file is YES or NO)
+     * - index_shards (number of shards, 1 = not sharded, can't be changed for existing index)
+     * - metrics_file, metrics_interval_ms (Prometheus text file, empty = none), metrics_jmx (YES or NO)
      * nested in "settings" tag
      *
      * @param inputStream
@@ -210,6 +389,293 @@ public class Information {
             //Ignore. just dont update
         }
 
+        //Try Parsing index_threads
+        String index_threads = getText(document.getElementsByTagName("index_threads"));
+        try {
+            this.IndexThreads = Integer.parseInt(index_threads);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing crawl_threads, crawl_include, crawl_exclude, crawl_links and crawl_max_depth
+        String crawl_threads = getText(document.getElementsByTagName("crawl_threads"));
+        try {
+            this.CrawlThreads = Integer.parseInt(crawl_threads);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        this.CrawlInclude.addAll(Arrays.stream(getText(document.getElementsByTagName("crawl_include")).split(";"))
+                .map(String::trim)
+                .filter(str -> !str.equals(""))
+                .collect(Collectors.toList()));
+        this.CrawlExclude.addAll(Arrays.stream(getText(document.getElementsByTagName("crawl_exclude")).split(";"))
+                .map(String::trim)
+                .filter(str -> !str.equals(""))
+                .collect(Collectors.toList()));
+        switch (getText(document.getElementsByTagName("crawl_links")).toUpperCase()) {
+            case "SKIP":
+                this.CrawlLinks = LinkPolicy.Skip;
+                break;
+            case "FILES":
+                this.CrawlLinks = LinkPolicy.Files;
+                break;
+            case "FOLLOW":
+                this.CrawlLinks = LinkPolicy.Follow;
+                break;
+            default:
+                //Ignore. just dont update
+                break;
+        }
+        String crawl_depth = getText(document.getElementsByTagName("crawl_max_depth"));
+        try {
+            this.CrawlMaxDepth = Integer.parseInt(crawl_depth);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing hash_algorithm
+        switch (getText(document.getElementsByTagName("hash_algorithm")).toUpperCase()) {
+            case "MD5":
+                this.Hash = HashAlgorithm.MD5;
+                break;
+            case "CHECKSUM":
+                this.Hash = HashAlgorithm.Checksum;
+                break;
+            default:
+                //Ignore. just dont update
+                break;
+        }
+
+        //Try Parsing hash_sample_mb
+        String hash_sample = getText(document.getElementsByTagName("hash_sample_mb"));
+        try {
+            this.HashSampleBytes = Long.parseLong(hash_sample) << 20;
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing checked_storage
+        switch (getText(document.getElementsByTagName("checked_storage")).toUpperCase()) {
+            case "FILES":
+                this.StateInIndex = false;
+                break;
+            case "INDEX":
+                this.StateInIndex = true;
+                break;
+            default:
+                //Ignore. just dont update
+                break;
+        }
+
+        //Try Parsing server_port and server_refresh_ms
+        String server_port = getText(document.getElementsByTagName("server_port"));
+        try {
+            this.ServerPort = Integer.parseInt(server_port);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        String server_refresh = getText(document.getElementsByTagName("server_refresh_ms"));
+        try {
+            this.ServerRefreshMillis = Long.parseLong(server_refresh);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing watch_debounce_ms, watch_commit_ms and watch_commit_count
+        String watch_debounce = getText(document.getElementsByTagName("watch_debounce_ms"));
+        try {
+            this.WatchDebounceMillis = Long.parseLong(watch_debounce);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        String watch_commit = getText(document.getElementsByTagName("watch_commit_ms"));
+        try {
+            this.WatchCommitMillis = Long.parseLong(watch_commit);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        String watch_count = getText(document.getElementsByTagName("watch_commit_count"));
+        try {
+            this.WatchCommitCount = Integer.parseInt(watch_count);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing search_threads and batch_threads
+        String search_threads = getText(document.getElementsByTagName("search_threads"));
+        try {
+            this.SearchThreads = Integer.parseInt(search_threads);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        String batch_threads = getText(document.getElementsByTagName("batch_threads"));
+        try {
+            this.BatchThreads = Integer.parseInt(batch_threads);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing total_hits_threshold
+        String total_hits = getText(document.getElementsByTagName("total_hits_threshold"));
+        try {
+            this.TotalHitsThreshold = Integer.parseInt(total_hits);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing cache_entries and cache_mb
+        String cache_entries = getText(document.getElementsByTagName("cache_entries"));
+        try {
+            this.CacheEntries = Integer.parseInt(cache_entries);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        String cache_mb = getText(document.getElementsByTagName("cache_mb"));
+        try {
+            this.CacheBytes = Long.parseLong(cache_mb) << 20;
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing suggest_terms and suggest_refresh_ms
+        String suggest_terms = getText(document.getElementsByTagName("suggest_terms"));
+        try {
+            this.SuggestTerms = Integer.parseInt(suggest_terms);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        String suggest_refresh = getText(document.getElementsByTagName("suggest_refresh_ms"));
+        try {
+            this.SuggestRefreshMillis = Long.parseLong(suggest_refresh);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing snippet_chars, snippet_passages and snippet_compression
+        String snippet_chars = getText(document.getElementsByTagName("snippet_chars"));
+        try {
+            this.SnippetChars = Integer.parseInt(snippet_chars);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        String snippet_passages = getText(document.getElementsByTagName("snippet_passages"));
+        try {
+            this.SnippetPassages = Integer.parseInt(snippet_passages);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        switch (getText(document.getElementsByTagName("snippet_compression")).toUpperCase()) {
+            case "FAST":
+                this.SnippetCompression = false;
+                break;
+            case "HIGH":
+                this.SnippetCompression = true;
+                break;
+            default:
+                //Ignore. just dont update
+                break;
+        }
+
+        //Try Parsing text_charset and passage_mb
+        String text_charset = getText(document.getElementsByTagName("text_charset")).trim();
+        try {
+            if (text_charset.equalsIgnoreCase("AUTO"))
+                this.TextCharset = null;
+            else
+                this.TextCharset = Charset.forName(text_charset);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        String passage_mb = getText(document.getElementsByTagName("passage_mb"));
+        try {
+            this.PassageBytes = Long.parseLong(passage_mb) << 20;
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing batch_docs and batch_mb
+        String batch_docs = getText(document.getElementsByTagName("batch_docs"));
+        try {
+            this.BatchDocs = Integer.parseInt(batch_docs);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        String batch_mb = getText(document.getElementsByTagName("batch_mb"));
+        try {
+            this.BatchBytes = Long.parseLong(batch_mb) << 20;
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing ram_buffer_mb and max_buffered_docs
+        String ram_buffer = getText(document.getElementsByTagName("ram_buffer_mb"));
+        try {
+            this.RamBufferMB = Double.parseDouble(ram_buffer);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        String max_buffered = getText(document.getElementsByTagName("max_buffered_docs"));
+        try {
+            this.MaxBufferedDocs = Integer.parseInt(max_buffered);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing segments_per_tier, max_segment_mb and compound_file
+        String segments_per_tier = getText(document.getElementsByTagName("segments_per_tier"));
+        try {
+            this.SegmentsPerTier = Double.parseDouble(segments_per_tier);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        String max_segment = getText(document.getElementsByTagName("max_segment_mb"));
+        try {
+            this.MaxSegmentMB = Double.parseDouble(max_segment);
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        switch (getText(document.getElementsByTagName("compound_file")).toUpperCase()) {
+            case "YES":
+                this.CompoundFile = true;
+                break;
+            case "NO":
+                this.CompoundFile = false;
+                break;
+            default:
+                //Ignore. just dont update
+                break;
+        }
+
+        //Try Parsing index_shards
+        String index_shards = getText(document.getElementsByTagName("index_shards"));
+        try {
+            this.Shards = Math.max(1, Integer.parseInt(index_shards));
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+
+        //Try Parsing metrics_file, metrics_interval_ms and metrics_jmx
+        String metrics_file = getText(document.getElementsByTagName("metrics_file")).trim();
+        if (!metrics_file.isEmpty())
+            this.MetricsFile = new File(metrics_file);
+        String metrics_interval = getText(document.getElementsByTagName("metrics_interval_ms"));
+        try {
+            this.MetricsIntervalMillis = Math.max(1, Long.parseLong(metrics_interval));
+        } catch (Exception e) {
+            //Ignore. just dont update
+        }
+        switch (getText(document.getElementsByTagName("metrics_jmx")).toUpperCase()) {
+            case "YES":
+                this.MetricsJMX = true;
+                break;
+            case "NO":
+                this.MetricsJMX = false;
+                break;
+            default:
+                //Ignore. just dont update
+                break;
+        }
+
         //Try Parsing file_types
         //Next time just use same tag multiple times...
         String[] types = getText(document.getElementsByTagName("file_types")).split(";");
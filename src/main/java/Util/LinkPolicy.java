@@ -0,0 +1,23 @@
+package Util;
+
+/**
+ * Enum for selection of what happens to symbolic links while crawling
+ */
+public enum LinkPolicy {
+    //Ignore every link
+    Skip("skip"),
+    //Links to files are indexed, links to directories ignored
+    Files("files only"),
+    //Follow links to files and directories, every directory is only crawled once
+    Follow("follow");
+
+    private String name;
+
+    LinkPolicy(String stringVal) {
+        name = stringVal;
+    }
+
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,637 @@
+package Util;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary snapshot of all checked files, read memory-mapped
+ * <p>
+ * Layout:
+ * - header: magic, version, entry count, block count, offset of block index
+ * - blocks of up to BLOCK_SIZE entries sorted by UTF-8 bytes of the path
+ * each entry: shared prefix length with previous entry (vint), suffix length (vint), suffix,
+ * size (long), modification time (long), file key (long, version 2), digest (DIGEST_WIDTH bytes)
+ * first entry of every block has no shared prefix
+ * - block index: start offset of every block (int)
+ * <p>
+ * Changes are not written into the snapshot, they go to the log
+ * and are merged into a new snapshot by Compact
+ * <p>
+ * Snapshots and log records of version 1 have no file key, it is read as 0 (unknown),
+ * new snapshots and records are always written as version 2
+ *
+ * @author Michael Mario Kubicki
+ * @see CheckedList
+ */
+class Manifest {
+
+    static final int DIGEST_WIDTH = 16;
+
+    private static final int MAGIC = 0x434B4C31;
+    private static final int LOG_MAGIC = 0x434B4731;
+    private static final int VERSION = 2;
+    private static final int VERSION_NO_KEY = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int BLOCK_SIZE = 16;
+
+    private static final byte LOG_PUT = 1;
+    private static final byte LOG_REMOVE = 2;
+    private static final byte LOG_PUT_KEY = 3;
+
+    //Mapped snapshot, null if there is none
+    private final MappedByteBuffer data;
+    private final int count;
+    private final int blockCount;
+    private final int indexOffset;
+    //Bytes of an entry after its path, depends on version
+    private final int entryWidth;
+
+    private Manifest(MappedByteBuffer data) throws IOException {
+        this.data = data;
+        if (data == null) {
+            count = 0;
+            blockCount = 0;
+            indexOffset = 0;
+            entryWidth = entryWidth(VERSION);
+            return;
+        }
+
+        data.order(ByteOrder.BIG_ENDIAN);
+        if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC
+                || data.getInt(4) != VERSION && data.getInt(4) != VERSION_NO_KEY)
+            throw new IOException("Not a manifest of checked files");
+        entryWidth = entryWidth(data.getInt(4));
+        count = data.getInt(8);
+        blockCount = data.getInt(12);
+        indexOffset = (int) data.getLong(16);
+    }
+
+    /**
+     * Map snapshot file
+     * A missing file gives an empty snapshot
+     *
+     * @param file snapshot file
+     * @return Snapshot
+     * @throws IOException Exception while reading file or file is no snapshot
+     * @author Michael Mario Kubicki
+     */
+    static Manifest Open(File file) throws IOException {
+        if (!file.isFile())
+            return new Manifest(null);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new Manifest(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Number of entries in snapshot
+     *
+     * @return count
+     * @author Michael Mario Kubicki
+     */
+    int Count() {
+        return count;
+    }
+
+    /**
+     * Find entry of path
+     *
+     * @param path path of file
+     * @return Entry or null if unknown
+     * @author Michael Mario Kubicki
+     */
+    CheckedList.Entry Lookup(String path) {
+        int[] entry = new int[1];
+        if (find(path, entry) < 0)
+            return null;
+        return readEntry(entry[0]);
+    }
+
+    /**
+     * Number of path in snapshot, paths are numbered 0 to Count() - 1 in sorted order
+     * so a snapshot can be used as a dictionary of dense ids
+     *
+     * @param path path of file
+     * @return number or -1 if unknown
+     * @author Michael Mario Kubicki
+     */
+    int Find(String path) {
+        return find(path, new int[1]);
+    }
+
+    /**
+     * Binary search over first paths of blocks, then scan one block
+     *
+     * @param path  path of file
+     * @param entry gets position of entry data
+     * @return number of entry or -1 if unknown
+     * @author Michael Mario Kubicki
+     */
+    private int find(String path, int[] entry) {
+        if (count == 0)
+            return -1;
+
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+
+        //Last block whose first path is <= key
+        int low = 0;
+        int high = blockCount - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = data.getInt(indexOffset + 4 * mid);
+            int[] pos = {offset};
+            readVInt(pos);
+            int length = readVInt(pos);
+            if (compare(pos[0], length, key) <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0)
+            return -1;
+
+        //Decode block until key is found or passed
+        byte[] current = new byte[64];
+        int[] pos = {data.getInt(indexOffset + 4 * block)};
+        int entries = Math.min(BLOCK_SIZE, count - block * BLOCK_SIZE);
+        for (int i = 0; i < entries; ++i) {
+            int shared = readVInt(pos);
+            int suffix = readVInt(pos);
+            if (current.length < shared + suffix)
+                current = Arrays.copyOf(current, Math.max(2 * current.length, shared + suffix));
+            for (int j = 0; j < suffix; ++j)
+                current[shared + j] = data.get(pos[0] + j);
+            pos[0] += suffix;
+
+            int cmp = compare(current, shared + suffix, key);
+            if (cmp == 0) {
+                entry[0] = pos[0];
+                return block * BLOCK_SIZE + i;
+            }
+            if (cmp > 0)
+                return -1;
+            pos[0] += entryWidth;
+        }
+        return -1;
+    }
+
+    /**
+     * Visit all entries in sorted order
+     *
+     * @param visitor gets path and entry
+     * @author Michael Mario Kubicki
+     */
+    void ForEach(EntryVisitor visitor) {
+        Cursor cursor = new Cursor();
+        while (cursor.Next())
+            visitor.visit(cursor.Path(), cursor.Entry());
+    }
+
+    /**
+     * Visit entries whose number is not marked, in sorted order
+     * Marked entries are skipped without building their path
+     *
+     * @param marked  numbers to skip
+     * @param visitor gets path and entry
+     * @author Michael Mario Kubicki
+     */
+    void ForEachUnmarked(BitSet marked, EntryVisitor visitor) {
+        Cursor cursor = new Cursor();
+        while (cursor.Next())
+            if (!marked.get(cursor.read - 1))
+                visitor.visit(cursor.Path(), cursor.Entry());
+    }
+
+    /**
+     * Carry marks over to another snapshot, e.g. a compacted one
+     * Both are walked side by side, a mark moves with its path
+     *
+     * @param marked numbers marked in this snapshot
+     * @param target other snapshot
+     * @return numbers of the same paths in target
+     * @author Michael Mario Kubicki
+     */
+    BitSet Remap(BitSet marked, Manifest target) {
+        BitSet remapped = new BitSet(target.count);
+        if (marked.isEmpty())
+            return remapped;
+
+        Cursor from = new Cursor();
+        Cursor to = target.new Cursor();
+        boolean hasFrom = from.Next();
+        boolean hasTo = to.Next();
+        while (hasFrom && hasTo) {
+            int cmp = compare(from.key, from.length, to.key, to.length);
+            if (cmp == 0 && marked.get(from.read - 1))
+                remapped.set(to.read - 1);
+            if (cmp <= 0)
+                hasFrom = from.Next();
+            if (cmp >= 0)
+                hasTo = to.Next();
+        }
+        return remapped;
+    }
+
+    /**
+     * Write new snapshot from this snapshot and changes
+     * Both are sorted and merged while writing,
+     * so only the changes are held in memory
+     * written to a temporary file first, then moved to file.
+     * file must not be the file of this snapshot, a mapped file can't be replaced on every system
+     *
+     * @param file    file of new snapshot
+     * @param changes changed entries, REMOVED for deletion
+     * @throws IOException Exception while writing
+     * @author Michael Mario Kubicki
+     */
+    void Compact(File file, Map<String, CheckedList.Entry> changes) throws IOException {
+
+        List<byte[]> changedKeys = new ArrayList<>(changes.size());
+        List<CheckedList.Entry> changedEntries = new ArrayList<>(changes.size());
+        changes.keySet().stream()
+                .map(path -> path.getBytes(StandardCharsets.UTF_8))
+                .sorted(Manifest::compare)
+                .forEach(key -> {
+                    changedKeys.add(key);
+                    changedEntries.add(changes.get(new String(key, StandardCharsets.UTF_8)));
+                });
+
+        File tmp = new File(file.getPath() + ".tmp");
+        List<Integer> blockOffsets = new ArrayList<>();
+        int written = 0;
+
+        try (CountingOutputStream counter = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+             DataOutputStream out = new DataOutputStream(counter)) {
+            //Count and index offset get patched in at the end
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeLong(0);
+
+            Cursor cursor = new Cursor();
+            boolean hasBase = cursor.Next();
+            int change = 0;
+            byte[] previous = new byte[0];
+
+            while (hasBase || change < changedKeys.size()) {
+                byte[] key;
+                CheckedList.Entry entry;
+
+                int cmp = !hasBase ? 1 : change == changedKeys.size() ? -1
+                        : compare(cursor.key, cursor.length, changedKeys.get(change));
+                if (cmp < 0) {
+                    key = Arrays.copyOf(cursor.key, cursor.length);
+                    entry = cursor.Entry();
+                    hasBase = cursor.Next();
+                } else {
+                    key = changedKeys.get(change);
+                    entry = changedEntries.get(change);
+                    change++;
+                    //Changed entry replaces the one in snapshot
+                    if (cmp == 0)
+                        hasBase = cursor.Next();
+                    if (entry == CheckedList.Entry.REMOVED)
+                        continue;
+                }
+
+                int shared = 0;
+                if (written % BLOCK_SIZE == 0) {
+                    blockOffsets.add((int) counter.written);
+                } else {
+                    int max = Math.min(previous.length, key.length);
+                    while (shared < max && previous[shared] == key[shared])
+                        shared++;
+                }
+                writeVInt(out, shared);
+                writeVInt(out, key.length - shared);
+                out.write(key, shared, key.length - shared);
+                writeEntry(out, entry);
+                previous = key;
+                written++;
+            }
+
+            long index = counter.written;
+            if (index > Integer.MAX_VALUE)
+                throw new IOException("Manifest of checked files too big");
+            for (int offset : blockOffsets)
+                out.writeInt(offset);
+            out.flush();
+
+            //Patch header
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+                raf.seek(8);
+                raf.writeInt(written);
+                raf.writeInt(blockOffsets.size());
+                raf.writeLong(index);
+                raf.getFD().sync();
+            }
+        }
+
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replay changes written to log
+     * Reading stops at a cut off or broken record (e.g. crash while writing),
+     * the log has to be cut there by TruncateLog(...) before appending to it again
+     *
+     * @param log     log file
+     * @param changes gets all changes, REMOVED for deletion
+     * @return length of the complete records including header, 0 if there is no complete header
+     * @throws IOException Exception while reading or file is no log
+     * @author Michael Mario Kubicki
+     */
+    static long ReadLog(File log, Map<String, CheckedList.Entry> changes) throws IOException {
+        if (!log.isFile() || log.length() < 4)
+            return 0;
+
+        CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(log), 1 << 16));
+        try (DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != LOG_MAGIC)
+                throw new IOException("Not a log of checked files");
+
+            while (true) {
+                long complete = counter.read;
+                int op = in.read();
+                if (op == -1)
+                    return complete;
+                //Not written completely, e.g. zeros of a crash
+                if (op != LOG_PUT && op != LOG_PUT_KEY && op != LOG_REMOVE)
+                    return complete;
+                try {
+                    byte[] key = new byte[readVInt(in)];
+                    in.readFully(key);
+                    String path = new String(key, StandardCharsets.UTF_8);
+                    if (op == LOG_PUT || op == LOG_PUT_KEY) {
+                        long size = in.readLong();
+                        long modified = in.readLong();
+                        long fileKey = op == LOG_PUT_KEY ? in.readLong() : 0;
+                        byte[] digest = new byte[DIGEST_WIDTH];
+                        in.readFully(digest);
+                        changes.put(path, new CheckedList.Entry(size, modified, fileKey, digest));
+                    } else {
+                        changes.put(path, CheckedList.Entry.REMOVED);
+                    }
+                } catch (EOFException e) {
+                    return complete;
+                }
+            }
+        }
+    }
+
+    /**
+     * Cut broken end off log, so appended records follow the last complete one
+     *
+     * @param log    log file
+     * @param length length returned by ReadLog(...)
+     * @throws IOException Exception while writing
+     * @author Michael Mario Kubicki
+     */
+    static void TruncateLog(File log, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Append changes to log
+     *
+     * @param log     log file
+     * @param changes changes to append, REMOVED for deletion
+     * @return size of log after appending
+     * @throws IOException Exception while writing
+     * @author Michael Mario Kubicki
+     */
+    static long AppendLog(File log, Map<String, CheckedList.Entry> changes) throws IOException {
+        boolean fresh = !log.isFile() || log.length() == 0;
+
+        try (FileOutputStream file = new FileOutputStream(log, true);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            if (fresh)
+                out.writeInt(LOG_MAGIC);
+
+            for (Map.Entry<String, CheckedList.Entry> e : changes.entrySet()) {
+                byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+                boolean removed = e.getValue() == CheckedList.Entry.REMOVED;
+                out.write(removed ? LOG_REMOVE : LOG_PUT_KEY);
+                writeVInt(out, key.length);
+                out.write(key);
+                if (!removed)
+                    writeEntry(out, e.getValue());
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        return log.length();
+    }
+
+    /**
+     * Size of snapshot in bytes
+     *
+     * @return size
+     * @author Michael Mario Kubicki
+     */
+    long SizeInBytes() {
+        return data == null ? 0 : data.capacity();
+    }
+
+    private CheckedList.Entry readEntry(int pos) {
+        int digestAt = pos + entryWidth - DIGEST_WIDTH;
+        byte[] digest = new byte[DIGEST_WIDTH];
+        for (int i = 0; i < DIGEST_WIDTH; ++i)
+            digest[i] = data.get(digestAt + i);
+        long fileKey = entryWidth > 16 + DIGEST_WIDTH ? data.getLong(pos + 16) : 0;
+        return new CheckedList.Entry(data.getLong(pos), data.getLong(pos + 8), fileKey, digest);
+    }
+
+    private static void writeEntry(DataOutputStream out, CheckedList.Entry entry) throws IOException {
+        out.writeLong(entry.Size);
+        out.writeLong(entry.Modified);
+        out.writeLong(entry.FileKey);
+        out.write(entry.Digest, 0, DIGEST_WIDTH);
+    }
+
+    private static int entryWidth(int version) {
+        return version == VERSION_NO_KEY ? 16 + DIGEST_WIDTH : 24 + DIGEST_WIDTH;
+    }
+
+    //Compare key stored at pos with given key, unsigned bytes
+    private int compare(int pos, int length, byte[] key) {
+        int max = Math.min(length, key.length);
+        for (int i = 0; i < max; ++i) {
+            int cmp = (data.get(pos + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - key.length;
+    }
+
+    private static int compare(byte[] a, int length, byte[] key) {
+        return compare(a, length, key, key.length);
+    }
+
+    private static int compare(byte[] a, int length, byte[] key, int keyLength) {
+        int max = Math.min(length, keyLength);
+        for (int i = 0; i < max; ++i) {
+            int cmp = (a[i] & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - keyLength;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        return compare(a, a.length, b);
+    }
+
+    private int readVInt(int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data.get(pos[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int readVInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static void writeVInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Sequential decoding of all entries
+     */
+    private class Cursor {
+        private byte[] key = new byte[64];
+        private int length;
+        private int entry;
+        private int pos = HEADER_SIZE;
+        private int read = 0;
+
+        boolean Next() {
+            if (read == count)
+                return false;
+
+            int[] position = {pos};
+            int shared = readVInt(position);
+            int suffix = readVInt(position);
+            if (key.length < shared + suffix)
+                key = Arrays.copyOf(key, Math.max(2 * key.length, shared + suffix));
+            for (int j = 0; j < suffix; ++j)
+                key[shared + j] = data.get(position[0] + j);
+            length = shared + suffix;
+            entry = position[0] + suffix;
+            pos = entry + entryWidth;
+            read++;
+            return true;
+        }
+
+        String Path() {
+            return new String(key, 0, length, StandardCharsets.UTF_8);
+        }
+
+        CheckedList.Entry Entry() {
+            return readEntry(entry);
+        }
+    }
+
+    interface EntryVisitor {
+        void visit(String path, CheckedList.Entry entry);
+    }
+
+    /**
+     * Keeps track of read bytes to know where the last complete log record ends
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long read;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0)
+                read++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0)
+                read += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            read += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Keeps track of written bytes to know block offsets
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long written;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+    }
+}
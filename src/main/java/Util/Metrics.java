@@ -0,0 +1,423 @@
+package Util;
+
+import javax.management.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of counters, timers and gauges of indexing and searching
+ * Counting is done with LongAdders, so it stays cheap with many threads,
+ * get metrics once (e.g. into a static field) and keep using them
+ * <p>
+ * Exported as Prometheus text (Prometheus(), Write(File), /metrics of SearchServer)
+ * and through JMX as attributes of one MBean
+ * <p>
+ * Labels are given as pairs: Counter("name", "help", "key", "value", ...)
+ *
+ * @author Michael Mario Kubicki
+ * @see Metrics#Prometheus()
+ * @see Metrics#RegisterJMX()
+ */
+public final class Metrics {
+
+    //Upper bounds of timer buckets, in seconds
+    private static final double[] BUCKETS = {
+            0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005,
+            0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; ++i)
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1e9);
+    }
+
+    private static final String JMX_NAME = "ir_programming_task:type=Metrics";
+
+    //name -> family, ordered for output
+    private static final ConcurrentHashMap<String, Family> families = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService exporter;
+
+    private Metrics() {
+    }
+
+    /**
+     * Counter, created on first call
+     *
+     * @param name   name of metric
+     * @param help   description
+     * @param labels pairs of label name and value
+     * @return Counter
+     * @author Michael Mario Kubicki
+     */
+    public static Counter Counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").series.computeIfAbsent(labels(labels), key -> new Counter());
+    }
+
+    /**
+     * Timer (histogram of durations), created on first call
+     *
+     * @param name   name of metric, should end with _seconds
+     * @param help   description
+     * @param labels pairs of label name and value
+     * @return Timer
+     * @author Michael Mario Kubicki
+     */
+    public static Timer Timer(String name, String help, String... labels) {
+        return (Timer) family(name, help, "histogram").series.computeIfAbsent(labels(labels), key -> new Timer());
+    }
+
+    /**
+     * Timer of a stage of indexing, e.g. "walk", "hash", "parse", "add", "commit"
+     *
+     * @param stage name of stage
+     * @return Timer
+     * @author Michael Mario Kubicki
+     */
+    public static Timer Stage(String stage) {
+        return Timer("ir_index_stage_seconds", "Time spent in each stage of indexing", "stage", stage);
+    }
+
+    /**
+     * Gauge, value is asked for when exported
+     * Replaces gauge of same name and labels
+     *
+     * @param name   name of metric
+     * @param help   description
+     * @param value  current value
+     * @param labels pairs of label name and value
+     * @author Michael Mario Kubicki
+     */
+    public static void Gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").series.put(labels(labels), value);
+    }
+
+    /**
+     * All metrics in Prometheus text format
+     *
+     * @return text
+     * @author Michael Mario Kubicki
+     */
+    public static String Prometheus() {
+        StringBuilder text = new StringBuilder();
+        for (Family family : new TreeMap<>(families).values()) {
+            text.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            text.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof Counter) {
+                    line(text, family.name, labels, ((Counter) metric).Get());
+                } else if (metric instanceof Timer) {
+                    Timer timer = (Timer) metric;
+                    long cumulative = 0;
+                    for (int i = 0; i < BUCKETS.length; ++i) {
+                        cumulative += timer.buckets[i].sum();
+                        line(text, family.name + "_bucket", with(labels, "le=\"" + BUCKETS[i] + "\""), cumulative);
+                    }
+                    long count = timer.Count();
+                    line(text, family.name + "_bucket", with(labels, "le=\"+Inf\""), count);
+                    line(text, family.name + "_sum", labels, timer.SumNanos() / 1e9);
+                    line(text, family.name + "_count", labels, count);
+                } else {
+                    line(text, family.name, labels, ((DoubleSupplier) metric).getAsDouble());
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Write Prometheus text to file, e.g. for node_exporter's textfile collector
+     * written to a temporary file first, so readers never see half a file
+     *
+     * @param file File to write
+     * @throws IOException Exception while writing
+     * @author Michael Mario Kubicki
+     */
+    public static void Write(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(Prometheus());
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write metrics to file in an interval and once more when the program ends
+     *
+     * @param file   File to write
+     * @param millis interval
+     * @author Michael Mario Kubicki
+     * @see Metrics#Write(File)
+     */
+    public static synchronized void StartFileExport(File file, long millis) {
+        if (exporter != null)
+            exporter.shutdown();
+        exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        exporter.scheduleWithFixedDelay(() -> writeQuietly(file), millis, millis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> writeQuietly(file)));
+    }
+
+    /**
+     * Make metrics readable through JMX, e.g. with jconsole
+     * one attribute per counter/gauge, count and sum per timer
+     *
+     * @author Michael Mario Kubicki
+     */
+    public static void RegisterJMX() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(new Bean(), name);
+        } catch (JMException e) {
+            //Metrics still work without JMX
+            e.printStackTrace(System.out);
+        }
+    }
+
+    private static void writeQuietly(File file) {
+        try {
+            Write(file);
+        } catch (IOException e) {
+            e.printStackTrace(System.out);
+        }
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type))
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type);
+        return family;
+    }
+
+    /**
+     * Labels in Prometheus format, key of a series
+     *
+     * @param labels pairs of label name and value
+     * @return e.g. stage="hash",type=".txt" or empty
+     * @author Michael Mario Kubicki
+     */
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels have to be pairs of name and value");
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0)
+                text.append(',');
+            text.append(labels[i]).append("=\"");
+            for (char c : labels[i + 1].toCharArray()) {
+                if (c == '\\' || c == '"')
+                    text.append('\\').append(c);
+                else if (c == '\n')
+                    text.append("\\n");
+                else
+                    text.append(c);
+            }
+            text.append('"');
+        }
+        return text.toString();
+    }
+
+    private static String with(String labels, String label) {
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    private static void line(StringBuilder text, String name, String labels, Object value) {
+        text.append(name);
+        if (!labels.isEmpty())
+            text.append('{').append(labels).append('}');
+        text.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Metrics of one name, one series per set of labels
+     *
+     * @author Michael Mario Kubicki
+     */
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        //labels -> Counter, Timer or DoubleSupplier
+        final ConcurrentHashMap<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Number which only goes up
+     *
+     * @author Michael Mario Kubicki
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        private Counter() {
+        }
+
+        public void Inc() {
+            value.increment();
+        }
+
+        public void Add(long amount) {
+            value.add(amount);
+        }
+
+        public long Get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Histogram of durations
+     * long start = timer.Start(); ... timer.Stop(start);
+     *
+     * @author Michael Mario Kubicki
+     */
+    public static final class Timer {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Timer() {
+            for (int i = 0; i < buckets.length; ++i)
+                buckets[i] = new LongAdder();
+        }
+
+        public long Start() {
+            return System.nanoTime();
+        }
+
+        /**
+         * Record time since start
+         *
+         * @param start value of Start()
+         * @return nanoseconds since start
+         * @author Michael Mario Kubicki
+         */
+        public long Stop(long start) {
+            long nanos = System.nanoTime() - start;
+            Observe(nanos);
+            return nanos;
+        }
+
+        /**
+         * Record a duration
+         *
+         * @param nanos duration in nanoseconds
+         * @author Michael Mario Kubicki
+         */
+        public void Observe(long nanos) {
+            int bucket = Arrays.binarySearch(BUCKET_NANOS, nanos);
+            if (bucket < 0)
+                bucket = -bucket - 1;
+            //Longer than last bucket only counts for +Inf
+            if (bucket < buckets.length)
+                buckets[bucket].increment();
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        public long Count() {
+            return count.sum();
+        }
+
+        public long SumNanos() {
+            return sumNanos.sum();
+        }
+    }
+
+    /**
+     * All metrics as read only attributes
+     * Names are name[labels], timers have name_count[labels] and name_sum[labels] in seconds
+     *
+     * @author Michael Mario Kubicki
+     */
+    private static final class Bean implements DynamicMBean {
+
+        private static Map<String, Object> values() {
+            Map<String, Object> values = new TreeMap<>();
+            for (Family family : families.values()) {
+                for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                    String labels = series.getKey().isEmpty() ? "" : "[" + series.getKey().replace("\"", "") + "]";
+                    Object metric = series.getValue();
+                    if (metric instanceof Counter) {
+                        values.put(family.name + labels, ((Counter) metric).Get());
+                    } else if (metric instanceof Timer) {
+                        values.put(family.name + "_count" + labels, ((Timer) metric).Count());
+                        values.put(family.name + "_sum" + labels, ((Timer) metric).SumNanos() / 1e9);
+                    } else {
+                        values.put(family.name + labels, ((DoubleSupplier) metric).getAsDouble());
+                    }
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = values().get(attribute);
+            if (value == null)
+                throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes)
+                if (values.containsKey(attribute))
+                    list.add(new Attribute(attribute, values.get(attribute)));
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+            throw new MBeanException(new UnsupportedOperationException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Object> value : values().entrySet())
+                attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                        value.getKey(), true, false, false));
+            return new MBeanInfo(Metrics.class.getName(), "Metrics of indexing and searching",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
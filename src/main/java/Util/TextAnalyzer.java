@@ -5,30 +5,135 @@ import org.apache.lucene.analysis.core.LowerCaseFilterFactory;
 import org.apache.lucene.analysis.core.StopFilterFactory;
 import org.apache.lucene.analysis.custom.CustomAnalyzer;
 import org.apache.lucene.analysis.en.PorterStemFilterFactory;
+import org.apache.lucene.analysis.miscellaneous.KeywordRepeatFilterFactory;
 import org.apache.lucene.analysis.standard.StandardTokenizerFactory;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Storage for custom Analyzer
+ * Analysis chains are registered by name and built once,
+ * the shared Analyzer reuses its TokenStreamComponents per thread
+ * <p>
+ * Shared Analyzers must not be closed by users, use Close() at the end of the program
+ *
+ * @author Michael Mario Kubicki
+ * @see TextAnalyzer#GetAnalyzer(String)
+ * @see TextAnalyzer#Register(String, Chain)
  */
 public class TextAnalyzer {
+
+    //StandardTokenizer, Lowercase, Stopwords, Porter stemming
+    public static final String DEFAULT = "default";
+    //StandardTokenizer, Lowercase
+    public static final String SIMPLE = "simple";
+    //StandardTokenizer, Lowercase, every word followed by its Porter stem (keyword = word, not keyword = stem)
+    public static final String SURFACE = "surface";
+
+    //Name -> how to build
+    private static final Map<String, Chain> chains = new ConcurrentHashMap<>();
+    //Name -> built Analyzer
+    private static final Map<String, Analyzer> analyzers = new ConcurrentHashMap<>();
+
+    static {
+        chains.put(DEFAULT, () -> CustomAnalyzer.builder()
+                .withTokenizer(StandardTokenizerFactory.class)
+                .addTokenFilter(LowerCaseFilterFactory.class)
+                .addTokenFilter(StopFilterFactory.class)
+                .addTokenFilter(PorterStemFilterFactory.class)
+                .build());
+        chains.put(SIMPLE, () -> CustomAnalyzer.builder()
+                .withTokenizer(StandardTokenizerFactory.class)
+                .addTokenFilter(LowerCaseFilterFactory.class)
+                .build());
+        chains.put(SURFACE, () -> CustomAnalyzer.builder()
+                .withTokenizer(StandardTokenizerFactory.class)
+                .addTokenFilter(LowerCaseFilterFactory.class)
+                .addTokenFilter(KeywordRepeatFilterFactory.class)
+                .addTokenFilter(PorterStemFilterFactory.class)
+                .build());
+    }
+
     /**
      * Uses Lucene StandardTokenizer
      * Lowercase
      * Standard stopwords
      * and Porter stemming
      *
-     * @return Analyzer build using above mentioned Tokenizer and Filter
+     * @return shared Analyzer build using above mentioned Tokenizer and Filter
      * @throws IOException "for some reason..."
      * @author Michael Mario Kubicki
      */
     public static Analyzer GetAnalyzer() throws IOException {
-        return CustomAnalyzer.builder()
-                .withTokenizer(StandardTokenizerFactory.class)
-                .addTokenFilter(LowerCaseFilterFactory.class)
-                .addTokenFilter(StopFilterFactory.class)
-                .addTokenFilter(PorterStemFilterFactory.class)
-                .build();
+        return GetAnalyzer(DEFAULT);
+    }
+
+    /**
+     * Shared Analyzer of registered chain, built on first use
+     *
+     * @param name name of chain
+     * @return shared Analyzer
+     * @throws IOException              Exception while building the chain
+     * @throws IllegalArgumentException no chain with that name
+     * @author Michael Mario Kubicki
+     */
+    public static Analyzer GetAnalyzer(String name) throws IOException, IllegalArgumentException {
+        Analyzer analyzer = analyzers.get(name);
+        if (analyzer != null)
+            return analyzer;
+
+        Chain chain = chains.get(name);
+        if (chain == null)
+            throw new IllegalArgumentException("No analyzer named " + name);
+
+        //Only first call builds, SPI lookup happens once
+        synchronized (analyzers) {
+            analyzer = analyzers.get(name);
+            if (analyzer == null) {
+                analyzer = chain.build();
+                analyzers.put(name, analyzer);
+            }
+        }
+        return analyzer;
+    }
+
+    /**
+     * Register own analysis chain
+     * Replaces chain with same name, Analyzer already built for it is closed
+     *
+     * @param name  name of chain
+     * @param chain how to build the Analyzer
+     * @author Michael Mario Kubicki
+     */
+    public static void Register(String name, Chain chain) {
+        synchronized (analyzers) {
+            chains.put(name, chain);
+            Analyzer old = analyzers.remove(name);
+            if (old != null)
+                old.close();
+        }
+    }
+
+    /**
+     * Close all built Analyzers
+     * Next GetAnalyzer(...) builds them again
+     *
+     * @author Michael Mario Kubicki
+     */
+    public static void Close() {
+        synchronized (analyzers) {
+            analyzers.values().forEach(Analyzer::close);
+            analyzers.clear();
+        }
+    }
+
+    /**
+     * Builds an Analyzer
+     */
+    @FunctionalInterface
+    public interface Chain {
+        Analyzer build() throws IOException;
     }
 }
@@ -0,0 +1,121 @@
+package Indexing;
+
+import Util.LinkPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Files found by crawls and single files checked by Accept(...) have to agree
+ *
+ * @author Michael Mario Kubicki
+ */
+public class DirectoryCrawlerTest {
+
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("crawl");
+        for (String file : new String[]{"a.txt", "b.html", "c.pdf", "docs/d.txt", "docs/deep/e.txt", "tmp/f.txt"}) {
+            Path path = root.resolve(file);
+            Files.createDirectories(path.getParent());
+            Files.write(path, file.getBytes());
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private DirectoryCrawler crawler() {
+        return new DirectoryCrawler(new IndexFileFilter(new HashSet<>(Arrays.asList(".txt", ".html"))));
+    }
+
+    private Set<String> crawl(DirectoryCrawler crawler) throws IOException {
+        Set<String> found = Collections.synchronizedSet(new TreeSet<>());
+        crawler.Crawl(root.toFile(), (file, attrs) -> found.add(root.relativize(file.toPath()).toString().replace('\\', '/')));
+        return new TreeSet<>(found);
+    }
+
+    private Set<String> accepted(DirectoryCrawler crawler) throws IOException {
+        Set<String> found = new TreeSet<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(path -> crawler.Accept(root.toFile(), path.toFile()) != null)
+                    .forEach(path -> found.add(root.relativize(path).toString().replace('\\', '/')));
+        }
+        return found;
+    }
+
+    private static Set<String> set(String... paths) {
+        return new TreeSet<>(Arrays.asList(paths));
+    }
+
+    @Test
+    public void everyFileOfTypes() throws IOException {
+        DirectoryCrawler crawler = crawler();
+        Set<String> expected = set("a.txt", "b.html", "docs/d.txt", "docs/deep/e.txt", "tmp/f.txt");
+        assertEquals(expected, crawl(crawler));
+        assertEquals(expected, accepted(crawler));
+    }
+
+    @Test
+    public void globsAndDepth() throws IOException {
+        DirectoryCrawler crawler = crawler();
+        crawler.SetGlobs(Collections.singletonList("**.txt"), Collections.singletonList("tmp"));
+        crawler.SetMaxDepth(2);
+        Set<String> expected = set("a.txt", "docs/d.txt");
+        assertEquals(expected, crawl(crawler));
+        assertEquals(expected, accepted(crawler));
+    }
+
+    @Test
+    public void parallelCrawlFindsTheSame() throws IOException {
+        DirectoryCrawler crawler = crawler();
+        crawler.SetThreadCount(4);
+        assertEquals(set("a.txt", "b.html", "docs/d.txt", "docs/deep/e.txt", "tmp/f.txt"), crawl(crawler));
+    }
+
+    @Test
+    public void linkedDirectoryOnlyFollowedIfWanted() throws IOException {
+        Path outside = Files.createTempDirectory("outside");
+        try {
+            Files.write(outside.resolve("g.txt"), new byte[]{1});
+            try {
+                Files.createSymbolicLink(root.resolve("linked"), outside);
+            } catch (UnsupportedOperationException | IOException e) {
+                //No links on this file system
+                return;
+            }
+
+            DirectoryCrawler crawler = crawler();
+            assertTrue(crawl(crawler).contains("linked/g.txt"));
+            assertNotNull(crawler.Accept(root.toFile(), root.resolve("linked/g.txt").toFile()));
+
+            crawler.SetLinks(LinkPolicy.Skip);
+            assertFalse(crawl(crawler).contains("linked/g.txt"));
+            assertNull(crawler.Accept(root.toFile(), root.resolve("linked/g.txt").toFile()));
+        } finally {
+            Files.deleteIfExists(root.resolve("linked"));
+            Files.deleteIfExists(outside.resolve("g.txt"));
+            Files.deleteIfExists(outside);
+        }
+    }
+
+    @Test
+    public void fileOutsideRootIsNotAccepted() {
+        assertNull(crawler().Accept(root.resolve("docs").toFile(), root.resolve("a.txt").toFile()));
+    }
+}
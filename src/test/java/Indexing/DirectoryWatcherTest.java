@@ -0,0 +1,124 @@
+package Indexing;
+
+import Util.CheckedList;
+import Util.RankingModel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Watched directories renamed or moved while watching
+ *
+ * @author Michael Mario Kubicki
+ */
+public class DirectoryWatcherTest {
+
+    private static final Set<String> TYPES = Collections.singleton(".txt");
+
+    private Path temp;
+    private Path documents;
+    private CheckedList checkedList;
+    private Indexer indexer;
+    private DirectoryWatcher watcher;
+    private Thread thread;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    @Before
+    public void setUp() throws IOException {
+        temp = Files.createTempDirectory("watcher");
+        documents = Files.createDirectory(temp.resolve("documents"));
+        Files.createDirectories(documents.resolve("old/sub"));
+        Files.write(documents.resolve("old/a.txt"), "a".getBytes());
+        Files.write(documents.resolve("old/sub/b.txt"), "b".getBytes());
+
+        checkedList = CheckedList.Load(Files.createDirectory(temp.resolve("checked")).toFile());
+        indexer = new Indexer();
+        indexer.SetUp(temp.resolve("index").toFile(), RankingModel.Okapi, new PlainIndexer(), checkedList);
+        indexer.Index(documents.toFile(), TYPES);
+
+        watcher = new DirectoryWatcher(indexer, checkedList, documents.toFile(), TYPES, 20, 60000, 1000);
+        thread = new Thread(() -> {
+            try {
+                watcher.Run();
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        //Let watcher register directories
+        sleep(300);
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        watcher.Stop();
+        thread.join(10000);
+        indexer.Close();
+        try (Stream<Path> files = Files.walk(temp)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+        assertNull(failure.get());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean eventually(BooleanSupplier condition) {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); ++i)
+            sleep(50);
+        return condition.getAsBoolean();
+    }
+
+    private boolean indexed(Path path) {
+        try {
+            return checkedList.Get(path.toFile().getPath()) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void renamedDirectoryIsIndexedUnderNewPath() throws IOException {
+        Files.move(documents.resolve("old"), documents.resolve("new"));
+        assertTrue(eventually(() -> indexed(documents.resolve("new/sub/b.txt"))));
+        assertTrue(eventually(() -> !indexed(documents.resolve("old/sub/b.txt"))));
+        assertFalse(indexed(documents.resolve("old/a.txt")));
+
+        //Events of renamed directory come with its new path
+        Files.write(documents.resolve("new/sub/c.txt"), "c".getBytes());
+        assertTrue(eventually(() -> indexed(documents.resolve("new/sub/c.txt"))));
+        assertFalse(indexed(documents.resolve("old/sub/c.txt")));
+    }
+
+    @Test
+    public void movedAwayDirectoryIsRemovedAndNotWatched() throws IOException {
+        Path away = temp.resolve("away");
+        Files.move(documents.resolve("old"), away);
+        assertTrue(eventually(() -> !indexed(documents.resolve("old/a.txt"))
+                && !indexed(documents.resolve("old/sub/b.txt"))));
+
+        //Changes outside the document directory aren't indexed anywhere
+        Files.write(away.resolve("sub/c.txt"), "c".getBytes());
+        sleep(300);
+        assertFalse(indexed(documents.resolve("old/sub/c.txt")));
+        assertFalse(indexed(away.resolve("sub/c.txt")));
+    }
+}
@@ -0,0 +1,164 @@
+package Indexing;
+
+import Util.CheckedList;
+import Util.RankingModel;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * One indexer set up again for another index
+ *
+ * @author Michael Mario Kubicki
+ */
+public class IndexerTest {
+
+    private static final Set<String> TYPES = Collections.singleton(".txt");
+
+    private Path temp;
+    private File documents;
+
+    @Before
+    public void setUp() throws IOException {
+        temp = Files.createTempDirectory("indexer");
+        documents = Files.createDirectory(temp.resolve("documents")).toFile();
+        for (int i = 0; i < 20; ++i)
+            Files.write(documents.toPath().resolve("doc" + i + ".txt"), ("document number " + i).getBytes());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(temp)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static int documents(Indexer indexer) throws IOException {
+        int count = 0;
+        for (IndexWriter writer : indexer.GetWriters())
+            try (DirectoryReader reader = DirectoryReader.open(writer)) {
+                count += reader.numDocs();
+            }
+        return count;
+    }
+
+    private void indexInto(Indexer indexer, String index, int shards) throws IOException {
+        indexer.SetShardCount(shards);
+        indexer.SetUp(temp.resolve(index).toFile(), RankingModel.Okapi, new PlainIndexer(), new CheckedList());
+        indexer.Index(documents, TYPES);
+        assertEquals(20, documents(indexer));
+        indexer.Close();
+    }
+
+    @Test
+    public void moreShardsAfterSetUpAgain() throws IOException {
+        Indexer indexer = new Indexer();
+        indexInto(indexer, "one", 1);
+        indexInto(indexer, "four", 4);
+        indexInto(indexer, "two", 2);
+    }
+
+    @Test
+    public void moreShardsAfterSetUpAgainWithWorkers() throws IOException {
+        Indexer indexer = new Indexer();
+        indexer.SetThreadCount(3);
+        indexInto(indexer, "one", 1);
+        indexInto(indexer, "four", 4);
+    }
+
+    /**
+     * CheckedList failing on one file
+     */
+    private static class FailingCheckedList extends CheckedList {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public FileState CheckFile(File file, BasicFileAttributes attrs) throws IOException {
+            if (file.getName().equals("doc7.txt"))
+                throw new IllegalStateException("broken");
+            return super.CheckFile(file, attrs);
+        }
+    }
+
+    private void failingCheckStopsIndexing(int threads) throws IOException {
+        Indexer indexer = new Indexer();
+        indexer.SetThreadCount(threads);
+        indexer.SetUp(temp.resolve("index").toFile(), RankingModel.Okapi, new PlainIndexer(), new FailingCheckedList());
+        try {
+            indexer.Index(documents, TYPES);
+            fail("Index(...) ignored failed check");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("doc7.txt"));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            indexer.Close();
+        }
+    }
+
+    @Test
+    public void failingCheckStopsIndexing() throws IOException {
+        failingCheckStopsIndexing(1);
+    }
+
+    @Test
+    public void failingCheckStopsWorkers() throws IOException {
+        failingCheckStopsIndexing(4);
+    }
+
+    @Test
+    public void storedContentHasBeginningOfEveryFile() throws IOException {
+        StringBuilder text = new StringBuilder("beginning");
+        for (int i = 0; i < 200; ++i)
+            text.append(" filler");
+        text.append(" ending");
+        Files.write(documents.toPath().resolve("long.txt"), text.toString().getBytes());
+        Files.write(documents.toPath().resolve("page.html"),
+                ("<html><head><title>Page</title></head><body>" + text + "</body></html>").getBytes());
+
+        Indexer indexer = new Indexer();
+        indexer.SetStoredContent(100, false);
+        indexer.SetUp(temp.resolve("index").toFile(), RankingModel.Okapi, new PlainIndexer(), new CheckedList());
+        indexer.Index(documents, new HashSet<>(Arrays.asList(".txt", ".html")));
+        try (DirectoryReader reader = DirectoryReader.open(indexer.GetWriter())) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for (String name : new String[]{"long.txt", "page.html", "doc3.txt"}) {
+                String path = documents.toPath().resolve(name).toFile().getPath();
+                TopDocs hits = searcher.search(new TermQuery(new Term("path", path)), 1);
+                assertEquals(1, hits.scoreDocs.length);
+                String stored = reader.document(hits.scoreDocs[0].doc).get("content");
+                assertNotNull(stored);
+                assertFalse(stored.isEmpty());
+                assertTrue(stored.length() <= 100);
+            }
+            Document doc = reader.document(searcher.search(new TermQuery(new Term("path",
+                    documents.toPath().resolve("long.txt").toFile().getPath())), 1).scoreDocs[0].doc);
+            assertTrue(doc.get("content").startsWith("beginning filler"));
+
+            //Whole content is still indexed, not only the stored beginning
+            assertEquals(2, searcher.count(new TermQuery(new Term("content", "end"))));
+        } finally {
+            indexer.Close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package Indexing;
+
+import Util.TextAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Batches with files which can't be read, replaced files and open files
+ *
+ * @author Michael Mario Kubicki
+ */
+public class MutationBatchTest {
+
+    private IndexWriter writer;
+    private MutationBatch batch;
+
+    /**
+     * Reader remembering if it was closed, failing on read if wanted
+     */
+    private static class TrackedReader extends StringReader {
+        private final boolean fail;
+        boolean read;
+        boolean closed;
+
+        TrackedReader(String text, boolean fail) {
+            super(text);
+            this.fail = fail;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            read = true;
+            if (fail)
+                throw new IOException("unreadable");
+            return super.read(cbuf, off, len);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            super.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        writer = new IndexWriter(new ByteBuffersDirectory(), new IndexWriterConfig(TextAnalyzer.GetAnalyzer()));
+        batch = new MutationBatch(Thread.currentThread(), 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+    }
+
+    private static List<Document> docs(String path, TrackedReader... readers) {
+        List<Document> docs = new ArrayList<>();
+        for (TrackedReader reader : readers) {
+            Document doc = new Document();
+            doc.add(new TextField("content", reader));
+            doc.add(new StringField("path", path, Field.Store.YES));
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    private int count(String path) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(writer)) {
+            return new IndexSearcher(reader).count(new TermQuery(new Term("path", path)));
+        }
+    }
+
+    @Test
+    public void badFileOnlyLosesItsOwnDocuments() throws IOException {
+        TrackedReader good = new TrackedReader("first", false);
+        TrackedReader bad = new TrackedReader("second", true);
+        TrackedReader notReached = new TrackedReader("second part", false);
+        TrackedReader last = new TrackedReader("third", false);
+        batch.Add("a", docs("a", good), 5);
+        batch.Add("b", docs("b", bad, notReached), 6);
+        batch.Add("c", docs("c", last), 5);
+
+        assertEquals(Collections.singletonList("b"), batch.Flush(writer));
+        assertTrue(batch.IsEmpty());
+        assertEquals(1, count("a"));
+        assertEquals(0, count("b"));
+        assertEquals(1, count("c"));
+        assertTrue(bad.closed);
+        assertTrue(notReached.closed);
+    }
+
+    @Test
+    public void failedUpdateRemovesOldVersion() throws IOException {
+        batch.Add("a", docs("a", new TrackedReader("old", false)), 3);
+        assertTrue(batch.Flush(writer).isEmpty());
+        assertEquals(1, count("a"));
+
+        batch.Update("a", docs("a", new TrackedReader("new", true)), 3);
+        assertEquals(Collections.singletonList("a"), batch.Flush(writer));
+        assertEquals(0, count("a"));
+    }
+
+    @Test
+    public void replacedDocumentsAreClosedUnread() throws IOException {
+        TrackedReader first = new TrackedReader("first", false);
+        TrackedReader second = new TrackedReader("second", false);
+        TrackedReader third = new TrackedReader("third", false);
+        batch.Add("a", docs("a", first), 5);
+        batch.Update("a", docs("a", second), 6);
+        assertTrue(first.closed);
+        assertFalse(first.read);
+
+        batch.Delete("a");
+        assertTrue(second.closed);
+        assertFalse(second.read);
+
+        batch.Add("a", docs("a", third), 5);
+        assertTrue(batch.Flush(writer).isEmpty());
+        assertEquals(1, count("a"));
+    }
+
+    @Test
+    public void queuedHtmlDocumentsKeepNoFilesOpen() throws IOException {
+        Path fds = Paths.get("/proc/self/fd");
+        if (!Files.isDirectory(fds))
+            //Can't count open files here
+            return;
+
+        Path dir = Files.createTempDirectory("batch");
+        try {
+            HTMLIndexer indexer = new HTMLIndexer();
+            long before = openFiles(fds);
+            for (int i = 0; i < 200; ++i) {
+                File file = dir.resolve("doc" + i + ".html").toFile();
+                Files.write(file.toPath(), ("<html><head><title>Title " + i + "</title></head><body>body text</body></html>").getBytes());
+                batch.Add(file.getPath(), indexer.indexAll(file), file.length());
+            }
+            assertTrue(openFiles(fds) - before < 10);
+
+            assertTrue(batch.Flush(writer).isEmpty());
+            assertTrue(openFiles(fds) - before < 10);
+            try (DirectoryReader reader = DirectoryReader.open(writer)) {
+                assertEquals(200, new IndexSearcher(reader).count(new TermQuery(new Term("content", "bodi"))));
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static long openFiles(Path fds) throws IOException {
+        try (Stream<Path> files = Files.list(fds)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package Searching;
+
+import org.apache.lucene.search.ScoreDoc;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tokens of page cursors
+ *
+ * @author Michael Mario Kubicki
+ */
+public class PageCursorTest {
+
+    private static void assertNotACursor(String token) {
+        try {
+            PageCursor.Decode(token);
+            fail("Decoded " + token);
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void tokenGivesBackCursor() {
+        PageCursor cursor = PageCursor.Decode(new PageCursor(new ScoreDoc(12345, 1.75f), 40, -987654321, 1L << 40).Encode());
+        assertEquals(12345, cursor.After.doc);
+        assertEquals(1.75f, cursor.After.score, 0f);
+        assertEquals(40, cursor.Rank);
+        assertEquals(-987654321, cursor.Query);
+        assertEquals(1L << 40, cursor.Version);
+    }
+
+    @Test
+    public void tokenIsSafeInUrls() {
+        String token = new PageCursor(new ScoreDoc(-1 >>> 1, Float.MAX_VALUE), -1 >>> 1, -1, -1).Encode();
+        assertTrue(token.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    public void otherTokensAreRejected() {
+        String token = new PageCursor(new ScoreDoc(1, 1f), 10, 0, 0).Encode();
+        assertNotACursor("");
+        assertNotACursor("not a cursor!");
+        assertNotACursor(token.substring(0, token.length() - 2));
+        assertNotACursor(token + "AAAA");
+        //Other format
+        assertNotACursor("Ag" + token.substring(2));
+        //Negative docID
+        assertNotACursor(new PageCursor(new ScoreDoc(-5, 1f), 10, 0, 0).Encode());
+    }
+}
@@ -0,0 +1,46 @@
+package Searching;
+
+import org.apache.lucene.search.ScoreDoc;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Versions of the index seen by the cache
+ *
+ * @author Michael Mario Kubicki
+ */
+public class ResultCacheTest {
+
+    private static ResultCache.Entry entry(String key) {
+        return new ResultCache.Entry(key, new ScoreDoc[]{new ScoreDoc(1, 1f)},
+                new SearchResult[]{new SearchResult(1, 1f, "path", "title")});
+    }
+
+    @Test
+    public void newerVersionClearsCache() {
+        ResultCache cache = new ResultCache(10, 1 << 20);
+        cache.Put("a", 1, entry("a"));
+        assertNotNull(cache.Get("a", 1));
+        assertNull(cache.Get("a", 2));
+        assertEquals(0, cache.Count());
+        assertEquals(1, cache.Invalidations());
+    }
+
+    @Test
+    public void olderVersionIsMissAndKeepsCache() {
+        ResultCache cache = new ResultCache(10, 1 << 20);
+        cache.Put("a", 2, entry("a"));
+
+        //Request still on an older searcher
+        assertNull(cache.Get("a", 1));
+        cache.Put("b", 1, entry("b"));
+
+        assertEquals(1, cache.Count());
+        assertEquals(0, cache.Invalidations());
+        assertNotNull(cache.Get("a", 2));
+        assertNull(cache.Get("b", 2));
+        assertEquals(1, cache.Hits());
+        assertEquals(2, cache.Misses());
+    }
+}
@@ -0,0 +1,162 @@
+package Searching;
+
+import Indexing.Indexer;
+import Indexing.PlainIndexer;
+import Util.CheckedList;
+import Util.RankingModel;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Paging through results with cursors
+ * Scores repeat, so pages also have to agree on hits of equal score
+ *
+ * @author Michael Mario Kubicki
+ */
+public class SearcherPagingTest {
+
+    private static final int DOCUMENTS = 60;
+
+    private Path temp;
+    private File index;
+
+    @Before
+    public void setUp() throws IOException {
+        temp = Files.createTempDirectory("paging");
+        Path documents = Files.createDirectory(temp.resolve("documents"));
+        for (int i = 0; i < DOCUMENTS; ++i) {
+            StringBuilder text = new StringBuilder("filler text of document");
+            for (int j = 0; j <= i % 4; ++j)
+                text.append(" apple");
+            Files.write(documents.resolve("doc" + i + ".txt"), text.toString().getBytes());
+        }
+
+        //Many small segments, so searches are split into slices
+        index = temp.resolve("index").toFile();
+        Indexer indexer = new Indexer();
+        indexer.SetBatchSize(4, 1 << 20);
+        indexer.SetWriterBuffer(16, 4);
+        indexer.SetMergePolicy(NoMergePolicy.INSTANCE, false);
+        indexer.SetUp(index, RankingModel.Okapi, new PlainIndexer(), new CheckedList());
+        indexer.Index(documents.toFile(), Collections.singleton(".txt"));
+        indexer.Close();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(temp)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private Searcher searcher(int threads) throws IOException {
+        Searcher searcher = new Searcher();
+        searcher.SetSearchThreads(threads);
+        searcher.SetUp(index, RankingModel.Okapi, "content", "title");
+        return searcher;
+    }
+
+    private static List<SearchResult> allPages(Searcher searcher, String query, int pageSize)
+            throws IOException, ParseException {
+        List<SearchResult> results = new ArrayList<>();
+        String cursor = null;
+        do {
+            SearchPage page = searcher.SearchPage(query, pageSize, cursor);
+            assertTrue(page.Results.length <= pageSize);
+            results.addAll(Arrays.asList(page.Results));
+            cursor = page.Cursor;
+        } while (cursor != null && results.size() <= DOCUMENTS);
+        return results;
+    }
+
+    private void pagesGiveAllHitsOnce(int threads) throws IOException, ParseException {
+        Searcher searcher = searcher(threads);
+        try {
+            SearchResult[] all = searcher.SearchResults("apple", DOCUMENTS * 2);
+            assertEquals(DOCUMENTS, all.length);
+
+            for (int pageSize : new int[]{1, 7, 15, 60, 100}) {
+                List<SearchResult> paged = allPages(searcher, "apple", pageSize);
+                assertEquals(DOCUMENTS, paged.size());
+                Set<String> paths = new HashSet<>();
+                for (int i = 0; i < paged.size(); ++i) {
+                    assertTrue(paths.add(paged.get(i).Path));
+                    assertEquals(i + 1, paged.get(i).Rank);
+                    //Same order as one big page
+                    assertEquals(all[i].Path, paged.get(i).Path);
+                    assertEquals(all[i].Score, paged.get(i).Score, 0f);
+                }
+            }
+        } finally {
+            searcher.Close();
+        }
+    }
+
+    @Test
+    public void pagesGiveAllHitsOnce() throws IOException, ParseException {
+        pagesGiveAllHitsOnce(1);
+    }
+
+    @Test
+    public void pagesOfSlicedSearchGiveAllHitsOnce() throws IOException, ParseException {
+        pagesGiveAllHitsOnce(4);
+    }
+
+    @Test
+    public void totalHitsExactBelowThreshold() throws IOException, ParseException {
+        Searcher searcher = searcher(1);
+        try {
+            searcher.SetTotalHitsThreshold(0);
+            SearchPage page = searcher.SearchPage("apple", 10, null);
+            assertTrue(page.TotalHitsExact);
+            assertEquals(DOCUMENTS, page.TotalHits);
+
+            //Above threshold total may only be a lower bound, paging still finds everything
+            searcher.SetTotalHitsThreshold(5);
+            page = searcher.SearchPage("apple", 10, null);
+            assertTrue(page.TotalHits >= 10 && page.TotalHits <= DOCUMENTS);
+            if (page.TotalHitsExact)
+                assertEquals(DOCUMENTS, page.TotalHits);
+            assertNotNull(page.Cursor);
+            assertEquals(DOCUMENTS, allPages(searcher, "apple", 10).size());
+        } finally {
+            searcher.Close();
+        }
+    }
+
+    @Test
+    public void lastPageHasNoCursor() throws IOException, ParseException {
+        Searcher searcher = searcher(1);
+        try {
+            SearchPage page = searcher.SearchPage("apple", DOCUMENTS, null);
+            assertEquals(DOCUMENTS, page.Results.length);
+            assertNull(page.Cursor);
+            assertEquals(0, searcher.SearchPage("banana", 10, null).Results.length);
+        } finally {
+            searcher.Close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorOfOtherQueryIsRejected() throws IOException, ParseException {
+        Searcher searcher = searcher(1);
+        try {
+            String cursor = searcher.SearchPage("apple", 10, null).Cursor;
+            searcher.SearchPage("filler", 10, cursor);
+        } finally {
+            searcher.Close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package Searching;
+
+import Indexing.Indexer;
+import Indexing.PlainIndexer;
+import Util.CheckedList;
+import Util.IndexShards;
+import Util.RankingModel;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Words suggested for content terms, with and without stored content
+ *
+ * @author Michael Mario Kubicki
+ */
+public class SuggesterTest {
+
+    private static final Set<String> TYPES = new HashSet<>(Arrays.asList(".txt", ".html"));
+
+    private Path temp;
+    private Path documents;
+
+    @Before
+    public void setUp() throws IOException {
+        temp = Files.createTempDirectory("suggest");
+        documents = Files.createDirectory(temp.resolve("documents"));
+        html("a.html", "Happiness Report", "running happily and happy days");
+        html("b.html", "Other", "running happy people");
+        Files.write(documents.resolve("c.txt"), "running happy".getBytes());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(temp)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private void html(String name, String title, String body) throws IOException {
+        Files.write(documents.resolve(name),
+                ("<html><head><title>" + title + "</title></head><body>" + body + "</body></html>").getBytes());
+    }
+
+    private static List<String> texts(Suggester.Suggestion[] suggestions) {
+        List<String> texts = new ArrayList<>();
+        for (Suggester.Suggestion suggestion : suggestions)
+            texts.add(suggestion.Text);
+        return texts;
+    }
+
+    /**
+     * Index documents, build suggester of index and look prefixes up
+     */
+    private Map<String, List<String>> suggest(int storedChars, String... prefixes) throws IOException {
+        File index = temp.resolve("index" + storedChars).toFile();
+        Indexer indexer = new Indexer();
+        indexer.SetStoredContent(storedChars, false);
+        indexer.SetUp(index, RankingModel.Okapi, new PlainIndexer(), new CheckedList());
+        indexer.Index(documents.toFile(), TYPES);
+        indexer.Close();
+
+        File file = new File(index, Suggester.FILE_NAME);
+        Map<String, List<String>> found = new HashMap<>();
+        try (Directory directory = IndexShards.Open(index);
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+            Suggester.Build(reader, 1, file, 100);
+            //Titles of segments are only analyzed once, built again from the same reader
+            Suggester.Build(reader, 2, file, 100);
+        }
+        Suggester suggester = Suggester.Open(file);
+        try {
+            assertEquals(2, suggester.Version());
+            for (String prefix : prefixes)
+                found.put(prefix, texts(suggester.Lookup(prefix, 10)));
+        } finally {
+            suggester.Close();
+        }
+        return found;
+    }
+
+    @Test
+    public void storedContentGivesWordsOfStems() throws IOException {
+        Map<String, List<String>> found = suggest(1000, "ru", "hap");
+        assertEquals(Collections.singletonList("running"), found.get("ru"));
+        assertTrue(found.get("hap").contains("happy"));
+        assertTrue(found.get("hap").contains("Happiness Report"));
+        //Never a stem
+        assertFalse(found.get("hap").contains("happi"));
+    }
+
+    @Test
+    public void withoutStoredContentOnlyWordsOfTitles() throws IOException {
+        Map<String, List<String>> found = suggest(0, "ru", "hap");
+        assertTrue(found.get("ru").isEmpty());
+        assertTrue(found.get("hap").contains("Happiness Report"));
+        assertFalse(found.get("hap").contains("happi"));
+    }
+}
@@ -0,0 +1,190 @@
+package Util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Format of stored checked files: front-coded snapshot, log replay and crash recovery
+ *
+ * @author Michael Mario Kubicki
+ */
+public class ManifestTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("manifest").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static CheckedList.Entry entry(long n) {
+        byte[] digest = new byte[Manifest.DIGEST_WIDTH];
+        Arrays.fill(digest, (byte) n);
+        return new CheckedList.Entry(n, 1000 + n, 2000 + n, digest);
+    }
+
+    private static void assertEntry(long n, CheckedList.Entry entry) {
+        assertNotNull(entry);
+        assertEquals(n, entry.Size);
+        assertEquals(1000 + n, entry.Modified);
+        assertEquals(2000 + n, entry.FileKey);
+        assertArrayEquals(entry(n).Digest, entry.Digest);
+    }
+
+    @Test
+    public void compactedSnapshotFindsEveryPathInSortedOrder() throws IOException {
+        //More than one block, long shared prefixes and non-ASCII paths
+        Map<String, CheckedList.Entry> changes = new HashMap<>();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            String path = "/docs/some/deep/directory/" + (i % 7) + "/file_" + i + (i % 10 == 0 ? "_\u00e4\u00f6\u00fc" : "") + ".txt";
+            paths.add(path);
+            changes.put(path, entry(i));
+        }
+        File file = new File(dir, "checked.idx");
+        Manifest.Open(file).Compact(file, changes);
+
+        Manifest manifest = Manifest.Open(file);
+        assertEquals(paths.size(), manifest.Count());
+        for (int i = 0; i < paths.size(); ++i)
+            assertEntry(i, manifest.Lookup(paths.get(i)));
+        assertNull(manifest.Lookup("/docs/missing.txt"));
+        assertEquals(-1, manifest.Find("/docs/some/deep/directory/0/file_"));
+
+        //Numbers are dense and follow the order of ForEach
+        List<String> visited = new ArrayList<>();
+        manifest.ForEach((path, entry) -> visited.add(path));
+        assertEquals(paths.size(), visited.size());
+        for (int i = 0; i < visited.size(); ++i)
+            assertEquals(i, manifest.Find(visited.get(i)));
+        for (int i = 1; i < visited.size(); ++i)
+            assertTrue(compareUtf8(visited.get(i - 1), visited.get(i)) < 0);
+    }
+
+    @Test
+    public void compactMergesChangesAndRemovals() throws IOException {
+        Map<String, CheckedList.Entry> base = new HashMap<>();
+        base.put("/a", entry(1));
+        base.put("/b", entry(2));
+        base.put("/c", entry(3));
+        File first = new File(dir, "checked.idx");
+        Manifest.Open(first).Compact(first, base);
+
+        Map<String, CheckedList.Entry> changes = new HashMap<>();
+        changes.put("/b", CheckedList.Entry.REMOVED);
+        changes.put("/c", entry(30));
+        changes.put("/d", entry(4));
+        File second = new File(dir, "checked.1.idx");
+        Manifest.Open(first).Compact(second, changes);
+
+        Manifest manifest = Manifest.Open(second);
+        assertEquals(3, manifest.Count());
+        assertEntry(1, manifest.Lookup("/a"));
+        assertNull(manifest.Lookup("/b"));
+        assertEntry(30, manifest.Lookup("/c"));
+        assertEntry(4, manifest.Lookup("/d"));
+    }
+
+    @Test
+    public void logIsReplayedInOrder() throws IOException {
+        File log = new File(dir, "checked.log");
+        Map<String, CheckedList.Entry> first = new LinkedHashMap<>();
+        first.put("/a", entry(1));
+        first.put("/b", entry(2));
+        long length = Manifest.AppendLog(log, first);
+        Map<String, CheckedList.Entry> second = new LinkedHashMap<>();
+        second.put("/a", CheckedList.Entry.REMOVED);
+        second.put("/b", entry(20));
+        assertTrue(Manifest.AppendLog(log, second) > length);
+
+        Map<String, CheckedList.Entry> changes = new HashMap<>();
+        assertEquals(log.length(), Manifest.ReadLog(log, changes));
+        assertSame(CheckedList.Entry.REMOVED, changes.get("/a"));
+        assertEntry(20, changes.get("/b"));
+    }
+
+    @Test
+    public void tornRecordIsCutOffBeforeAppending() throws IOException {
+        CheckedList checkedList = CheckedList.Load(dir);
+        checkedList.record("/a", entry(1));
+        checkedList.Save();
+        File log = new File(dir, "checked.log");
+        long complete = log.length();
+
+        //Crash while writing: start of a record, then zeros
+        try (FileOutputStream out = new FileOutputStream(log, true)) {
+            out.write(new byte[]{3, 10, '/', 'b'});
+            out.write(new byte[16]);
+        }
+        Map<String, CheckedList.Entry> changes = new HashMap<>();
+        assertEquals(complete, Manifest.ReadLog(log, changes));
+
+        checkedList = CheckedList.Load(dir);
+        assertEquals(complete, log.length());
+        checkedList.record("/c", entry(3));
+        checkedList.Save();
+
+        checkedList = CheckedList.Load(dir);
+        assertEntry(1, checkedList.Get("/a"));
+        assertNull(checkedList.Get("/b"));
+        assertEntry(3, checkedList.Get("/c"));
+    }
+
+    @Test
+    public void brokenHeaderGivesEmptyLog() throws IOException {
+        File log = new File(dir, "checked.log");
+        try (FileOutputStream out = new FileOutputStream(log)) {
+            out.write(new byte[]{0x43, 0x4B});
+        }
+        CheckedList checkedList = CheckedList.Load(dir);
+        assertEquals(0, log.length());
+        checkedList.record("/a", entry(1));
+        checkedList.Save();
+        assertEntry(1, CheckedList.Load(dir).Get("/a"));
+    }
+
+    @Test
+    public void compactionWritesNextGeneration() throws IOException {
+        CheckedList checkedList = CheckedList.Load(dir);
+        //Log bigger than the minimum for compaction
+        for (int i = 0; i < 20000; ++i)
+            checkedList.record("/documents/file_" + i, entry(i % 100));
+        checkedList.Save();
+
+        assertFalse(new File(dir, "checked.log").exists());
+        assertTrue(new File(dir, "checked.1.idx").isFile());
+
+        checkedList.record("/documents/new", entry(7));
+        checkedList.Save();
+        checkedList = CheckedList.Load(dir);
+        assertEntry(42, checkedList.Get("/documents/file_19942"));
+        assertEntry(7, checkedList.Get("/documents/new"));
+    }
+
+    private static int compareUtf8(String a, String b) {
+        byte[] x = a.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        byte[] y = b.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        for (int i = 0; i < Math.min(x.length, y.length); ++i)
+            if (x[i] != y[i])
+                return (x[i] & 0xFF) - (y[i] & 0xFF);
+        return x.length - y.length;
+    }
+}